@@ -2,22 +2,32 @@ package com.vrazo.logcat.demo;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import androidx.annotation.NonNull;
+import androidx.core.view.ViewCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
 import android.annotation.SuppressLint;
+import android.graphics.Color;
 import android.os.Bundle;
 import android.os.Handler;
-import android.text.method.ScrollingMovementMethod;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
 import android.util.Log;
 import android.util.Pair;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.CheckBox;
-import android.widget.ScrollView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import java.util.ArrayList;
 import java.util.Random;
 
 import com.vrazo.logcat.LogCatDelegate;
+import com.vrazo.logcat.LogCatLogModel;
 import com.vrazo.logcat.LogCatMessage;
 import com.vrazo.logcat.LogCatMessageFilter;
 import com.vrazo.logcat.LogCatPriority;
@@ -25,11 +35,12 @@ import com.vrazo.logcat.LogCatPriorityFilter;
 
 @SuppressLint("SetTextI18n")
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
-    ScrollView scroller;
-    TextView logView;
+    RecyclerView logView;
     CheckBox autoScrollCheckBox;
     Button controlButton;
 
+    LogCatLogModel logModel;
+
     LogCatDelegate logCatDelegate;
     LogCatMessageFilter logCatMessageFilter;
     LogCatPriorityFilter logCatPriorityFilter;
@@ -47,15 +58,44 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         /*
          * Initialize the view components.
          */
-        scroller = findViewById(R.id.scroller);
         logView = findViewById(R.id.logView);
         autoScrollCheckBox = findViewById(R.id.autoScrollCheckBox);
         findViewById(R.id.clearButton).setOnClickListener(this);
         findViewById(R.id.sendRandomMessageButton).setOnClickListener(this);
         controlButton = findViewById(R.id.controlButton);
         controlButton.setOnClickListener(this);
-        logView.setHorizontallyScrolling(true);
-        logView.setMovementMethod(new ScrollingMovementMethod());
+
+        /*
+         * Initialize the log model. Messages appended from the delegate are applied to the list
+         * at most once per frame, no matter how quickly they arrive.
+         */
+        logModel = new LogCatLogModel(100000, new LogCatLogModel.FrameScheduler() {
+            @Override
+            public void scheduleFrame(@NonNull Runnable dispatch) {
+                ViewCompat.postOnAnimation(logView, dispatch);
+            }
+        });
+        final LogAdapter logAdapter = new LogAdapter(logModel);
+        logView.setLayoutManager(new LinearLayoutManager(this));
+        logView.setAdapter(logAdapter);
+        logModel.setListener(new LogCatLogModel.Listener() {
+            @Override
+            public void onLinesChanged(int removedFromStart, int insertedAtEnd) {
+                // Notify the adapter of the changes and if autoScroll is enabled, scroll the log
+                // view to the bottom.
+                if (removedFromStart > 0) {
+                    logAdapter.notifyItemRangeRemoved(0, removedFromStart);
+                }
+                if (insertedAtEnd > 0) {
+                    logAdapter.notifyItemRangeInserted(
+                        logModel.size() - insertedAtEnd, insertedAtEnd
+                    );
+                }
+                if (autoScrollCheckBox.isChecked() && logModel.size() > 0) {
+                    logView.scrollToPosition(logModel.size() - 1);
+                }
+            }
+        });
 
         /*
          * Initialize the Log Cat Delegate.
@@ -68,22 +108,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
              */
             @Override
             protected final void onNewMessage(final LogCatMessage message) {
-                runOnMainThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Append the message to the log view and if autoScroll is enabled, scroll
-                        // the log view to the bottom.
-                        logView.append(message.getFormatted("%d %v %t %m") + "\n");
-                        if (autoScrollCheckBox.isChecked()) {
-                            scroller.post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    scroller.smoothScrollTo(logView.getLeft(), logView.getBottom());
-                                }
-                            });
-                        }
-                    }
-                });
+                logModel.append(message);
             }
 
             /**
@@ -92,13 +117,20 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
              * @param error the error
              */
             @Override
-            protected final void onException(Exception error) {
+            protected final void onException(final Exception error) {
                 if (error instanceof InitializationException) {
                     Log.e("LogCatDelegate-Demo", "InitializationException: " + error.getMessage(), error);
-                    logView.append("InitializationException: " + error.getMessage());
+                } else {
+                    Log.e("LogCatDelegate-Demo", "Error: " + error.getMessage(), error);
                 }
-                Log.e("LogCatDelegate-Demo", "Error: " + error.getMessage(), error);
-                logView.append("ERROR: " + error.getMessage());
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(
+                            MainActivity.this, "ERROR: " + error.getMessage(), Toast.LENGTH_LONG
+                        ).show();
+                    }
+                });
             }
         };
 
@@ -118,31 +150,31 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     }
 
     /**
-     * Toggles the delegate between Registered and De-Registered
+     * Toggles the delegate between Running and Paused. The delegate is registered the first time,
+     * and afterwards only paused and resumed so that the Log Cat child-process stays warm.
      */
     public void toggleDelegate() {
-        if (this.logCatDelegate.isRegistered()) {
-            controlButton.setText("Stopping...");
-            controlButton.setEnabled(false);
-            this.logCatDelegate.deregisterAsync(new Runnable() {
-                @Override
-                public void run() {
-                    runOnMainThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            controlButton.setText("Start");
-                            controlButton.setEnabled(true);
-                        }
-                    });
-                }
-            });
-        } else {
+        if (!this.logCatDelegate.isRegistered()) {
             this.logCatDelegate.register();
             controlButton.setText("Stop");
-            controlButton.setEnabled(true);
+        } else if (this.logCatDelegate.isPaused()) {
+            this.logCatDelegate.resume();
+            controlButton.setText("Stop");
+        } else {
+            this.logCatDelegate.pause();
+            controlButton.setText("Start");
         }
     }
 
+    /**
+     * De-register the delegate, stopping the Log Cat child-process.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        this.logCatDelegate.deregisterAsync();
+    }
+
     /**
      * Sends a random message to log cat.
      */
@@ -191,7 +223,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     @Override
     public void onClick(View view) {
         if (view.getId() == R.id.clearButton) {
-            logView.setText("");
+            logModel.clear();
         } else if (view.getId() == R.id.sendRandomMessageButton) {
             sendRandomMessage();
         } else if (view.getId() == R.id.controlButton) {
@@ -207,4 +239,67 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     public void runOnMainThread(Runnable runnable) {
         new Handler(getMainLooper()).post(runnable);
     }
+
+    /**
+     * Binds the lines of the log model to the log view. The tag of each line is colored based on
+     * the priority of the message, using the tag position recorded by the model.
+     */
+    static final class LogAdapter extends RecyclerView.Adapter<LogAdapter.ViewHolder> {
+        static final class ViewHolder extends RecyclerView.ViewHolder {
+            final TextView textView;
+
+            ViewHolder(TextView textView) {
+                super(textView);
+                this.textView = textView;
+            }
+        }
+
+        private final LogCatLogModel model;
+
+        LogAdapter(LogCatLogModel model) {
+            this.model = model;
+        }
+
+        @NonNull
+        @Override
+        public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            TextView textView = new TextView(parent.getContext());
+            textView.setLayoutParams(new RecyclerView.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT
+            ));
+            return new ViewHolder(textView);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+            LogCatLogModel.Line line = model.getLine(position);
+            SpannableString text = new SpannableString(line.getText());
+            text.setSpan(
+                new ForegroundColorSpan(colorForPriority(line.getPriority())),
+                line.getTagStart(), line.getTagEnd(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE
+            );
+            holder.textView.setText(text);
+        }
+
+        @Override
+        public int getItemCount() {
+            return model.size();
+        }
+
+        private static int colorForPriority(int priority) {
+            switch (priority) {
+                case Log.ASSERT:
+                case Log.ERROR:
+                    return Color.RED;
+                case Log.WARN:
+                    return Color.rgb(0xFF, 0x8C, 0x00);
+                case Log.INFO:
+                    return Color.rgb(0x00, 0x80, 0x00);
+                case Log.DEBUG:
+                    return Color.BLUE;
+                default:
+                    return Color.GRAY;
+            }
+        }
+    }
 }
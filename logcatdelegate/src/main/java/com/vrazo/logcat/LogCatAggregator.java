@@ -0,0 +1,441 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link LogCatStage} that counts messages per tag, process ID and priority over a sliding
+ * window of time, and keeps track of the tags and processes logging the most messages.
+ *
+ * The window is divided into buckets, and the oldest bucket is discarded as time passes. Counts
+ * per priority are exact. Counts per tag and per process are estimated with a count-min sketch in
+ * each bucket, so memory use is constant no matter how many distinct tags and processes are seen;
+ * an estimate is never lower than the true count and exceeds it by at most a small fraction of
+ * the total number of messages in the window. The heaviest tags and processes are tracked in a
+ * candidate set of fixed size, replacing the lightest candidate whenever a heavier one is seen.
+ *
+ * Every message is passed on unchanged. Time is measured when messages reach this stage. Queries
+ * may be made from any thread at any time while messages are being counted; they only briefly
+ * synchronize with the pipeline to copy the current candidates.
+ *
+ * Only messages that pass the filters of the delegate reach a stage, so add the aggregator to a
+ * delegate without filters to count everything that is logged.
+ *
+ * <pre>
+ * LogCatAggregator aggregator = new LogCatAggregator();
+ * logCatDelegate.addStage(aggregator);
+ * // Later, from any thread:
+ * for (LogCatAggregator.Count&lt;String&gt; count : aggregator.getTopTags()) { ... }
+ * </pre>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatAggregator extends LogCatStage {
+    /**
+     * The number of rows in each count-min sketch.
+     */
+    private static final int DEPTH = 4;
+
+    /**
+     * The number of counters in each row of a count-min sketch. Must be a power of two.
+     */
+    private static final int WIDTH = 1024;
+
+    /**
+     * The estimated number of messages for a key in the window.
+     *
+     * @param <K> the type of the key
+     */
+    public static final class Count<K> {
+        private final K key;
+        private final long count;
+
+        Count(K key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        /**
+         * Retrieve the key, a tag or a process ID.
+         *
+         * @return the key
+         */
+        @NonNull
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * Retrieve the estimated number of messages.
+         *
+         * @return the number of messages
+         */
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count;
+        }
+    }
+
+    /**
+     * The counts for one dimension of a message, either its tag or its process ID.
+     */
+    private final class Dimension<K> {
+        /**
+         * A count-min sketch for each bucket, stored row by row.
+         */
+        final AtomicIntegerArray[] sketches = new AtomicIntegerArray[bucketCount];
+
+        /**
+         * The heaviest keys seen with their estimated counts, guarded by this dimension.
+         */
+        final HashMap<K, long[]> candidates = new HashMap<>();
+        K lightest;
+
+        Dimension() {
+            for (int i = 0; i < bucketCount; i++) {
+                sketches[i] = new AtomicIntegerArray(DEPTH * WIDTH);
+            }
+        }
+
+        /**
+         * Counts a key in the current bucket and updates the candidates. Only called from the
+         * pipeline.
+         */
+        void add(K key, int bucket, long epoch) {
+            int hash = mix(key.hashCode());
+            int step = mix(hash ^ 0x9E3779B9) | 1;
+            AtomicIntegerArray sketch = sketches[bucket];
+            for (int row = 0; row < DEPTH; row++) {
+                sketch.incrementAndGet(row * WIDTH + ((hash + row * step) & (WIDTH - 1)));
+            }
+            long count = estimate(hash, step, epoch);
+
+            synchronized (this) {
+                long[] candidate = candidates.get(key);
+                if (candidate != null) {
+                    candidate[0] = count;
+                    if (key.equals(lightest)) {
+                        lightest = findLightest();
+                    }
+                } else if (candidates.size() < topK) {
+                    candidates.put(key, new long[]{count});
+                    if (lightest == null || count < candidates.get(lightest)[0]) {
+                        lightest = key;
+                    }
+                } else if (count > candidates.get(lightest)[0]) {
+                    candidates.remove(lightest);
+                    candidates.put(key, new long[]{count});
+                    lightest = findLightest();
+                }
+            }
+        }
+
+        /**
+         * Re-estimates every candidate after the window has moved, forgetting those that are no
+         * longer in the window.
+         */
+        synchronized void refresh(long epoch) {
+            ArrayList<K> keys = new ArrayList<>(candidates.keySet());
+            for (K key : keys) {
+                long count = estimate(key, epoch);
+                if (count == 0) {
+                    candidates.remove(key);
+                } else {
+                    candidates.get(key)[0] = count;
+                }
+            }
+            lightest = findLightest();
+        }
+
+        /**
+         * Retrieve the heaviest keys in the window, heaviest first.
+         */
+        List<Count<K>> getTop(long epoch) {
+            ArrayList<K> keys;
+            synchronized (this) {
+                keys = new ArrayList<>(candidates.keySet());
+            }
+
+            ArrayList<Count<K>> counts = new ArrayList<>(keys.size());
+            for (K key : keys) {
+                long count = estimate(key, epoch);
+                if (count > 0) {
+                    counts.add(new Count<>(key, count));
+                }
+            }
+            Collections.sort(counts, new Comparator<Count<K>>() {
+                @Override
+                public int compare(Count<K> a, Count<K> b) {
+                    return a.count < b.count ? 1 : a.count > b.count ? -1 : 0;
+                }
+            });
+            return Collections.unmodifiableList(counts);
+        }
+
+        /**
+         * Estimates the count of a key in the window ending at an epoch.
+         */
+        long estimate(K key, long epoch) {
+            int hash = mix(key.hashCode());
+            return estimate(hash, mix(hash ^ 0x9E3779B9) | 1, epoch);
+        }
+
+        private long estimate(int hash, int step, long epoch) {
+            long min = Long.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = row * WIDTH + ((hash + row * step) & (WIDTH - 1));
+                long sum = 0;
+                for (int bucket = 0; bucket < bucketCount; bucket++) {
+                    if (isLive(bucket, epoch)) {
+                        sum += sketches[bucket].get(index);
+                    }
+                }
+                min = Math.min(min, sum);
+            }
+            return min;
+        }
+
+        private K findLightest() {
+            K lightest = null;
+            long lightestCount = Long.MAX_VALUE;
+            for (Map.Entry<K, long[]> entry : candidates.entrySet()) {
+                if (entry.getValue()[0] < lightestCount) {
+                    lightest = entry.getKey();
+                    lightestCount = entry.getValue()[0];
+                }
+            }
+            return lightest;
+        }
+    }
+
+    private final long bucketNanos;
+    private final int bucketCount;
+    private final int topK;
+    private final long startedAt = nanoTime();
+
+    /**
+     * The epoch each bucket currently holds counts for, see {@link #epochAt(long)}.
+     */
+    private final AtomicLongArray bucketEpochs;
+
+    /**
+     * Exact counts per priority for each bucket, indexed by bucket then priority.
+     */
+    private final AtomicLongArray priorityCounts;
+
+    private final Dimension<String> tags;
+    private final Dimension<Integer> pids;
+
+    /**
+     * The most recent epoch seen by the pipeline, only accessed from the pipeline.
+     */
+    private long currentEpoch = -1;
+
+    /**
+     * Create an aggregator with a window of one minute in six buckets that tracks the ten
+     * heaviest tags and processes.
+     */
+    public LogCatAggregator() {
+        this(60000, 6, 10);
+    }
+
+    /**
+     * Create an aggregator.
+     *
+     * @param windowMillis the length of the window in milliseconds
+     * @param buckets      the number of buckets the window is divided into; the window moves
+     *                     forward by one bucket at a time
+     * @param topK         the number of heaviest tags and processes to track
+     */
+    public LogCatAggregator(long windowMillis, int buckets, int topK) {
+        if (windowMillis <= 0 || buckets <= 0 || topK <= 0 || windowMillis < buckets) {
+            throw new IllegalArgumentException(
+                "windowMillis, buckets and topK must be greater than zero and windowMillis must " +
+                "be at least buckets"
+            );
+        }
+        this.bucketNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis) / buckets;
+        this.bucketCount = buckets;
+        this.topK = topK;
+        this.bucketEpochs = new AtomicLongArray(buckets);
+        for (int i = 0; i < buckets; i++) {
+            // No bucket holds counts until the pipeline reaches it.
+            this.bucketEpochs.set(i, Long.MIN_VALUE);
+        }
+        this.priorityCounts = new AtomicLongArray(buckets * 8);
+        this.tags = new Dimension<>();
+        this.pids = new Dimension<>();
+    }
+
+    @Override
+    public void process(@NonNull LogCatMessage message, @NonNull Output output) {
+        long epoch = epochAt(nanoTime());
+        if (epoch != currentEpoch) {
+            advance(epoch);
+        }
+
+        int bucket = (int) (epoch % bucketCount);
+        int priority = message.getPriority().getNumeric();
+        if (priority >= 0 && priority < 8) {
+            priorityCounts.incrementAndGet(bucket * 8 + priority);
+        }
+        tags.add(message.getTag(), bucket, epoch);
+        pids.add(message.getPid(), bucket, epoch);
+
+        output.emit(message);
+    }
+
+    /**
+     * Retrieve the tags logging the most messages in the window, heaviest first.
+     *
+     * @return up to topK tags with their estimated counts
+     */
+    @NonNull
+    public List<Count<String>> getTopTags() {
+        return tags.getTop(epochAt(nanoTime()));
+    }
+
+    /**
+     * Retrieve the processes logging the most messages in the window, heaviest first.
+     *
+     * @return up to topK process IDs with their estimated counts
+     */
+    @NonNull
+    public List<Count<Integer>> getTopPids() {
+        return pids.getTop(epochAt(nanoTime()));
+    }
+
+    /**
+     * Retrieve the estimated number of messages logged with a tag in the window.
+     *
+     * @param tag the tag
+     * @return the estimated number of messages
+     */
+    public long getTagCount(@NonNull String tag) {
+        return tags.estimate(tag, epochAt(nanoTime()));
+    }
+
+    /**
+     * Retrieve the estimated number of messages logged by a process in the window.
+     *
+     * @param pid the process ID
+     * @return the estimated number of messages
+     */
+    public long getPidCount(int pid) {
+        return pids.estimate(pid, epochAt(nanoTime()));
+    }
+
+    /**
+     * Retrieve the number of messages logged with a priority in the window.
+     *
+     * @param priority the priority
+     * @return the number of messages
+     */
+    public long getPriorityCount(@NonNull LogCatPriority priority) {
+        int numeric = priority.getNumeric();
+        if (numeric < 0 || numeric >= 8)
+            return 0;
+
+        long epoch = epochAt(nanoTime());
+        long count = 0;
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            if (isLive(bucket, epoch)) {
+                count += priorityCounts.get(bucket * 8 + numeric);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Retrieve the number of messages in the window.
+     *
+     * @return the number of messages
+     */
+    public long getTotalCount() {
+        long epoch = epochAt(nanoTime());
+        long count = 0;
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            if (isLive(bucket, epoch)) {
+                for (int priority = 0; priority < 8; priority++) {
+                    count += priorityCounts.get(bucket * 8 + priority);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Retrieve the current time for placing messages and queries in the window.
+     *
+     * @return the time in nanoseconds, from an arbitrary origin
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Moves the window forward to an epoch, clearing the buckets it reuses.
+     */
+    private void advance(long epoch) {
+        long first = Math.max(currentEpoch + 1, epoch - bucketCount + 1);
+        for (long reused = first; reused <= epoch; reused++) {
+            int bucket = (int) (reused % bucketCount);
+            // Mark the bucket as expired while it is cleared so it is not read half cleared.
+            bucketEpochs.set(bucket, Long.MIN_VALUE);
+            for (int priority = 0; priority < 8; priority++) {
+                priorityCounts.set(bucket * 8 + priority, 0);
+            }
+            clear(tags.sketches[bucket]);
+            clear(pids.sketches[bucket]);
+            bucketEpochs.set(bucket, reused);
+        }
+        currentEpoch = epoch;
+        tags.refresh(epoch);
+        pids.refresh(epoch);
+    }
+
+    /**
+     * Retrieve the index of the bucket-sized interval containing a time.
+     */
+    private long epochAt(long nanos) {
+        return (nanos - startedAt) / bucketNanos;
+    }
+
+    /**
+     * Determine whether a bucket holds counts within the window ending at an epoch.
+     */
+    private boolean isLive(int bucket, long epoch) {
+        long bucketEpoch = bucketEpochs.get(bucket);
+        return bucketEpoch <= epoch && bucketEpoch > epoch - bucketCount;
+    }
+
+    private static void clear(AtomicIntegerArray counters) {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    /**
+     * Spreads the bits of a hash code, the finalizer of MurmurHash3.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
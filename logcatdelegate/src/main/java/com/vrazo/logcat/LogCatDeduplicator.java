@@ -0,0 +1,179 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link LogCatStage} that collapses repeated messages.
+ *
+ * The first occurrence of a tag and message body is passed through. Any identical message received
+ * within the configured window is held back and counted. Once the window has elapsed, the last
+ * held back message is emitted with {@link LogCatMessage#getRepeatCount()} set to the number of
+ * messages it represents, ahead of the next message of any kind. Pending repeats are also emitted
+ * when an entry is evicted or when the delegate is de-registered.
+ *
+ * Time is measured using the timestamps of the messages, so a summary is emitted when a message
+ * logged after the window has elapsed arrives, not by a timer.
+ *
+ * Messages are identified by a hash of their tag and body, and the number of distinct messages
+ * that are tracked is bounded.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatDeduplicator extends LogCatStage {
+    /**
+     * Tracks the repeats of a single distinct message.
+     */
+    private static final class Entry {
+        LogCatMessage last;
+        long windowStart;
+        int suppressed;
+    }
+
+    private final long windowMillis;
+    private final int maxEntries;
+    private final LinkedHashMap<Long, Entry> entries;
+
+    /**
+     * The earliest time at which the window of an entry with held back messages elapses.
+     */
+    private long nextExpiry = Long.MAX_VALUE;
+
+    private volatile long suppressedCount;
+
+    /**
+     * Create a new de-duplicator that tracks up to 256 distinct messages.
+     *
+     * @param windowMillis the window, in milliseconds, within which repeats are collapsed
+     */
+    public LogCatDeduplicator(long windowMillis) {
+        this(windowMillis, 256);
+    }
+
+    /**
+     * Create a new de-duplicator.
+     *
+     * @param windowMillis the window, in milliseconds, within which repeats are collapsed
+     * @param maxEntries   the maximum number of distinct messages to track
+     */
+    public LogCatDeduplicator(long windowMillis, int maxEntries) {
+        if (windowMillis <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException(
+                "windowMillis and maxEntries must be greater than zero"
+            );
+        }
+        this.windowMillis = windowMillis;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Retrieve the number of messages that have been collapsed into another message.
+     *
+     * @return the number of collapsed messages
+     */
+    public long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    @Override
+    public void process(@NonNull LogCatMessage message, @NonNull Output output) {
+        long now = message.getLoggedAt().getTime();
+        if (now >= nextExpiry) {
+            emitExpired(now, output);
+        }
+
+        Long key = hash(message);
+        Entry entry = entries.get(key);
+
+        if (entry != null && isSame(entry.last, message)) {
+            if (now - entry.windowStart < windowMillis) {
+                entry.last = message;
+                if (entry.suppressed++ == 0) {
+                    nextExpiry = Math.min(nextExpiry, entry.windowStart + windowMillis);
+                }
+                suppressedCount++;
+                return;
+            }
+
+            // Any repeats held back in the previous window have been emitted by emitExpired.
+            entry.last = message;
+            entry.windowStart = now;
+            output.emit(message);
+            return;
+        }
+
+        if (entry != null) {
+            // Hash collision with a different message, emit whatever was pending for it.
+            emitPending(entry, output);
+        } else {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        entry.last = message;
+        entry.windowStart = now;
+        entry.suppressed = 0;
+
+        if (entries.size() > maxEntries) {
+            Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+            emitPending(eldest.next().getValue(), output);
+            eldest.remove();
+        }
+
+        output.emit(message);
+    }
+
+    @Override
+    public void flush(@NonNull Output output) {
+        for (Entry entry : entries.values()) {
+            emitPending(entry, output);
+        }
+        entries.clear();
+        nextExpiry = Long.MAX_VALUE;
+    }
+
+    /**
+     * Emits the held back messages of every entry whose window has elapsed.
+     */
+    private void emitExpired(long now, Output output) {
+        nextExpiry = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            if (entry.suppressed == 0)
+                continue;
+            long expiry = entry.windowStart + windowMillis;
+            if (now >= expiry) {
+                emitPending(entry, output);
+            } else {
+                nextExpiry = Math.min(nextExpiry, expiry);
+            }
+        }
+    }
+
+    /**
+     * Emits the last held back message for an entry, if any.
+     */
+    private static void emitPending(Entry entry, Output output) {
+        if (entry.suppressed > 0) {
+            output.emit(entry.last.withRepeatCount(entry.suppressed));
+            entry.suppressed = 0;
+        }
+    }
+
+    /**
+     * Determine if two messages have the same tag, priority and body.
+     */
+    private static boolean isSame(LogCatMessage a, LogCatMessage b) {
+        return a.getPriority().getNumeric() == b.getPriority().getNumeric() &&
+            a.getTag().equals(b.getTag()) && a.getMessage().equals(b.getMessage());
+    }
+
+    /**
+     * Computes the key for a message from its tag and body.
+     */
+    private static Long hash(LogCatMessage message) {
+        return ((long) message.getTag().hashCode() << 32) ^
+            (message.getMessage().hashCode() & 0xFFFFFFFFL);
+    }
+}
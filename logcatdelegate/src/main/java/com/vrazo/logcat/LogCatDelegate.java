@@ -3,11 +3,28 @@ package com.vrazo.logcat;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @SuppressWarnings("unused")
 public abstract class LogCatDelegate {
@@ -21,17 +38,73 @@ public abstract class LogCatDelegate {
         }
     }
 
-    private Date mRegisteredAt;
-    private boolean mRunning;
-    private Process mProcess;
-    private Thread mThread;
-    private ArrayList<LogCatMessageFilter> messageFilters = new ArrayList<>();
+    /**
+     * Determines what happens to messages that have been read but not delivered yet when the
+     * delegate is de-registered.
+     */
+    public enum ShutdownPolicy {
+        /**
+         * Deliver every queued message and flush the stages before stopping.
+         */
+        Drain,
+
+        /**
+         * Discard queued messages and any messages held back by stages.
+         */
+        Discard,
+    }
+
+    private volatile Date mRegisteredAt;
+    private volatile boolean mPaused;
+    private volatile Registration mRegistration;
+    private final Object mLifecycleLock = new Object();
+    private final Object mConfigurationLock = new Object();
+    private volatile LogCatFilterChain mFilterChain = LogCatFilterChain.EMPTY;
+    private final CopyOnWriteArrayList<LogCatStage> stages = new CopyOnWriteArrayList<>();
+    private volatile StageOutput[] mStageOutputs = buildStageOutputs(stages);
+    private final LogCatMetrics mMetrics = new LogCatMetrics();
+    private final Object mDispatchLock = new Object();
+
+    @NonNull
+    private volatile String executable = "logcat";
 
     @NonNull
-    private String commandLineArguments = "-b all";
+    private volatile List<String> commandLineArguments =
+        Collections.unmodifiableList(Arrays.asList("-b", "all"));
+
+    @Nullable
+    private volatile LogCatSampler sampler;
 
     @Nullable
-    private Runnable deregisteredCallback;
+    private volatile LogCatFieldExtractor fieldExtractor;
+
+    private volatile int parserThreads = 1;
+    private volatile int parserBatchSize = 256;
+    private volatile boolean lowLatency;
+    private volatile int fastLanePriority = Log.ERROR;
+
+    @Nullable
+    private volatile LogCatPriorityLanes priorityLanes;
+
+    @Nullable
+    private volatile LogCatPriorityLanes mActiveLanes;
+
+    @NonNull
+    private volatile ShutdownPolicy shutdownPolicy = ShutdownPolicy.Drain;
+    private volatile long shutdownTimeoutMillis = 5000;
+
+    /**
+     * The time allowed for a registration to finish once its shutdown timeout has elapsed and it
+     * has been forcibly stopped.
+     */
+    private static final long ESCALATION_GRACE_MILLIS = 1000;
+
+    /**
+     * Runs the shutdown deadlines of every delegate on a single thread, which exits while no
+     * deadline is pending.
+     */
+    private static final ScheduledThreadPoolExecutor SHUTDOWN_DEADLINES =
+        createShutdownDeadlines();
 
     /**
      * Called when a new LogCat message is received.
@@ -52,145 +125,425 @@ public abstract class LogCatDelegate {
         /* Not implemented by default */
     }
 
+    /**
+     * Called on the thread reading from Log Cat once a registration has stopped, after every
+     * message has been delivered or discarded and before de-registration completes.
+     *
+     * @param error the error that stopped the registration, or null if it was de-registered
+     */
+    void onStopped(@Nullable Exception error) {
+        /* Not implemented by default */
+    }
+
     /**
      * Sets the command line arguments for the Log Cat child-process. The default value is
      * <pre>-b all</pre>.
      *
+     * The arguments are split on whitespace. An argument containing whitespace can be enclosed in
+     * single or double quotes, or the whitespace can be escaped with a backslash.
+     *
      * The <pre>-v (--format)</pre> command line argument is not supported.
      *
      * @param commandLineArguments the command line arguments for the Log Cat child-process.
+     * @throws IllegalArgumentException if the arguments include <pre>-v (--format)</pre> or an
+     *                                  unterminated quote
      */
     public void setCommandLineArguments(@NonNull String commandLineArguments) {
-        this.commandLineArguments = commandLineArguments;
+        this.setCommandLineArguments(tokenize(commandLineArguments));
+    }
+
+    /**
+     * Sets the command line arguments for the Log Cat child-process, one argument per element.
+     * The default value is <pre>-b all</pre>.
+     *
+     * The <pre>-v (--format)</pre> command line argument is not supported.
+     *
+     * @param commandLineArguments the command line arguments for the Log Cat child-process.
+     * @throws IllegalArgumentException if the arguments include <pre>-v (--format)</pre>
+     */
+    public void setCommandLineArguments(@NonNull List<String> commandLineArguments) {
+        for (String argument : commandLineArguments) {
+            if (argument.startsWith("-v") || argument.equals("--format") ||
+                argument.startsWith("--format=")) {
+                throw new IllegalArgumentException(
+                    "LogCatDelegate does not support the -v (--format) command line argument."
+                );
+            }
+        }
+        this.commandLineArguments =
+            Collections.unmodifiableList(new ArrayList<>(commandLineArguments));
+    }
+
+    /**
+     * Sets the executable started as the Log Cat child-process, so that tests can replace Log Cat
+     * with a script producing canned output.
+     *
+     * @param executable the path of the executable
+     */
+    void setExecutable(@NonNull String executable) {
+        this.executable = executable;
+    }
+
+    /**
+     * Retrieve the command line arguments for the Log Cat child-process.
+     *
+     * @return the arguments, one argument per element
+     */
+    @NonNull
+    public List<String> getCommandLineArguments() {
+        return this.commandLineArguments;
+    }
+
+    /**
+     * Sets the sampler for the delegate. The sampler is applied before any message filter, so
+     * messages it drops are never filtered, passed to a stage or delivered.
+     *
+     * @param sampler the sampler, or null to disable sampling
+     */
+    public void setSampler(@Nullable LogCatSampler sampler) {
+        this.sampler = sampler;
+    }
+
+    /**
+     * Sets a field extractor that is applied after the sampler and before any message filter, so
+     * that filters can read the extracted fields with {@link LogCatMessage#getField(String)}.
+     * With more than one parser thread the extractor runs on the worker threads.
+     *
+     * @param fieldExtractor the field extractor, or null to extract no fields before filtering
+     */
+    public void setFieldExtractor(@Nullable LogCatFieldExtractor fieldExtractor) {
+        this.fieldExtractor = fieldExtractor;
     }
 
     /**
-     * Adds a message filter to the delegate.
+     * Sets the number of threads used to parse and filter messages. The default value is 1, in
+     * which case the thread reading from Log Cat also parses, filters and delivers every message.
+     *
+     * With more than one thread, the reader thread splits the output of Log Cat into batches of
+     * lines which are parsed and filtered by a pool of worker threads. A separate thread restores
+     * the original order of the messages, runs the stages and calls
+     * {@link #onNewMessage(LogCatMessage)}. Filters and the sampler must be thread-safe in this
+     * mode; the filters provided by this library are.
+     *
+     * Changes take effect the next time the delegate is registered.
+     *
+     * @param threads   the number of worker threads
+     * @param batchSize the maximum number of lines handed to a worker at once
+     */
+    public void setParserThreads(int threads, int batchSize) {
+        if (threads <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("threads and batchSize must be greater than zero");
+        }
+        this.parserThreads = threads;
+        this.parserBatchSize = batchSize;
+    }
+
+    /**
+     * Enables or disables low-latency mode. The default value is false.
+     *
+     * In low-latency mode every line is handed on as soon as it has been read instead of being
+     * batched, and messages at or above the fast lane priority (see
+     * {@link #setFastLanePriority(LogCatPriority)}) are parsed and delivered directly on the
+     * thread reading from Log Cat, ahead of any messages waiting to be delivered. This only makes
+     * a difference when messages are queued, that is when {@link #setParserThreads(int, int)} or
+     * {@link #setPriorityLanes(LogCatPriorityLanes)} is used.
+     *
+     * Use {@link LogCatMetrics#getEndToEndLatency()} to measure the latency between a line being
+     * read and the message being delivered.
+     *
+     * @param lowLatency true to enable low-latency mode
+     */
+    public void setLowLatency(boolean lowLatency) {
+        this.lowLatency = lowLatency;
+    }
+
+    /**
+     * Sets the lowest priority delivered through the fast lane in low-latency mode. The default
+     * value is {@link Log#ERROR}, so ERROR and ASSERT (FATAL) messages use the fast lane.
+     *
+     * @param priority the priority, or null to disable the fast lane
+     */
+    public void setFastLanePriority(@Nullable LogCatPriority priority) {
+        this.fastLanePriority = priority == null ? Integer.MAX_VALUE : priority.getNumeric();
+    }
+
+    /**
+     * Sets the priority lanes used to queue messages for delivery. By default messages are
+     * delivered in the order they were read, on the thread that accepted them.
+     *
+     * With priority lanes, accepted messages are queued by priority and a separate delivery thread
+     * runs the stages and calls {@link #onNewMessage(LogCatMessage)}, so high priority messages do
+     * not wait behind a flood of low priority messages and reading from Log Cat never waits for
+     * delivery. Messages discarded because their lane was full are counted by
+     * {@link LogCatMetrics#getDropped()}. In low-latency mode, messages in the fast lane skip the
+     * priority lanes and are delivered on the thread reading from Log Cat.
+     *
+     * Changes take effect the next time the delegate is registered.
+     *
+     * @param priorityLanes the lanes, or null to deliver messages in order
+     */
+    public void setPriorityLanes(@Nullable LogCatPriorityLanes priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
+    /**
+     * Sets what happens to messages that have been read but not delivered yet when the delegate
+     * is de-registered. The default value is {@link ShutdownPolicy#Drain}.
+     *
+     * @param shutdownPolicy the policy
+     */
+    public void setShutdownPolicy(@NonNull ShutdownPolicy shutdownPolicy) {
+        this.shutdownPolicy = shutdownPolicy;
+    }
+
+    /**
+     * Sets the time allowed for the delegate to de-register. The default value is 5 seconds.
+     *
+     * Once the timeout has elapsed, the Log Cat child-process is forcibly destroyed, the threads
+     * of the delegate are interrupted and any messages that have not been delivered yet are
+     * discarded. A thread blocked in {@link #onNewMessage(LogCatMessage)} or in a stage is
+     * interrupted but cannot be stopped, so the delegate only finishes de-registering once it
+     * returns.
+     *
+     * @param timeoutMillis the timeout in milliseconds
+     */
+    public void setShutdownTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be greater than zero");
+        }
+        this.shutdownTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Adds a message filter to the delegate. This method is safe to call while the delegate is
+     * registered; the filter will apply from the next message onwards.
      *
      * @param messageFilter the filter
      */
     public void addMessageFilter(LogCatMessageFilter messageFilter) {
-        this.messageFilters.add(messageFilter);
+        synchronized (mConfigurationLock) {
+            this.mFilterChain = this.mFilterChain.with(messageFilter);
+        }
     }
 
     /**
-     * Removes a message filter from the delegate.
+     * Removes a message filter from the delegate. This method is safe to call while the delegate
+     * is registered; the filter will no longer apply from the next message onwards.
      *
      * @param messageFilter the filter
      */
     public void removeMessageFilter(LogCatMessageFilter messageFilter) {
-        this.messageFilters.remove(messageFilter);
+        synchronized (mConfigurationLock) {
+            this.mFilterChain = this.mFilterChain.without(messageFilter);
+        }
+    }
+
+    /**
+     * Retrieve the message filters currently applied by the delegate, in the order they were
+     * added.
+     *
+     * @return the filters
+     */
+    public List<LogCatMessageFilter> getMessageFilters() {
+        return this.mFilterChain.getFilters();
+    }
+
+    /**
+     * Retrieve the metrics for this delegate. The same instance is returned for the lifetime of
+     * the delegate and its values are updated as messages are processed.
+     *
+     * @return the metrics
+     */
+    public final LogCatMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Adds a stage to the end of the pipeline of the delegate. Stages are run in the order they
+     * were added, after a message has passed every filter.
+     *
+     * @param stage the stage
+     */
+    public void addStage(@NonNull LogCatStage stage) {
+        synchronized (mConfigurationLock) {
+            this.stages.add(stage);
+            this.mStageOutputs = buildStageOutputs(this.stages);
+        }
+    }
+
+    /**
+     * Removes a stage from the pipeline of the delegate. Any messages held back by the stage are
+     * discarded.
+     *
+     * @param stage the stage
+     */
+    public void removeStage(@NonNull LogCatStage stage) {
+        synchronized (mConfigurationLock) {
+            this.stages.remove(stage);
+            this.mStageOutputs = buildStageOutputs(this.stages);
+        }
     }
 
     /**
      * Registers this delegate so that it will start receiving LogCat messages.
+     *
+     * If a previous registration is still shutting down, this method blocks until it has
+     * completed, for at most the shutdown timeout (see {@link #setShutdownTimeout(long)}) and a
+     * short grace period once the previous registration has been forcibly stopped. If it has
+     * still not completed by then, for example because {@link #onNewMessage(LogCatMessage)} never
+     * returns, no new registration is started and an {@link IllegalStateException} is passed to
+     * {@link #onException(Exception)}.
      */
     public final void register() {
-        if (isRegistered())
-            return;
+        Registration awaited = null;
+        while (true) {
+            Registration previous;
+            synchronized (mLifecycleLock) {
+                if (isRegistered())
+                    return;
 
-        this.mRunning = true;
-        this.mThread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    while (isRegistered()) {
-                        String cliArgs = commandLineArguments;
-                        if (cliArgs.contains("-v") || cliArgs.contains("--format")) {
-                            throw new RuntimeException(
-                                "LogCatDelegate does not support the -v (--format) " +
-                                "command line argument."
-                            );
-                        }
-                        mProcess = Runtime.getRuntime().exec("logcat " + cliArgs + " -v threadtime");
-                        int exitCode = 0;
-                        try {
-                            exitCode = mProcess.exitValue();
-                        } catch (IllegalThreadStateException ignored) {}
-                        if(exitCode != 0) {
-                            throw new InitializationException(
-                                "invalid exit code for logcat invocation: " + exitCode
-                            );
-                        }
-
-                        BufferedReader bufferedReader = new BufferedReader(
-                                new InputStreamReader(mProcess.getInputStream()));
-                        String line;
-                        while ((line = bufferedReader.readLine()) != null) {
-                            LogCatMessage message = LogCatMessage.from(line);
-                            if (message != null && (
-                                message.getLoggedAt().after(mRegisteredAt) ||
-                                message.getLoggedAt().equals(mRegisteredAt)
-                            )) {
-                                boolean messageAllowed = true;
-                                for (LogCatMessageFilter filter : messageFilters) {
-                                    messageAllowed = filter.isValid(message);
-                                    if (!messageAllowed)
-                                        break;
-                                }
-
-                                if (messageAllowed) {
-                                    onNewMessage(message);
-                                }
-                            }
-                        }
-                        bufferedReader.close();
-                    }
+                previous = mRegistration;
+                if (previous == null || previous.completion.isDone()) {
+                    this.mPaused = false;
+                    this.mRegisteredAt = new Date();
+                    this.mMetrics.onStarted(System.nanoTime());
+                    Registration registration = new Registration();
+                    this.mRegistration = registration;
+                    registration.thread.start();
+                    return;
                 }
-                catch (Exception error) {
-                    // Ignore interrupted exceptions
-                    if (!(error instanceof InterruptedIOException)) {
-                        onException(error);
-                    }
-                }
-                finally {
-                    if (deregisteredCallback != null) {
-                        deregisteredCallback.run();
-                        deregisteredCallback = null;
-                    }
-                    mRunning = false;
+            }
+
+            if (previous == awaited) {
+                // The threads of the previous registration would run alongside the new ones.
+                reportException(new IllegalStateException(
+                    "the previous registration of the delegate has not shut down"
+                ));
+                return;
+            }
+
+            // Wait without holding the lock, the previous registration needs it to shut down.
+            awaited = previous;
+            try {
+                if (!previous.completion.await(shutdownTimeoutMillis)) {
+                    previous.escalate();
+                    previous.completion.await(ESCALATION_GRACE_MILLIS);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        });
+        }
+    }
+
+    /**
+     * Pauses this delegate so that it stops receiving LogCat messages, without stopping the Log
+     * Cat child-process or the thread reading from it. Messages logged while the delegate is
+     * paused are discarded without being parsed.
+     *
+     * Pausing and resuming is much cheaper than de-registering and registering again, since a new
+     * child-process does not need to be started. Use
+     * {@link LogCatMetrics#getTimeToFirstMessageNanos()} to measure how long it takes for messages
+     * to arrive again.
+     */
+    public final void pause() {
+        if (isRegistered()) {
+            mPaused = true;
+        }
+    }
+
+    /**
+     * Resumes a paused delegate. Only messages logged from now on are received.
+     */
+    public final void resume() {
+        if (!isRegistered() || !mPaused)
+            return;
+        mRegisteredAt = new Date();
+        mMetrics.onStarted(System.nanoTime());
+        mPaused = false;
+    }
 
-        this.mRegisteredAt = new Date();
-        this.mThread.start();
+    /**
+     * Determine if this delegate is paused.
+     *
+     * @return true if it's registered and paused, false otherwise
+     */
+    public final boolean isPaused() {
+        return isRegistered() && mPaused;
     }
 
     /**
      * De-registers this delegate so that it will stop receiving LogCat messages. This method will
-     * block the calling thread until the delegate has been fully de-registered.
+     * block the calling thread until the delegate has been fully de-registered, or until the
+     * shutdown timeout (see {@link #setShutdownTimeout(long)}) has elapsed, in which case the Log
+     * Cat child-process is forcibly destroyed and any queued messages are discarded.
+     *
+     * After forcibly stopping the delegate, this method waits a short grace period for its threads
+     * to finish. A thread blocked in {@link #onNewMessage(LogCatMessage)} or in a stage may outlast
+     * it, in which case this method returns while the delegate is still de-registering; use the
+     * future returned by {@link #deregisterAsync()} to find out when it has finished.
      */
     public final void deregister() {
-        this.deregisterAsync(null);
+        Future<Void> completion = this.deregisterAsync(null);
         try {
-            mThread.join();
+            try {
+                completion.get(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Registration registration = mRegistration;
+                if (registration != null && registration.completion == completion) {
+                    registration.escalate();
+                }
+                completion.get(ESCALATION_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            /* Still blocked in a listener or a stage, completes once it returns */
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {
+            /* Never thrown, errors are passed to onException */
         }
     }
 
     /**
      * De-registers this delegate so that it will stop receiving LogCat messages. This method will
      * not block the calling thread. When the delegate has been fully de-registered, the completed
-     * callback will be invoked.
+     * callback will be invoked and the returned future will complete.
+     *
+     * Messages that have been read but not delivered yet are drained or discarded according to
+     * the shutdown policy (see {@link #setShutdownPolicy(ShutdownPolicy)}). If the delegate has
+     * not been fully de-registered once the shutdown timeout has elapsed, the Log Cat
+     * child-process is forcibly destroyed, the threads of the delegate are interrupted and any
+     * remaining messages are discarded.
      *
-     * @param completed the callback to invoke once the delegate has been fully de-registered.
+     * @param completed the callback to invoke once the delegate has been fully de-registered. It
+     *                  is invoked immediately if the delegate is not registered.
+     * @return a future that completes once the delegate has been fully de-registered
      */
-    public final void deregisterAsync(@Nullable Runnable completed) {
-        if (!isRegistered())
-            return;
-        deregisteredCallback = completed;
-        mRunning = false;
-        mProcess.destroy();
+    @NonNull
+    public final Future<Void> deregisterAsync(@Nullable Runnable completed) {
+        Registration registration;
+        synchronized (mLifecycleLock) {
+            registration = mRegistration;
+            if (registration == null) {
+                Completion.COMPLETED.addCallback(completed);
+                return Completion.COMPLETED;
+            }
+            registration.completion.addCallback(completed);
+            if (registration.running) {
+                registration.stop(shutdownPolicy == ShutdownPolicy.Discard);
+            }
+        }
+        return registration.completion;
     }
 
     /**
      * De-registers this delegate so that it will stop receiving LogCat messages. This method will
      * not block the calling thread.
+     *
+     * @return a future that completes once the delegate has been fully de-registered
      */
-    public final void deregisterAsync() {
-        this.deregisterAsync(null);
+    @NonNull
+    public final Future<Void> deregisterAsync() {
+        return this.deregisterAsync(null);
     }
 
     /**
@@ -199,6 +552,770 @@ public abstract class LogCatDelegate {
      * @return true if it's registered, false otherwise
      */
     public final boolean isRegistered() {
-        return mRunning;
+        Registration registration = mRegistration;
+        return registration != null && registration.running;
+    }
+
+    /**
+     * Reads every message currently held in the Log Cat buffers and passes those that pass the
+     * message filters to a listener, on the calling thread. Unlike {@link #register()}, messages
+     * logged before this method was called are included, and the method returns once the end of
+     * the buffers has been reached.
+     *
+     * Log Cat is invoked with the command line arguments of the delegate and <pre>-d</pre>. The
+     * delegate does not need to be registered, and the sampler and stages do not apply. Lines are
+     * parsed in bulk, favoring throughput over the latency of each message, and only one message
+     * is held in memory at a time.
+     *
+     * @param listener the listener to pass each message to
+     * @return the number of messages passed to the listener
+     * @throws IOException             if the output of Log Cat could not be read
+     * @throws InitializationException if Log Cat could not be started
+     */
+    public final int dump(@NonNull LogCatMessageListener listener)
+        throws IOException, InitializationException {
+        Process process = new ProcessBuilder(buildCommand(true)).start();
+        try {
+            LogCatLineParser parser = new LogCatLineParser();
+            int count = dump(process.getInputStream(), parser, listener);
+
+            int exitCode;
+            try {
+                exitCode = process.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for logcat to exit");
+            }
+            if (exitCode != 0 && parser.getLineCount() == 0) {
+                throw new InitializationException(
+                    "invalid exit code for logcat invocation: " + exitCode
+                );
+            }
+            return count;
+        } finally {
+            release(process);
+        }
+    }
+
+    /**
+     * Reads the most recent messages currently held in the Log Cat buffers that pass the message
+     * filters. See {@link #dump(LogCatMessageListener)}.
+     *
+     * @param maxMessages the maximum number of messages to return; older messages are discarded
+     *                    as newer messages are read
+     * @return the messages, oldest first
+     * @throws IOException             if the output of Log Cat could not be read
+     * @throws InitializationException if Log Cat could not be started
+     */
+    @NonNull
+    public final List<LogCatMessage> dump(int maxMessages)
+        throws IOException, InitializationException {
+        BoundedListener listener = new BoundedListener(maxMessages);
+        dump(listener);
+        return new ArrayList<>(listener.messages);
+    }
+
+    /**
+     * Reads messages in the threadtime format from a stream, such as a file saved with
+     * <pre>logcat -v threadtime</pre>, and passes those that pass the message filters to a
+     * listener. See {@link #dump(LogCatMessageListener)}.
+     *
+     * The stream is read until it ends and is not closed.
+     *
+     * @param input    the stream
+     * @param listener the listener to pass each message to
+     * @return the number of messages passed to the listener
+     * @throws IOException if the stream could not be read
+     */
+    public final int dump(@NonNull InputStream input, @NonNull LogCatMessageListener listener)
+        throws IOException {
+        return dump(input, new LogCatLineParser(), listener);
+    }
+
+    /**
+     * Reads the most recent messages in the threadtime format from a stream that pass the message
+     * filters. See {@link #dump(InputStream, LogCatMessageListener)}.
+     *
+     * @param input       the stream
+     * @param maxMessages the maximum number of messages to return; older messages are discarded
+     *                    as newer messages are read
+     * @return the messages, oldest first
+     * @throws IOException if the stream could not be read
+     */
+    @NonNull
+    public final List<LogCatMessage> dump(@NonNull InputStream input, int maxMessages)
+        throws IOException {
+        BoundedListener listener = new BoundedListener(maxMessages);
+        dump(input, listener);
+        return new ArrayList<>(listener.messages);
+    }
+
+    /**
+     * Parses and filters every line of a stream.
+     *
+     * @return the number of messages passed to the listener
+     */
+    private int dump(InputStream input, LogCatLineParser parser, LogCatMessageListener listener)
+        throws IOException {
+        LogCatFilterChain filterChain = mFilterChain;
+        LogCatLineReader lineReader = new LogCatLineReader(input, 65536);
+        int count = 0;
+        String line;
+        while ((line = lineReader.readLine()) != null) {
+            LogCatMessage message = parser.parse(line);
+            if (message != null && filterChain.isValid(message, null)) {
+                listener.onNewMessage(message);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Builds the command used to invoke Log Cat.
+     *
+     * @param dump true to read the buffers and exit instead of following them
+     * @return the command, one argument per element
+     */
+    private List<String> buildCommand(boolean dump) {
+        List<String> command = new ArrayList<>();
+        command.add(executable);
+        command.addAll(commandLineArguments);
+        if (dump) {
+            command.add("-d");
+        }
+        command.add("-v");
+        command.add("threadtime");
+        return command;
+    }
+
+    /**
+     * Parses a line and applies the sampler, the field extractor and the filters to it. This method
+     * is thread-safe as long as the filters and the sampler are. Messages logged before the
+     * delegate was registered are skipped; if it has never been registered, none are.
+     *
+     * @param line       the line read from Log Cat
+     * @param ingestedAt the {@link System#nanoTime()} at which the line was read
+     * @return the message, or null if it could not be parsed or should not be delivered
+     */
+    @Nullable
+    final LogCatMessage accept(String line, long ingestedAt) {
+        long parseStart = System.nanoTime();
+        LogCatMessage message = LogCatMessage.from(line);
+        mMetrics.onParsed(System.nanoTime() - parseStart, message != null);
+        if (message == null)
+            return null;
+        message.setIngestedAtNanos(ingestedAt);
+
+        Date registeredAt = mRegisteredAt;
+        if (registeredAt != null && message.getLoggedAt().before(registeredAt)) {
+            mMetrics.onSkipped();
+            return null;
+        }
+
+        LogCatSampler currentSampler = sampler;
+        if (currentSampler != null && !currentSampler.isKept(message)) {
+            mMetrics.onSampled();
+            return null;
+        }
+
+        LogCatFieldExtractor currentExtractor = fieldExtractor;
+        if (currentExtractor != null) {
+            message = currentExtractor.extract(message);
+        }
+
+        long filterStart = System.nanoTime();
+        boolean messageAllowed = mFilterChain.isValid(message, mMetrics);
+        mMetrics.onFiltered(System.nanoTime() - filterStart, messageAllowed);
+        return messageAllowed ? message : null;
+    }
+
+    /**
+     * Passes an accepted message on for delivery, either by queueing it in its priority lane or by
+     * delivering it directly.
+     *
+     * @param message the message
+     */
+    final void dispatch(LogCatMessage message) {
+        LogCatPriorityLanes lanes = mActiveLanes;
+        if (lanes == null) {
+            deliver(message);
+            return;
+        }
+
+        mMetrics.onQueueDepthChanged(1);
+        if (lanes.offer(message) != null) {
+            mMetrics.onQueueDepthChanged(-1);
+            mMetrics.onDropped();
+        }
+    }
+
+    /**
+     * Passes a message through the stages and on to {@link #onNewMessage(LogCatMessage)}.
+     * Messages delivered from different threads (such as the fast lane and the sequencer of the
+     * parallel parser) are serialized so that stages and {@link #onNewMessage(LogCatMessage)} are
+     * never called concurrently.
+     *
+     * @param message the message
+     */
+    private void deliver(LogCatMessage message) {
+        synchronized (mDispatchLock) {
+            mStageOutputs[0].emit(message);
+        }
+    }
+
+    /**
+     * Starts the thread delivering messages from priority lanes.
+     *
+     * @param lanes      the lanes
+     * @param generation the generation returned when the lanes were opened
+     * @return the delivery thread
+     */
+    private Thread startDelivery(final LogCatPriorityLanes lanes, final int generation) {
+        Thread deliveryThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    LogCatMessage message;
+                    while ((message = lanes.take(generation)) != null) {
+                        mMetrics.onQueueDepthChanged(-1);
+                        try {
+                            deliver(message);
+                        } catch (RuntimeException e) {
+                            // Keep going, the lanes would only fill up if delivery stopped.
+                            reportException(e);
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                    /* Stopped while waiting for a message */
+                }
+            }
+        }, "LogCatDelegate-delivery");
+        mActiveLanes = lanes;
+        deliveryThread.start();
+        return deliveryThread;
+    }
+
+    /**
+     * Stops queueing messages in priority lanes and waits until the delivery thread has delivered
+     * every message already queued, or discards them. If a newer registration has started in the
+     * meantime, the lanes belong to it and are left untouched.
+     *
+     * @param registration   the registration that is stopping
+     * @param lanes          the lanes
+     * @param generation     the generation returned when the lanes were opened
+     * @param deliveryThread the delivery thread
+     * @param discard        true to discard the queued messages
+     */
+    private void stopDelivery(Registration registration, LogCatPriorityLanes lanes,
+                              int generation, Thread deliveryThread, boolean discard) {
+        synchronized (mLifecycleLock) {
+            if (mRegistration == registration) {
+                mActiveLanes = null;
+            }
+        }
+        if (discard) {
+            mMetrics.onQueueDepthChanged(-lanes.clear(generation));
+        }
+        lanes.close(generation);
+
+        // The registration is only complete once the delivery thread has finished, even when
+        // interrupted by the shutdown deadline.
+        boolean interrupted = false;
+        while (true) {
+            try {
+                deliveryThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+                deliveryThread.interrupt();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Flushes every stage in the pipeline so that messages they are holding back are delivered.
+     */
+    private void flushStages() {
+        StageOutput[] outputs = mStageOutputs;
+        try {
+            synchronized (mDispatchLock) {
+                for (int i = 0; i < outputs.length - 1; i++) {
+                    outputs[i].stage.flush(outputs[i + 1]);
+                }
+            }
+        } catch (Exception error) {
+            reportException(error);
+        }
+    }
+
+    /**
+     * Records an error in the metrics and passes it to {@link #onException(Exception)}.
+     *
+     * @param error the error
+     */
+    final void reportException(Exception error) {
+        mMetrics.onError();
+        onException(error);
+    }
+
+    /**
+     * Creates the executor running the shutdown deadlines, with a daemon thread that exits once it
+     * has been idle for a second.
+     */
+    private static ScheduledThreadPoolExecutor createShutdownDeadlines() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "LogCatDelegate-shutdown");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.setKeepAliveTime(1, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Splits command line arguments on whitespace, honoring quotes and backslash escapes.
+     *
+     * @param arguments the command line arguments
+     * @return the arguments, one argument per element
+     */
+    private static List<String> tokenize(String arguments) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        boolean inToken = false;
+        char quote = 0;
+        for (int i = 0; i < arguments.length(); i++) {
+            char c = arguments.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"' && i + 1 < arguments.length()) {
+                    token.append(arguments.charAt(++i));
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inToken = true;
+            } else if (c == '\\' && i + 1 < arguments.length()) {
+                token.append(arguments.charAt(++i));
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+
+        if (quote != 0) {
+            throw new IllegalArgumentException("unterminated quote in command line arguments");
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Builds the chain of outputs for the stages in the pipeline. The output at index i feeds
+     * stage i, and the last output delivers messages to {@link #onNewMessage(LogCatMessage)}.
+     */
+    private StageOutput[] buildStageOutputs(List<LogCatStage> stages) {
+        Object[] snapshot = stages.toArray();
+        StageOutput[] outputs = new StageOutput[snapshot.length + 1];
+        outputs[snapshot.length] = new StageOutput(null, null);
+        for (int i = snapshot.length - 1; i >= 0; i--) {
+            outputs[i] = new StageOutput((LogCatStage) snapshot[i], outputs[i + 1]);
+        }
+        return outputs;
+    }
+
+    /**
+     * Passes messages to a stage in the pipeline, or to {@link #onNewMessage(LogCatMessage)} at
+     * the end of the pipeline.
+     */
+    private final class StageOutput implements LogCatStage.Output {
+        private final LogCatStage stage;
+        private final StageOutput next;
+
+        StageOutput(LogCatStage stage, StageOutput next) {
+            this.stage = stage;
+            this.next = next;
+        }
+
+        @Override
+        public void emit(@NonNull LogCatMessage message) {
+            if (stage == null) {
+                long deliverStart = System.nanoTime();
+                onNewMessage(message);
+                long deliverEnd = System.nanoTime();
+                mMetrics.onDelivered(
+                    deliverEnd - deliverStart, message.getLoggedAt().getTime(),
+                    message.getIngestedAtNanos(), deliverEnd
+                );
+            } else {
+                stage.process(message, next);
+            }
+        }
+    }
+
+    /**
+     * A single registration of the delegate: the thread reading from Log Cat and the child-process
+     * it reads from, and the state needed to shut them down.
+     */
+    private final class Registration implements Runnable {
+        final Thread thread = new Thread(this, "LogCatDelegate-reader");
+        final Completion completion = new Completion();
+
+        volatile boolean running = true;
+        volatile boolean discard;
+        volatile Process process;
+        volatile Thread deliveryThread;
+        volatile LogCatParallelParser parallelParser;
+        volatile LogCatPriorityLanes lanes;
+        volatile int laneGeneration;
+
+        @Override
+        public void run() {
+            LogCatParallelParser parallelParser = null;
+            LogCatPriorityLanes lanes = priorityLanes;
+            Exception failure = null;
+            try {
+                if (lanes != null) {
+                    // Messages left behind by the previous registration are discarded.
+                    synchronized (lanes) {
+                        mMetrics.onQueueDepthChanged(-lanes.size());
+                        laneGeneration = lanes.open();
+                    }
+                    this.lanes = lanes;
+                    deliveryThread = startDelivery(lanes, laneGeneration);
+                }
+
+                if (parserThreads > 1) {
+                    parallelParser = new LogCatParallelParser(
+                        LogCatDelegate.this, parserThreads, parserBatchSize
+                    );
+                    this.parallelParser = parallelParser;
+                }
+
+                boolean started = false;
+                while (running) {
+                    if (started) {
+                        mMetrics.onRestart();
+                    }
+                    started = true;
+                    Process process = new ProcessBuilder(buildCommand(false)).start();
+                    this.process = process;
+                    try {
+                        // De-registered while the process was starting, stop() did not see it.
+                        if (!running)
+                            break;
+
+                        boolean producedOutput = read(process, parallelParser);
+
+                        // Log Cat exiting without any output means it could not be started,
+                        // for example because of an invalid argument.
+                        int exitCode = process.waitFor();
+                        if (!producedOutput && exitCode != 0 && running) {
+                            throw new InitializationException(
+                                "invalid exit code for logcat invocation: " + exitCode
+                            );
+                        }
+                    } finally {
+                        release(process);
+                    }
+                }
+            }
+            catch (Exception error) {
+                // Errors caused by shutting down are expected.
+                if (running && !(error instanceof InterruptedIOException)) {
+                    failure = error;
+                    reportException(error);
+                }
+            }
+            finally {
+                running = false;
+                if (parallelParser != null) {
+                    parallelParser.close(discard);
+                }
+                if (deliveryThread != null) {
+                    stopDelivery(this, lanes, laneGeneration, deliveryThread, discard);
+                }
+                if (!discard) {
+                    flushStages();
+                }
+                try {
+                    onStopped(failure);
+                } finally {
+                    completion.complete();
+                }
+            }
+        }
+
+        /**
+         * Reads lines from the child-process until its output ends.
+         *
+         * @return true if the child-process produced any output
+         */
+        private boolean read(Process process, @Nullable LogCatParallelParser parallelParser)
+            throws Exception {
+            LogCatLineReader lineReader = new LogCatLineReader(process.getInputStream());
+            boolean producedOutput = false;
+            String line;
+            while ((line = lineReader.readLine()) != null) {
+                producedOutput = true;
+                if (discard) {
+                    // Stopped without draining, ignore whatever output is still buffered.
+                    break;
+                }
+                if (mPaused) {
+                    // Keep draining the process, but skip parsing entirely.
+                    continue;
+                }
+
+                long ingestedAt = System.nanoTime();
+                mMetrics.onLineRead();
+                if (lowLatency && LogCatMessage.peekPriority(line) >= fastLanePriority) {
+                    // Fast lane, skip the queues of the parallel parser and the priority lanes.
+                    LogCatMessage message = accept(line, ingestedAt);
+                    if (message != null) {
+                        deliver(message);
+                    }
+                    continue;
+                }
+
+                if (parallelParser != null) {
+                    parallelParser.add(line, ingestedAt, !lowLatency && lineReader.ready());
+                    continue;
+                }
+
+                LogCatMessage message = accept(line, ingestedAt);
+                if (message != null) {
+                    dispatch(message);
+                }
+            }
+            return producedOutput;
+        }
+
+        /**
+         * Stops reading from Log Cat and starts the deadline for shutting down.
+         *
+         * @param discard true to discard messages that have not been delivered yet
+         */
+        void stop(boolean discard) {
+            this.discard = discard;
+            this.running = false;
+            if (discard) {
+                discardQueued();
+            }
+            Process process = this.process;
+            if (process != null) {
+                process.destroy();
+            }
+
+            final ScheduledFuture<?> deadline = SHUTDOWN_DEADLINES.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    escalate();
+                }
+            }, shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+            completion.addCallback(new Runnable() {
+                @Override
+                public void run() {
+                    // Cancelled tasks stay queued until their delay has elapsed unless removed.
+                    deadline.cancel(false);
+                    SHUTDOWN_DEADLINES.remove((Runnable) deadline);
+                }
+            });
+        }
+
+        /**
+         * Called when the shutdown deadline has passed. Forcibly destroys the child-process,
+         * discards any messages that have not been delivered and interrupts the threads of this
+         * registration.
+         */
+        void escalate() {
+            if (completion.isDone())
+                return;
+
+            discard = true;
+            discardQueued();
+            Process process = this.process;
+            if (process != null) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                    process.destroyForcibly();
+                } else {
+                    process.destroy();
+                }
+            }
+            thread.interrupt();
+            Thread deliveryThread = this.deliveryThread;
+            if (deliveryThread != null) {
+                deliveryThread.interrupt();
+            }
+        }
+
+        /**
+         * Discards the messages queued in the parallel parser and the priority lanes, if any, so
+         * that they are not delivered while the threads of this registration shut down.
+         */
+        private void discardQueued() {
+            LogCatParallelParser parallelParser = this.parallelParser;
+            if (parallelParser != null) {
+                parallelParser.discard();
+            }
+            LogCatPriorityLanes lanes = this.lanes;
+            if (lanes != null) {
+                mMetrics.onQueueDepthChanged(-lanes.clear(laneGeneration));
+            }
+        }
+    }
+
+    /**
+     * Keeps the most recent messages passed to it, up to a maximum.
+     */
+    private static final class BoundedListener implements LogCatMessageListener {
+        final ArrayDeque<LogCatMessage> messages = new ArrayDeque<>();
+        private final int maxMessages;
+
+        BoundedListener(int maxMessages) {
+            if (maxMessages <= 0) {
+                throw new IllegalArgumentException("maxMessages must be greater than zero");
+            }
+            this.maxMessages = maxMessages;
+        }
+
+        @Override
+        public void onNewMessage(@NonNull LogCatMessage message) {
+            if (messages.size() == maxMessages) {
+                messages.removeFirst();
+            }
+            messages.addLast(message);
+        }
+    }
+
+    /**
+     * Closes the streams of a child-process and destroys it.
+     *
+     * @param process the process
+     */
+    private static void release(Process process) {
+        closeQuietly(process.getInputStream());
+        closeQuietly(process.getOutputStream());
+        closeQuietly(process.getErrorStream());
+        process.destroy();
+    }
+
+    /**
+     * Closes a stream, ignoring any error.
+     *
+     * @param closeable the stream
+     */
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            /* Nothing left to do with the stream */
+        }
+    }
+
+    /**
+     * The future returned when de-registering, completed once the thread reading from Log Cat
+     * has finished.
+     */
+    private static final class Completion implements Future<Void> {
+        /**
+         * Returned when the delegate has never been registered.
+         */
+        static final Completion COMPLETED = new Completion();
+
+        static {
+            COMPLETED.complete();
+        }
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<Runnable> callbacks = new ArrayList<>();
+
+        /**
+         * Adds a callback to run on completion, or runs it immediately if already complete.
+         */
+        void addCallback(@Nullable Runnable callback) {
+            if (callback == null)
+                return;
+            synchronized (this) {
+                if (done.getCount() > 0) {
+                    callbacks.add(callback);
+                    return;
+                }
+            }
+            callback.run();
+        }
+
+        /**
+         * Marks the future as complete and runs the callbacks.
+         */
+        void complete() {
+            List<Runnable> pending;
+            synchronized (this) {
+                done.countDown();
+                pending = new ArrayList<>(callbacks);
+                callbacks.clear();
+            }
+            for (Runnable callback : pending) {
+                callback.run();
+            }
+        }
+
+        /**
+         * Waits for completion.
+         *
+         * @return true if complete, false if the timeout elapsed first
+         */
+        boolean await(long timeoutMillis) throws InterruptedException {
+            return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public Void get() throws InterruptedException {
+            done.await();
+            return null;
+        }
+
+        @Override
+        public Void get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+            if (!done.await(timeout, unit)) {
+                throw new TimeoutException("the delegate has not finished de-registering");
+            }
+            return null;
+        }
     }
 }
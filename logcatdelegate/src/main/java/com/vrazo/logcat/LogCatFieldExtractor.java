@@ -0,0 +1,210 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A {@link LogCatStage} that extracts typed fields from the body of messages.
+ *
+ * Rules are registered per tag. For each message the rules for its tag are found with a single
+ * hash lookup, so messages with a tag that has no rules pass through without any regex being run.
+ * When a rule matches, the values of its capture groups are converted to the type of the
+ * corresponding {@link Field} and attached to the message, see {@link LogCatMessage#getFields()}.
+ *
+ * Added as a stage, the extractor only sees messages that have passed the filters. To filter on
+ * the extracted fields, set it with {@link LogCatDelegate#setFieldExtractor(LogCatFieldExtractor)}
+ * instead, which runs it after the sampler and before the filters.
+ *
+ * <pre>
+ * LogCatFieldExtractor extractor = new LogCatFieldExtractor();
+ * extractor.addRule(
+ *     "ActivityManager", "Displayed (\\S+): \\+(\\d+)ms",
+ *     new LogCatFieldExtractor.Field("component", LogCatFieldExtractor.Type.String),
+ *     new LogCatFieldExtractor.Field("displayedMs", LogCatFieldExtractor.Type.Long)
+ * );
+ * logCatDelegate.addStage(extractor);
+ * </pre>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatFieldExtractor extends LogCatStage {
+    /**
+     * The type a captured value is converted to.
+     */
+    public enum Type {
+        /**
+         * The value is kept as a {@link java.lang.String}.
+         */
+        String,
+
+        /**
+         * The value is converted to a {@link java.lang.Long}.
+         */
+        Long,
+
+        /**
+         * The value is converted to a {@link java.lang.Double}.
+         */
+        Double,
+    }
+
+    /**
+     * Describes the field a capture group of a rule is stored in.
+     */
+    public static final class Field {
+        private final String name;
+        private final Type type;
+
+        /**
+         * Create a new field description.
+         *
+         * @param name the name of the field
+         * @param type the type of the field
+         */
+        public Field(@NonNull String name, @NonNull Type type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        /**
+         * @return the name of the field
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the type of the field
+         */
+        public Type getType() {
+            return type;
+        }
+    }
+
+    /**
+     * A compiled extraction rule.
+     */
+    private static final class Rule {
+        final Pattern pattern;
+        final Field[] fields;
+
+        Rule(Pattern pattern, Field[] fields) {
+            this.pattern = pattern;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Rules indexed by tag, replaced as a whole when a rule is added or removed.
+     */
+    private volatile Map<String, Rule[]> rules = Collections.emptyMap();
+
+    /**
+     * Adds a rule for messages with the provided tag. The rule matches if the regex is found
+     * anywhere in the body of the message. Capture group n is stored in field n - 1.
+     *
+     * @param tag    the tag of the messages to apply the rule to
+     * @param regex  the regex to find in the body of the message
+     * @param fields the fields to store each capture group in
+     * @throws PatternSyntaxException if the pattern is not valid regex
+     */
+    public synchronized void addRule(
+        @NonNull String tag, @NonNull String regex, @NonNull Field... fields
+    ) throws PatternSyntaxException {
+        Pattern pattern = Pattern.compile(regex);
+        int groups = pattern.matcher("").groupCount();
+        if (groups != fields.length) {
+            throw new IllegalArgumentException(
+                "regex has " + groups + " capture groups but " + fields.length + " fields"
+            );
+        }
+
+        HashMap<String, Rule[]> rules = new HashMap<>(this.rules);
+        Rule[] existing = rules.get(tag);
+        Rule[] updated = existing == null
+            ? new Rule[1]
+            : Arrays.copyOf(existing, existing.length + 1);
+        updated[updated.length - 1] = new Rule(pattern, fields.clone());
+        rules.put(tag, updated);
+        this.rules = rules;
+    }
+
+    /**
+     * Removes every rule for the provided tag.
+     *
+     * @param tag the tag
+     */
+    public synchronized void removeRules(@NonNull String tag) {
+        HashMap<String, Rule[]> rules = new HashMap<>(this.rules);
+        rules.remove(tag);
+        this.rules = rules;
+    }
+
+    @Override
+    public void process(@NonNull LogCatMessage message, @NonNull Output output) {
+        output.emit(extract(message));
+    }
+
+    /**
+     * Applies the rules for the tag of a message. This method is thread-safe.
+     *
+     * @param message the message
+     * @return a copy of the message with the extracted fields, or the message itself if no rule
+     *         matched
+     */
+    @NonNull
+    public LogCatMessage extract(@NonNull LogCatMessage message) {
+        Rule[] tagRules = rules.get(message.getTag());
+        if (tagRules == null)
+            return message;
+
+        LinkedHashMap<String, Object> fields = null;
+        for (Rule rule : tagRules) {
+            Matcher matcher = rule.pattern.matcher(message.getMessage());
+            if (!matcher.find())
+                continue;
+
+            if (fields == null) {
+                fields = new LinkedHashMap<>(message.getFields());
+            }
+            for (int i = 0; i < rule.fields.length; i++) {
+                Object value = convert(matcher.group(i + 1), rule.fields[i].type);
+                if (value != null) {
+                    fields.put(rule.fields[i].name, value);
+                }
+            }
+        }
+
+        return fields == null ? message : message.withFields(fields);
+    }
+
+    /**
+     * Converts a captured value to the type of its field.
+     *
+     * @return the converted value, or null if the group did not participate or is not a number
+     */
+    private static Object convert(String value, Type type) {
+        if (value == null)
+            return null;
+
+        try {
+            switch (type) {
+                case Long:
+                    return java.lang.Long.parseLong(value);
+                case Double:
+                    return java.lang.Double.parseDouble(value);
+                default:
+                    return value;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
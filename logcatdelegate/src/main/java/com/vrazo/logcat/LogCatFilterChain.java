@@ -0,0 +1,233 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of the message filters applied by a {@link LogCatDelegate}.
+ *
+ * Adding or removing a filter creates a new chain which the delegate publishes in a single
+ * volatile write. The reader thread picks up whichever chain is current for each message, so it
+ * never observes a chain that is being modified and does not need to lock.
+ *
+ * When a chain is created its filters are ordered so that the cheapest are evaluated first. Since
+ * a message has to pass every filter, the order does not change the result, only how quickly a
+ * rejected message is discarded.
+ *
+ * Filters whose verdict depends only on the tag or priority of a message (see
+ * {@link LogCatMessageFilter#isCacheable()}) are evaluated together once for each combination of
+ * tag and priority, and their combined verdict is cached, so filtering a message with a tag that
+ * has been seen before is a single hash lookup. Each cached verdict records the configuration
+ * version of the chain it was computed with, the sum of the versions of its filters, and is
+ * ignored once a filter of the chain is reconfigured. Filters outside the chain do not affect it.
+ * The cache is bounded; once the entries for a priority reach {@link #CACHE_CAPACITY}, each new
+ * entry evicts the next one in a sweep over the existing entries, so the rest stay cached.
+ */
+final class LogCatFilterChain {
+    /**
+     * A chain without any filters, which allows every message.
+     */
+    static final LogCatFilterChain EMPTY = new LogCatFilterChain(new LogCatMessageFilter[0]);
+
+    /**
+     * The maximum number of tags with a cached verdict for each priority.
+     */
+    static final int CACHE_CAPACITY = 1024;
+
+    /**
+     * The filters in the order they were added.
+     */
+    private final LogCatMessageFilter[] filters;
+
+    /**
+     * The filters in the order they are evaluated.
+     */
+    private final LogCatMessageFilter[] evaluationOrder;
+
+    /**
+     * Cached verdicts of the cacheable filters indexed by priority.
+     */
+    private final VerdictCache[] verdicts;
+
+    private LogCatFilterChain(LogCatMessageFilter[] filters) {
+        this.filters = filters;
+        this.verdicts = new VerdictCache[filters.length == 0 ? 0 : 8];
+        for (int i = 0; i < this.verdicts.length; i++) {
+            this.verdicts[i] = new VerdictCache();
+        }
+        this.evaluationOrder = filters.clone();
+        Arrays.sort(this.evaluationOrder, new Comparator<LogCatMessageFilter>() {
+            @Override
+            public int compare(LogCatMessageFilter a, LogCatMessageFilter b) {
+                return a.getCost() - b.getCost();
+            }
+        });
+    }
+
+    /**
+     * Create a new chain with the provided filter appended.
+     *
+     * @param filter the filter
+     * @return the new chain
+     */
+    LogCatFilterChain with(LogCatMessageFilter filter) {
+        LogCatMessageFilter[] filters = Arrays.copyOf(this.filters, this.filters.length + 1);
+        filters[this.filters.length] = filter;
+        return new LogCatFilterChain(filters);
+    }
+
+    /**
+     * Create a new chain with the first occurrence of the provided filter removed.
+     *
+     * @param filter the filter
+     * @return the new chain, or this chain if it does not contain the filter
+     */
+    LogCatFilterChain without(LogCatMessageFilter filter) {
+        ArrayList<LogCatMessageFilter> filters = new ArrayList<>(Arrays.asList(this.filters));
+        if (!filters.remove(filter))
+            return this;
+        return new LogCatFilterChain(filters.toArray(new LogCatMessageFilter[0]));
+    }
+
+    /**
+     * Retrieve the filters in this chain in the order they were added.
+     *
+     * @return the filters
+     */
+    List<LogCatMessageFilter> getFilters() {
+        return Collections.unmodifiableList(Arrays.asList(filters));
+    }
+
+    /**
+     * Retrieve the number of cached verdicts for a priority.
+     *
+     * @param priority the numeric priority
+     * @return the number of verdicts
+     */
+    int getCachedVerdicts(int priority) {
+        return priority >= 0 && priority < verdicts.length ? verdicts[priority].tags.size() : 0;
+    }
+
+    /**
+     * Determine whether or not a message passes every filter in this chain. This method is
+     * thread-safe.
+     *
+     * @param message the message
+     * @param metrics the metrics to record cache hits and misses in, or null
+     * @return true if the message passes every filter
+     */
+    boolean isValid(LogCatMessage message, @Nullable LogCatMetrics metrics) {
+        // The cacheable filters are the cheapest, so they are checked first.
+        for (LogCatMessageFilter filter : evaluationOrder) {
+            if (filter.isCacheable()) {
+                if (!isValidByTagAndPriority(message, metrics))
+                    return false;
+                break;
+            }
+        }
+
+        for (LogCatMessageFilter filter : evaluationOrder) {
+            if (!filter.isCacheable() && !filter.isValid(message))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether or not a message passes every cacheable filter in this chain, using the
+     * cached verdict for its tag and priority if there is one.
+     */
+    private boolean isValidByTagAndPriority(LogCatMessage message, LogCatMetrics metrics) {
+        // Read before evaluating, so a verdict computed while a filter is being reconfigured is
+        // recorded against the old version and never used.
+        int version = getConfigurationVersion();
+        int priority = message.getPriority().getNumeric();
+        String tag = message.getTag();
+
+        VerdictCache cache =
+            priority >= 0 && priority < verdicts.length ? verdicts[priority] : null;
+        if (cache != null) {
+            Integer verdict = cache.tags.get(tag);
+            if (verdict != null && verdict >>> 1 == version) {
+                if (metrics != null) {
+                    metrics.onFilterCacheHit();
+                }
+                return (verdict & 1) == 1;
+            }
+        }
+
+        boolean valid = true;
+        for (LogCatMessageFilter filter : evaluationOrder) {
+            if (filter.isCacheable() && !filter.isValid(message)) {
+                valid = false;
+                break;
+            }
+        }
+
+        if (cache != null) {
+            if (metrics != null) {
+                metrics.onFilterCacheMiss();
+            }
+            cache.put(tag, (version << 1) | (valid ? 1 : 0));
+        }
+        return valid;
+    }
+
+    /**
+     * Retrieve the configuration version of this chain, which increases whenever one of its
+     * filters is reconfigured. Only the lower 31 bits are kept, the cached verdict takes the
+     * lowest bit of each entry.
+     */
+    private int getConfigurationVersion() {
+        int version = 0;
+        for (LogCatMessageFilter filter : filters) {
+            version += filter.getConfigurationVersion();
+        }
+        return version & Integer.MAX_VALUE;
+    }
+
+    /**
+     * The cached verdicts for one priority, keyed by tag. Each value holds the configuration
+     * version in its upper bits and the verdict in its lowest bit.
+     */
+    private static final class VerdictCache {
+        final ConcurrentHashMap<String, Integer> tags = new ConcurrentHashMap<>();
+
+        /**
+         * Walks over the cached tags to pick the next one to evict. Iterators of a
+         * {@link ConcurrentHashMap} tolerate concurrent changes, so it stays usable between
+         * evictions.
+         */
+        private Iterator<String> sweep;
+
+        /**
+         * Caches a verdict, evicting other verdicts first if the cache is full.
+         */
+        void put(String tag, int verdict) {
+            if (tags.size() >= CACHE_CAPACITY && !tags.containsKey(tag)) {
+                evict();
+            }
+            tags.put(tag, verdict);
+        }
+
+        /**
+         * Evicts verdicts until the cache has room for another one.
+         */
+        private synchronized void evict() {
+            while (tags.size() >= CACHE_CAPACITY) {
+                if (sweep == null || !sweep.hasNext()) {
+                    sweep = tags.keySet().iterator();
+                }
+                sweep.next();
+                sweep.remove();
+            }
+        }
+    }
+}
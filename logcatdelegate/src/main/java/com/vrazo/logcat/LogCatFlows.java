@@ -0,0 +1,255 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Operators for composing {@link LogCatPublisher} instances.
+ *
+ * Operators do not start any threads or buffer items beyond what they need. Each operator runs on
+ * whichever thread its upstream publisher delivers items on, and translates the demand of its
+ * subscriber into demand on the upstream publisher.
+ *
+ * <pre>
+ * LogCatPublisher&lt;List&lt;String&gt;&gt; lines = LogCatFlows.batch(
+ *     LogCatFlows.map(publisher, new LogCatFlows.Function&lt;LogCatMessage, String&gt;() {
+ *         public String apply(LogCatMessage message) {
+ *             return message.getFormatted();
+ *         }
+ *     }),
+ *     100
+ * );
+ * </pre>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogCatFlows {
+    /**
+     * Decides whether or not an item is passed downstream by {@link #filter}.
+     *
+     * @param <T> the type of item
+     */
+    public interface Predicate<T> {
+        /**
+         * @param item the item
+         * @return true to pass the item downstream
+         */
+        boolean test(T item);
+    }
+
+    /**
+     * Converts an item for {@link #map}.
+     *
+     * @param <T> the type of the input item
+     * @param <R> the type of the output item
+     */
+    public interface Function<T, R> {
+        /**
+         * @param item the input item
+         * @return the output item
+         */
+        R apply(T item);
+    }
+
+    /**
+     * Block access to instantiation.
+     */
+    private LogCatFlows() {}
+
+    /**
+     * Create a publisher that only passes on the items of the source publisher that match the
+     * predicate. An item that does not match is replaced by requesting another from the source.
+     *
+     * @param source    the source publisher
+     * @param predicate the predicate
+     * @param <T>       the type of item
+     * @return the filtered publisher
+     */
+    public static <T> LogCatPublisher<T> filter(
+        @NonNull final LogCatPublisher<T> source, @NonNull final Predicate<? super T> predicate
+    ) {
+        return new LogCatPublisher<T>() {
+            @Override
+            public void subscribe(@NonNull final LogCatSubscriber<? super T> subscriber) {
+                source.subscribe(new ForwardingSubscriber<T, T>(subscriber) {
+                    @Override
+                    public void onNext(@NonNull T item) {
+                        if (predicate.test(item)) {
+                            downstream.onNext(item);
+                        } else {
+                            upstream.request(1);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Create a publisher that converts each item of the source publisher.
+     *
+     * @param source   the source publisher
+     * @param function the conversion
+     * @param <T>      the type of the input item
+     * @param <R>      the type of the output item
+     * @return the converted publisher
+     */
+    public static <T, R> LogCatPublisher<R> map(
+        @NonNull final LogCatPublisher<T> source,
+        @NonNull final Function<? super T, ? extends R> function
+    ) {
+        return new LogCatPublisher<R>() {
+            @Override
+            public void subscribe(@NonNull final LogCatSubscriber<? super R> subscriber) {
+                source.subscribe(new ForwardingSubscriber<T, R>(subscriber) {
+                    @Override
+                    public void onNext(@NonNull T item) {
+                        downstream.onNext(function.apply(item));
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Create a publisher that groups the items of the source publisher into lists of the provided
+     * size. Each batch requested downstream requests that many items from the source. A partial
+     * batch is delivered when the source completes, once it has been requested.
+     *
+     * @param source the source publisher
+     * @param size   the number of items in each batch
+     * @param <T>    the type of item
+     * @return the batching publisher
+     */
+    public static <T> LogCatPublisher<List<T>> batch(
+        @NonNull final LogCatPublisher<T> source, final int size
+    ) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be greater than zero");
+        }
+
+        return new LogCatPublisher<List<T>>() {
+            @Override
+            public void subscribe(@NonNull final LogCatSubscriber<? super List<T>> subscriber) {
+                source.subscribe(new ForwardingSubscriber<T, List<T>>(subscriber) {
+                    private ArrayList<T> current = new ArrayList<>(size);
+
+                    // Guarded by this: the batches requested downstream and not delivered yet,
+                    // and whether the source completed while the final batch had no demand.
+                    private long requested;
+                    private boolean completePending;
+
+                    @Override
+                    public void onSubscribe(@NonNull final LogCatSubscription subscription) {
+                        upstream = subscription;
+                        downstream.onSubscribe(new LogCatSubscription() {
+                            @Override
+                            public void request(long n) {
+                                if (n > 0 && onRequest(n))
+                                    return;
+                                subscription.request(
+                                    n > 0 && n > Long.MAX_VALUE / size ? Long.MAX_VALUE : n * size
+                                );
+                            }
+
+                            @Override
+                            public void cancel() {
+                                subscription.cancel();
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onNext(@NonNull T item) {
+                        current.add(item);
+                        if (current.size() == size) {
+                            List<T> batch = current;
+                            current = new ArrayList<>(size);
+                            synchronized (this) {
+                                if (requested != Long.MAX_VALUE) {
+                                    requested--;
+                                }
+                            }
+                            downstream.onNext(batch);
+                        }
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        if (!current.isEmpty()) {
+                            synchronized (this) {
+                                if (requested == 0) {
+                                    // Hold the final batch until it is requested.
+                                    completePending = true;
+                                    return;
+                                }
+                            }
+                        }
+                        finish();
+                    }
+
+                    /**
+                     * Adds downstream demand, and delivers the final batch if it was waiting for
+                     * it.
+                     *
+                     * @return true if the final batch was delivered
+                     */
+                    private boolean onRequest(long n) {
+                        synchronized (this) {
+                            requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                            if (!completePending)
+                                return false;
+                            completePending = false;
+                        }
+                        finish();
+                        return true;
+                    }
+
+                    /**
+                     * Delivers the final partial batch, if any, and completes downstream.
+                     */
+                    private void finish() {
+                        if (!current.isEmpty()) {
+                            List<T> batch = current;
+                            current = new ArrayList<>();
+                            downstream.onNext(batch);
+                        }
+                        downstream.onComplete();
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * A subscriber that forwards every signal except items to a downstream subscriber.
+     *
+     * @param <T> the type of item received
+     * @param <R> the type of item passed downstream
+     */
+    private abstract static class ForwardingSubscriber<T, R> implements LogCatSubscriber<T> {
+        final LogCatSubscriber<? super R> downstream;
+        LogCatSubscription upstream;
+
+        ForwardingSubscriber(LogCatSubscriber<? super R> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(@NonNull LogCatSubscription subscription) {
+            upstream = subscription;
+            downstream.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onError(@NonNull Throwable error) {
+            downstream.onError(error);
+        }
+
+        @Override
+        public void onComplete() {
+            downstream.onComplete();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link LogCatShipper.Transport} that posts each batch to a URL.
+ *
+ * The body of the request is the compressed batch, sent with a {@code Content-Encoding} of
+ * {@code gzip} and the content type of its {@link LogCatShipper.Format}. Any 2xx response is
+ * treated as success. A 4xx response means the collector will never accept the batch, so it is
+ * reported as a {@link LogCatShipper.RejectedException} and dropped, except for 408 (Request
+ * Timeout) and 429 (Too Many Requests). Those, any other response and a failure to connect cause
+ * the batch to be retried.
+ *
+ * Connections are kept alive between batches where the platform allows it.
+ *
+ * The application needs the {@code android.permission.INTERNET} permission.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatHttpTransport implements LogCatShipper.Transport {
+    private final URL url;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+
+    private volatile int connectTimeoutMillis = 10000;
+    private volatile int readTimeoutMillis = 30000;
+
+    /**
+     * Create a transport posting to a URL.
+     *
+     * @param url the URL of the collector
+     */
+    public LogCatHttpTransport(@NonNull URL url) {
+        this.url = url;
+    }
+
+    /**
+     * Adds a header sent with every request, for example to authenticate with the collector.
+     *
+     * @param name  the name of the header
+     * @param value the value of the header
+     */
+    public synchronized void addHeader(@NonNull String name, @NonNull String value) {
+        headers.put(name, value);
+    }
+
+    /**
+     * Sets the timeouts of each request. The defaults are 10 seconds to connect and 30 seconds to
+     * read the response.
+     *
+     * @param connectTimeoutMillis the time allowed to connect in milliseconds
+     * @param readTimeoutMillis    the time allowed to read the response in milliseconds
+     */
+    public void setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        if (connectTimeoutMillis <= 0 || readTimeoutMillis <= 0) {
+            throw new IllegalArgumentException(
+                "connectTimeoutMillis and readTimeoutMillis must be greater than zero"
+            );
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public void send(@NonNull LogCatShipper.Batch batch) throws IOException {
+        byte[] payload = batch.getPayload();
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        boolean sent = false;
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setFixedLengthStreamingMode(payload.length);
+            connection.setRequestProperty("Content-Type", batch.getFormat().getContentType());
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            synchronized (this) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+
+            OutputStream output = connection.getOutputStream();
+            try {
+                output.write(payload);
+            } finally {
+                output.close();
+            }
+
+            int code = connection.getResponseCode();
+            if (code >= 400 && code < 500 && code != 408 && code != 429) {
+                throw new LogCatShipper.RejectedException(
+                    "collector rejected the batch with HTTP " + code
+                );
+            }
+            if (code < 200 || code >= 300) {
+                throw new IOException("collector responded with HTTP " + code);
+            }
+
+            // Read the response to the end so the connection can be reused.
+            InputStream input = connection.getInputStream();
+            try {
+                byte[] buffer = new byte[1024];
+                //noinspection StatementWithEmptyBody
+                while (input.read(buffer) != -1) ;
+            } finally {
+                input.close();
+            }
+            sent = true;
+        } finally {
+            // A connection that failed in any way is not reused.
+            if (!sent) {
+                connection.disconnect();
+            }
+        }
+    }
+}
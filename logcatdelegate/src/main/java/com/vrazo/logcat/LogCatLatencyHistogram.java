@@ -0,0 +1,129 @@
+package com.vrazo.logcat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies measured in nanoseconds.
+ *
+ * Values are recorded in power-of-two buckets, so percentiles are accurate to within a factor of
+ * two. This is sufficient to tell whether an operation takes microseconds or milliseconds while
+ * keeping recording down to a couple of atomic increments.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogCatLatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Block access to instantiation outside of the package.
+     */
+    LogCatLatencyHistogram() {}
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        // Bucket i holds values in the range [2^i, 2^(i+1)), with zero stored in bucket 0.
+        buckets.incrementAndGet(Math.max(0, BUCKETS - 1 - Long.numberOfLeadingZeros(nanos)));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, nanos))
+                break;
+        }
+    }
+
+    /**
+     * Retrieve the number of recorded latencies.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Retrieve the sum of all recorded latencies.
+     *
+     * @return the total in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * Retrieve the mean of all recorded latencies.
+     *
+     * @return the mean in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getMeanNanos() {
+        long count = this.count.get();
+        return count == 0 ? 0 : totalNanos.get() / count;
+    }
+
+    /**
+     * Retrieve the largest recorded latency.
+     *
+     * @return the maximum in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Retrieve an estimate of the latency at the provided percentile. The estimate is the upper
+     * bound of the bucket containing the percentile.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(total * Math.max(0D, Math.min(100D, percentile)) / 100D);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                long upperBound = i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                return Math.min(upperBound, maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * Create a copy of this histogram. The copy will not change when new latencies are recorded.
+     *
+     * @return the copy
+     */
+    public LogCatLatencyHistogram snapshot() {
+        LogCatLatencyHistogram output = new LogCatLatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++) {
+            output.buckets.set(i, buckets.get(i));
+        }
+        output.count.set(count.get());
+        output.totalNanos.set(totalNanos.get());
+        output.maxNanos.set(maxNanos.get());
+        return output;
+    }
+}
@@ -0,0 +1,192 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.Nullable;
+
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Parses lines in the threadtime format for bulk reads such as
+ * {@link LogCatDelegate#dump(LogCatMessageListener)}.
+ *
+ * Lines are parsed by hand instead of with a regular expression, and timestamps are computed from
+ * the start of their minute, which is only looked up when the minute changes, instead of with a
+ * {@link java.text.SimpleDateFormat}. Any line that is not laid out exactly as Log Cat writes it
+ * is passed to {@link LogCatMessage#from(String)} instead, so the result is always the same as
+ * parsing the line with {@link LogCatMessage#from(String)}.
+ *
+ * A parser caches the start of the current minute and is not thread-safe.
+ */
+final class LogCatLineParser {
+    /**
+     * Shared instances of each priority, {@link LogCatPriority} is immutable.
+     */
+    private static final LogCatPriority VERBOSE = new LogCatPriority(Log.VERBOSE);
+    private static final LogCatPriority DEBUG = new LogCatPriority(Log.DEBUG);
+    private static final LogCatPriority INFO = new LogCatPriority(Log.INFO);
+    private static final LogCatPriority WARN = new LogCatPriority(Log.WARN);
+    private static final LogCatPriority ERROR = new LogCatPriority(Log.ERROR);
+    private static final LogCatPriority ASSERT = new LogCatPriority(Log.ASSERT);
+
+    private final Calendar calendar = Calendar.getInstance();
+    private final int year;
+
+    private int cachedMinute = -1;
+    private long cachedMinuteMillis;
+    private int lineCount;
+
+    /**
+     * Create a parser for lines logged in the current year.
+     */
+    LogCatLineParser() {
+        this.year = calendar.get(Calendar.YEAR);
+    }
+
+    /**
+     * Retrieve the number of lines passed to {@link #parse(String)}.
+     *
+     * @return the number of lines
+     */
+    int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Parses a line.
+     *
+     * @param line the line
+     * @return the message, or null if the line could not be parsed
+     */
+    @Nullable
+    LogCatMessage parse(String line) {
+        lineCount++;
+        LogCatMessage message = parseThreadtime(line);
+        return message != null ? message : LogCatMessage.from(line);
+    }
+
+    /**
+     * Parses a line laid out exactly as Log Cat writes the threadtime format:
+     * {@code MM-DD HH:MM:SS.mmm  PID  TID P Tag: message}.
+     *
+     * @return the message, or null if the line is laid out in any other way
+     */
+    @Nullable
+    private LogCatMessage parseThreadtime(String line) {
+        int length = line.length();
+        int index = 0;
+        while (index < length && line.charAt(index) == ' ')
+            index++;
+
+        if (index + 18 > length ||
+            line.charAt(index + 2) != '-' || line.charAt(index + 5) != ' ' ||
+            line.charAt(index + 8) != ':' || line.charAt(index + 11) != ':' ||
+            line.charAt(index + 14) != '.') {
+            return null;
+        }
+        int month = digits(line, index, 2);
+        int day = digits(line, index + 3, 2);
+        int hour = digits(line, index + 6, 2);
+        int minute = digits(line, index + 9, 2);
+        int second = digits(line, index + 12, 2);
+        int millis = digits(line, index + 15, 3);
+        if (month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0 || millis < 0)
+            return null;
+        index += 18;
+
+        // The pid and tid columns, each preceded by at least one space.
+        int[] ids = new int[2];
+        for (int column = 0; column < 2; column++) {
+            if (index >= length || line.charAt(index) != ' ')
+                return null;
+            while (index < length && line.charAt(index) == ' ')
+                index++;
+            int start = index;
+            int value = 0;
+            while (index < length && line.charAt(index) >= '0' && line.charAt(index) <= '9') {
+                value = value * 10 + (line.charAt(index) - '0');
+                index++;
+            }
+            if (index == start || index - start > 9)
+                return null;
+            ids[column] = value;
+        }
+
+        if (index + 3 > length || line.charAt(index) != ' ' || line.charAt(index + 2) != ' ')
+            return null;
+        LogCatPriority priority = priority(line.charAt(index + 1));
+        if (priority == null)
+            return null;
+        index += 3;
+
+        int colon = line.indexOf(':', index);
+        if (colon == -1 || colon + 1 >= length || !isWhitespace(line.charAt(colon + 1)))
+            return null;
+        String tag = line.substring(index, colon);
+        index = colon + 1;
+        while (index < length && isWhitespace(line.charAt(index)))
+            index++;
+
+        // The message must be a single line, as it would be matched by '.*'.
+        for (int i = index; i < length; i++) {
+            char c = line.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+                return null;
+        }
+
+        // Looked up per minute rather than per hour or day, as some time zones move their clocks
+        // by half an hour.
+        int minuteKey = (((month * 32) + day) * 24 + hour) * 60 + minute;
+        if (minuteKey != cachedMinute) {
+            calendar.clear();
+            calendar.set(year, month - 1, day, hour, minute, 0);
+            cachedMinuteMillis = calendar.getTimeInMillis();
+            cachedMinute = minuteKey;
+        }
+        Date loggedAt = new Date(cachedMinuteMillis + second * 1000L + millis);
+
+        return LogCatMessage.create(
+            loggedAt, priority, ids[0], ids[1], tag, line.substring(index), line
+        );
+    }
+
+    /**
+     * Reads a fixed number of ASCII digits.
+     *
+     * @return the value, or -1 if any character is not a digit
+     */
+    private static int digits(String line, int index, int count) {
+        int value = 0;
+        for (int i = index; i < index + count; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Retrieve the priority for one of the characters used by the threadtime format.
+     */
+    @Nullable
+    private static LogCatPriority priority(char character) {
+        switch (character) {
+            case 'V': return VERBOSE;
+            case 'D': return DEBUG;
+            case 'I': return INFO;
+            case 'W': return WARN;
+            case 'E': return ERROR;
+            case 'F': return ASSERT;
+            default: return null;
+        }
+    }
+
+    /**
+     * Determine whether a character is matched by '\s' in a regular expression.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,115 @@
+package com.vrazo.logcat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Splits the output of Log Cat into lines with as little latency as possible.
+ *
+ * Unlike a {@link java.io.BufferedReader} over an {@link java.io.InputStreamReader}, this reader
+ * works directly on the bytes read from the stream: a line is returned as soon as its terminating
+ * newline has been read, without first passing through a character decoder and its buffers. Only
+ * the bytes of each complete line are decoded.
+ */
+final class LogCatLineReader implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final InputStream input;
+    private byte[] buffer;
+    private int start;
+    private int end;
+    private int scanned;
+
+    /**
+     * Create a line reader.
+     *
+     * @param input the stream to read from
+     */
+    LogCatLineReader(InputStream input) {
+        this(input, 8192);
+    }
+
+    /**
+     * Create a line reader with a buffer of a specific initial size. A larger buffer reduces the
+     * number of reads when reading a large amount of output in bulk.
+     *
+     * @param input      the stream to read from
+     * @param bufferSize the initial size of the buffer in bytes
+     */
+    LogCatLineReader(InputStream input, int bufferSize) {
+        this.input = input;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Reads the next line, blocking until a complete line is available.
+     *
+     * @return the line without its terminator, or null at the end of the stream
+     * @throws IOException if the stream could not be read
+     */
+    String readLine() throws IOException {
+        while (true) {
+            for (int i = scanned; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    int lineEnd = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+                    String line = new String(buffer, start, lineEnd - start, UTF_8);
+                    start = i + 1;
+                    scanned = start;
+                    return line;
+                }
+            }
+            scanned = end;
+
+            if (!fill()) {
+                if (start == end)
+                    return null;
+                String line = new String(buffer, start, end - start, UTF_8);
+                start = end;
+                scanned = end;
+                return line;
+            }
+        }
+    }
+
+    /**
+     * Determine whether or not more input can be read without blocking.
+     *
+     * @return true if a line may be available without blocking
+     * @throws IOException if the stream could not be queried
+     */
+    boolean ready() throws IOException {
+        return start < end || input.available() > 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Reads whatever is available into the buffer, making room first if needed.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            scanned -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, end);
+            buffer = grown;
+        }
+
+        int read = input.read(buffer, end, buffer.length - end);
+        if (read == -1)
+            return false;
+        end += read;
+        return true;
+    }
+}
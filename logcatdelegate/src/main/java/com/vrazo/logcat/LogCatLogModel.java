@@ -0,0 +1,308 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * A bounded history of formatted log lines, designed to back a virtualized list such as a
+ * RecyclerView.
+ *
+ * Messages can be appended from any thread, typically from
+ * {@link LogCatDelegate#onNewMessage(LogCatMessage)}. Each message is formatted once when it is
+ * appended and the positions of its tag and body within the formatted text are recorded, so
+ * binding a line to a view does not need to format or parse anything.
+ *
+ * Appended lines are not visible to readers straight away. They are held until
+ * {@link #dispatchChanges()} is called on the thread that reads the model (normally the main
+ * thread), which applies every pending line at once and notifies the {@link Listener} with a
+ * single change. The {@link FrameScheduler} is asked to call {@link #dispatchChanges()} once per
+ * batch of appends, so no matter how quickly messages arrive the list is updated at most once per
+ * frame. Because the visible state only changes inside {@link #dispatchChanges()}, reading it does
+ * not require any locking.
+ *
+ * This class has no dependencies on the Android framework and can be tested on a plain JVM.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogCatLogModel {
+    /**
+     * Receives changes to the visible lines of the model.
+     */
+    public interface Listener {
+        /**
+         * Called after pending lines have been applied.
+         *
+         * @param removedFromStart the number of lines removed from the start of the model to make
+         *                         room for the new lines
+         * @param insertedAtEnd    the number of lines added to the end of the model
+         */
+        void onLinesChanged(int removedFromStart, int insertedAtEnd);
+    }
+
+    /**
+     * Schedules a call to {@link #dispatchChanges()} on the thread that reads the model.
+     *
+     * On Android this would typically post the runnable to the main thread, for example using
+     * {@code Choreographer.postFrameCallback} or {@code View.postOnAnimation}.
+     */
+    public interface FrameScheduler {
+        /**
+         * @param dispatch the runnable to run on the reading thread before the next frame
+         */
+        void scheduleFrame(@NonNull Runnable dispatch);
+    }
+
+    /**
+     * A single formatted line in the model.
+     */
+    public static final class Line {
+        private final String text;
+        private final int priority;
+        private final int tagStart;
+        private final int tagEnd;
+        private final int messageStart;
+
+        Line(String text, int priority, int tagStart, int tagEnd, int messageStart) {
+            this.text = text;
+            this.priority = priority;
+            this.tagStart = tagStart;
+            this.tagEnd = tagEnd;
+            this.messageStart = messageStart;
+        }
+
+        /**
+         * Retrieve the formatted text of the line.
+         *
+         * @return the text
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Retrieve the numeric priority of the message.
+         *
+         * @return the priority
+         * @see LogCatPriority#getNumeric()
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Retrieve the index in the text at which the tag starts.
+         *
+         * @return the start index of the tag
+         */
+        public int getTagStart() {
+            return tagStart;
+        }
+
+        /**
+         * Retrieve the index in the text at which the tag ends (exclusive).
+         *
+         * @return the end index of the tag
+         */
+        public int getTagEnd() {
+            return tagEnd;
+        }
+
+        /**
+         * Retrieve the index in the text at which the message body starts. The body runs until the
+         * end of the text.
+         *
+         * @return the start index of the body
+         */
+        public int getMessageStart() {
+            return messageStart;
+        }
+    }
+
+    private final int capacity;
+    private final Line[] lines;
+    private int start;
+    private int size;
+
+    private final Object pendingLock = new Object();
+    private final SimpleDateFormat dateFormat =
+        new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+    private final StringBuilder builder = new StringBuilder();
+    private ArrayDeque<Line> pending = new ArrayDeque<>();
+    private boolean pendingReset;
+    private boolean frameScheduled;
+
+    @Nullable
+    private final FrameScheduler frameScheduler;
+
+    @Nullable
+    private Listener listener;
+
+    private final Runnable dispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchChanges();
+        }
+    };
+
+    /**
+     * Create a new model.
+     *
+     * @param capacity       the maximum number of lines to keep
+     * @param frameScheduler schedules {@link #dispatchChanges()} after lines are appended, or null
+     *                       to call {@link #dispatchChanges()} manually
+     */
+    public LogCatLogModel(int capacity, @Nullable FrameScheduler frameScheduler) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than zero");
+        }
+        this.capacity = capacity;
+        this.lines = new Line[capacity];
+        this.frameScheduler = frameScheduler;
+    }
+
+    /**
+     * Sets the listener that is notified when the visible lines change. The listener is called
+     * from {@link #dispatchChanges()}.
+     *
+     * @param listener the listener, or null to remove it
+     */
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Formats a message and adds it to the pending lines. This method may be called from any
+     * thread.
+     *
+     * @param message the message
+     */
+    public void append(@NonNull LogCatMessage message) {
+        boolean schedule;
+        synchronized (pendingLock) {
+            builder.setLength(0);
+            builder.append(dateFormat.format(message.getLoggedAt()))
+                .append(' ').append(message.getPriority().getCharacter()).append(' ');
+            int tagStart = builder.length();
+            builder.append(message.getTag());
+            int tagEnd = builder.length();
+            builder.append(": ");
+            int messageStart = builder.length();
+            builder.append(message.getMessage());
+            if (message.getRepeatCount() > 1) {
+                builder.append(" (x").append(message.getRepeatCount()).append(')');
+            }
+
+            pending.add(new Line(
+                builder.toString(), message.getPriority().getNumeric(),
+                tagStart, tagEnd, messageStart
+            ));
+            if (pending.size() > capacity) {
+                // The reader hasn't kept up; everything currently visible will be replaced.
+                pending.poll();
+                pendingReset = true;
+            }
+
+            schedule = !frameScheduled && frameScheduler != null;
+            frameScheduled = true;
+        }
+
+        if (schedule) {
+            frameScheduler.scheduleFrame(dispatchRunnable);
+        }
+    }
+
+    /**
+     * Applies every pending line to the visible lines and notifies the listener. Must be called on
+     * the thread that reads the model.
+     */
+    public void dispatchChanges() {
+        ArrayDeque<Line> applied;
+        boolean reset;
+        synchronized (pendingLock) {
+            applied = pending;
+            reset = pendingReset;
+            pending = new ArrayDeque<>();
+            pendingReset = false;
+            frameScheduled = false;
+        }
+        if (applied.isEmpty() && !reset)
+            return;
+
+        int removed = 0;
+        if (reset) {
+            removed = size;
+            start = 0;
+            size = 0;
+        }
+        for (Line line : applied) {
+            if (size == capacity) {
+                lines[start] = null;
+                start = (start + 1) % capacity;
+                size--;
+                removed++;
+            }
+            lines[(start + size) % capacity] = line;
+            size++;
+        }
+
+        // The pending lines never exceed the capacity, so only previously visible lines are
+        // evicted and every applied line is still visible.
+        if (listener != null) {
+            listener.onLinesChanged(removed, applied.size());
+        }
+    }
+
+    /**
+     * Removes every visible and pending line. Must be called on the thread that reads the model.
+     */
+    public void clear() {
+        synchronized (pendingLock) {
+            pending.clear();
+            pendingReset = false;
+        }
+        int removed = size;
+        for (int i = 0; i < capacity; i++) {
+            lines[i] = null;
+        }
+        start = 0;
+        size = 0;
+        if (listener != null && removed > 0) {
+            listener.onLinesChanged(removed, 0);
+        }
+    }
+
+    /**
+     * Retrieve the number of visible lines. Must be called on the thread that reads the model.
+     *
+     * @return the number of lines
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Retrieve the maximum number of lines kept by the model.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Retrieve a visible line. Must be called on the thread that reads the model.
+     *
+     * @param position the position of the line, 0 being the oldest
+     * @return the line
+     */
+    @NonNull
+    public Line getLine(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + size);
+        }
+        return lines[(start + position) % capacity];
+    }
+}
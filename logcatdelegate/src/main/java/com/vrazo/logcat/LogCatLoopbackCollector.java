@@ -0,0 +1,430 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A {@link LogCatShipper.Transport} that stands in for a remote collector, for measuring the
+ * throughput and batching of a {@link LogCatShipper} without a network.
+ *
+ * Each batch is decompressed and decoded as a collector would, so malformed batches are rejected
+ * with a {@link LogCatShipper.RejectedException}. The most recent messages are kept and can be
+ * inspected with {@link #getMessages()}. A latency and a rate of failures can be set to see how
+ * the shipper behaves with a slow or unreliable network, and a tag whose batches are always
+ * rejected to see how it handles batches the collector refuses for good.
+ *
+ * <pre>
+ * LogCatLoopbackCollector collector = new LogCatLoopbackCollector();
+ * collector.setLatency(50);
+ * collector.setFailureRate(0.1);
+ * LogCatShipper shipper = new LogCatShipper(collector);
+ * </pre>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatLoopbackCollector implements LogCatShipper.Transport {
+    private final int capacity;
+    private final ArrayDeque<LogCatMessage> messages = new ArrayDeque<>();
+    private final Random random = new Random();
+
+    private volatile long latencyMillis;
+    private volatile double failureRate;
+    private volatile String rejectedTag;
+
+    // Guarded by this.
+    private long batchCount;
+    private long messageCount;
+    private long bytesReceived;
+    private long bytesDecompressed;
+    private long failures;
+    private long rejected;
+
+    /**
+     * Create a collector that keeps the 10000 most recent messages.
+     */
+    public LogCatLoopbackCollector() {
+        this(10000);
+    }
+
+    /**
+     * Create a collector.
+     *
+     * @param capacity the number of recent messages to keep
+     */
+    public LogCatLoopbackCollector(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets the time each batch takes to be sent, simulating the round trip to a collector.
+     *
+     * @param latencyMillis the latency in milliseconds
+     */
+    public void setLatency(long latencyMillis) {
+        if (latencyMillis < 0) {
+            throw new IllegalArgumentException("latencyMillis must not be negative");
+        }
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sets the fraction of batches that fail, after the latency, with an {@link IOException}.
+     *
+     * @param failureRate the fraction from 0 to 1
+     */
+    public void setFailureRate(double failureRate) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("failureRate must be between 0 and 1");
+        }
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Sets a tag that the collector refuses: every batch holding a message with the tag is
+     * rejected with a {@link LogCatShipper.RejectedException}, after the latency.
+     *
+     * @param tag the tag, or null to accept every tag
+     */
+    public void setRejectedTag(@Nullable String tag) {
+        this.rejectedTag = tag;
+    }
+
+    @Override
+    public void send(@NonNull LogCatShipper.Batch batch) throws IOException {
+        long latency = latencyMillis;
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while sending");
+            }
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            synchronized (this) {
+                failures++;
+            }
+            throw new IOException("simulated failure");
+        }
+
+        byte[] decompressed;
+        List<LogCatMessage> decoded;
+        try {
+            decompressed = decompress(batch.getPayload());
+            decoded = batch.getFormat() == LogCatShipper.Format.Binary
+                ? decodeBinary(decompressed)
+                : decodeJson(decompressed);
+        } catch (IOException e) {
+            throw reject("malformed batch: " + e.getMessage());
+        }
+        if (decoded.size() != batch.getMessageCount()) {
+            throw reject(
+                "batch holds " + decoded.size() + " messages, expected " + batch.getMessageCount()
+            );
+        }
+        String rejectedTag = this.rejectedTag;
+        for (LogCatMessage message : decoded) {
+            if (message.getTag().equals(rejectedTag)) {
+                throw reject("batch holds a message tagged " + rejectedTag);
+            }
+        }
+
+        synchronized (this) {
+            batchCount++;
+            messageCount += decoded.size();
+            bytesReceived += batch.getPayload().length;
+            bytesDecompressed += decompressed.length;
+            for (LogCatMessage message : decoded) {
+                if (capacity == 0)
+                    break;
+                if (messages.size() >= capacity) {
+                    messages.poll();
+                }
+                messages.add(message);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the number of batches received.
+     *
+     * @return the number of batches
+     */
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+
+    /**
+     * Retrieve the number of messages received.
+     *
+     * @return the number of messages
+     */
+    public synchronized long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * Retrieve the number of compressed bytes received.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Retrieve the number of bytes received after decompression. Divided by
+     * {@link #getBytesReceived()} this is the compression ratio.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long getBytesDecompressed() {
+        return bytesDecompressed;
+    }
+
+    /**
+     * Retrieve the number of batches rejected because of the failure rate.
+     *
+     * @return the number of batches
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * Retrieve the number of batches rejected for good, because they were malformed or held a
+     * message with the rejected tag.
+     *
+     * @return the number of batches
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Retrieve the most recent messages received, oldest first.
+     *
+     * @return a copy of the messages
+     */
+    @NonNull
+    public synchronized List<LogCatMessage> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    /**
+     * Forgets every message and resets the counters.
+     */
+    public synchronized void clear() {
+        messages.clear();
+        batchCount = 0;
+        messageCount = 0;
+        bytesReceived = 0;
+        bytesDecompressed = 0;
+        failures = 0;
+        rejected = 0;
+    }
+
+    /**
+     * Counts a rejected batch.
+     *
+     * @param reason the reason the batch was rejected
+     * @return the exception to throw
+     */
+    private synchronized LogCatShipper.RejectedException reject(String reason) {
+        rejected++;
+        return new LogCatShipper.RejectedException(reason);
+    }
+
+    private static byte[] decompress(byte[] payload) throws IOException {
+        GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(payload));
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length * 4);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Decodes the records of a binary batch.
+     */
+    private static List<LogCatMessage> decodeBinary(byte[] bytes) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (input.readInt() != LogCatShipper.MAGIC || input.readInt() != LogCatShipper.VERSION) {
+            throw new IOException("not a binary batch");
+        }
+
+        ArrayList<LogCatMessage> output = new ArrayList<>();
+        while (input.available() > 0) {
+            int length = input.readInt();
+            if (length < 25 || length > input.available()) {
+                throw new IOException("malformed record");
+            }
+            long loggedAt = input.readLong();
+            int priority = input.readByte();
+            int pid = input.readInt();
+            int tid = input.readInt();
+            String tag = readString(input);
+            String message = readString(input);
+            output.add(LogCatMessage.create(
+                new Date(loggedAt), new LogCatPriority(priority), pid, tid, tag, message
+            ));
+        }
+        return output;
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > input.available()) {
+            throw new IOException("malformed record");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, LogCatShipper.UTF_8);
+    }
+
+    /**
+     * Decodes the objects of a JSON batch, one per line.
+     */
+    private static List<LogCatMessage> decodeJson(byte[] bytes) throws IOException {
+        String text = new String(bytes, LogCatShipper.UTF_8);
+        ArrayList<LogCatMessage> output = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                end = text.length();
+            }
+            output.add(new JsonObjectParser(text, start, end).parse());
+            start = end + 1;
+        }
+        return output;
+    }
+
+    /**
+     * Parses a flat JSON object of strings and integers written by {@link LogCatShipper}.
+     */
+    private static final class JsonObjectParser {
+        private final String text;
+        private final int end;
+        private int index;
+
+        private long loggedAt;
+        private int priority;
+        private int pid;
+        private int tid;
+        private String tag;
+        private String message;
+
+        JsonObjectParser(String text, int start, int end) {
+            this.text = text;
+            this.index = start;
+            this.end = end;
+        }
+
+        LogCatMessage parse() throws IOException {
+            expect('{');
+            do {
+                String key = readString();
+                expect(':');
+                switch (key) {
+                    case "loggedAt": loggedAt = readNumber(); break;
+                    case "priority": priority = (int) readNumber(); break;
+                    case "pid": pid = (int) readNumber(); break;
+                    case "tid": tid = (int) readNumber(); break;
+                    case "tag": tag = readString(); break;
+                    case "message": message = readString(); break;
+                    default: throw new IOException("unexpected key " + key);
+                }
+            } while (next() == ',');
+            index--;
+            expect('}');
+            if (index != end || tag == null || message == null) {
+                throw new IOException("malformed object");
+            }
+            return LogCatMessage.create(
+                new Date(loggedAt), new LogCatPriority(priority), pid, tid, tag, message
+            );
+        }
+
+        private char next() throws IOException {
+            if (index >= end) {
+                throw new IOException("unexpected end of object");
+            }
+            return text.charAt(index++);
+        }
+
+        private void expect(char expected) throws IOException {
+            if (next() != expected) {
+                throw new IOException("expected '" + expected + "' at " + (index - 1));
+            }
+        }
+
+        private long readNumber() throws IOException {
+            int start = index;
+            if (index < end && text.charAt(index) == '-')
+                index++;
+            while (index < end && text.charAt(index) >= '0' && text.charAt(index) <= '9')
+                index++;
+            try {
+                return Long.parseLong(text.substring(start, index));
+            } catch (NumberFormatException e) {
+                throw new IOException("malformed number at " + start);
+            }
+        }
+
+        private String readString() throws IOException {
+            expect('"');
+            StringBuilder builder = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"')
+                    return builder.toString();
+                if (c != '\\') {
+                    builder.append(c);
+                    continue;
+                }
+                c = next();
+                switch (c) {
+                    case 'n': builder.append('\n'); break;
+                    case 'r': builder.append('\r'); break;
+                    case 't': builder.append('\t'); break;
+                    case 'b': builder.append('\b'); break;
+                    case 'f': builder.append('\f'); break;
+                    case 'u':
+                        if (index + 4 > end)
+                            throw new IOException("malformed escape at " + index);
+                        try {
+                            builder.append((char) Integer.parseInt(
+                                text.substring(index, index + 4), 16
+                            ));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("malformed escape at " + index);
+                        }
+                        index += 4;
+                        break;
+                    default: builder.append(c);
+                }
+            }
+        }
+    }
+}
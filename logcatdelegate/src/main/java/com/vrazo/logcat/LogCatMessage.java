@@ -1,5 +1,6 @@
 package com.vrazo.logcat;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.text.DateFormat;
@@ -7,8 +8,10 @@ import java.text.DecimalFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,6 +20,14 @@ import java.util.regex.Pattern;
  */
 @SuppressWarnings("unused")
 public final class LogCatMessage {
+    /**
+     * The pattern for a line in the threadtime format. Compiled once as it is used for every line
+     * and {@link Pattern} is safe to share between threads.
+     */
+    private static final Pattern THREADTIME_PATTERN = Pattern.compile(
+        "(| +)([0-9]{2}-[0-9]{2}\\s[0-9]{2}:[0-9]{2}:[0-9]{2}\\.[0-9]{3})\\s+([0-9]+)\\s+([0-9]+)\\s([VDIWEF])\\s([^:]*):\\s+(.*)"
+    );
+
     private Date loggedAt;
     private LogCatPriority priority;
     private int pid;
@@ -24,12 +35,35 @@ public final class LogCatMessage {
     private String tag;
     private String message;
     private String raw;
+    private int repeatCount = 1;
+    private Map<String, Object> fields = Collections.emptyMap();
+    private String processName;
+    private long ingestedAtNanos;
 
     /**
      * Block access to instantiation.
      */
     private LogCatMessage() {}
 
+    /**
+     * Create a copy of the provided message.
+     *
+     * @param other the message to copy
+     */
+    private LogCatMessage(LogCatMessage other) {
+        this.loggedAt = other.loggedAt;
+        this.priority = other.priority;
+        this.pid = other.pid;
+        this.tid = other.tid;
+        this.tag = other.tag;
+        this.message = other.message;
+        this.raw = other.raw;
+        this.repeatCount = other.repeatCount;
+        this.fields = other.fields;
+        this.processName = other.processName;
+        this.ingestedAtNanos = other.ingestedAtNanos;
+    }
+
     /**
      * Retrieve the formatted version of this message. By default, this will use the format of:
      *
@@ -161,6 +195,51 @@ public final class LogCatMessage {
         return message;
     }
 
+    /**
+     * Retrieve the number of identical messages this message represents. This will be greater
+     * than one when repeated messages have been collapsed by a {@link LogCatDeduplicator}.
+     *
+     * @return the repeat count
+     */
+    public final int getRepeatCount() {
+        return repeatCount;
+    }
+
+    /**
+     * Retrieve the name of the process that logged this message, as resolved by a
+     * {@link LogCatProcessEnricher}.
+     *
+     * @return the process name, or null if it was not resolved
+     */
+    @Nullable
+    public final String getProcessName() {
+        return processName;
+    }
+
+    /**
+     * Retrieve the fields extracted from the body of this message by a
+     * {@link LogCatFieldExtractor}. Values are of type {@link String}, {@link Long} or
+     * {@link Double} depending on the type of the field.
+     *
+     * @return the fields, empty if nothing was extracted
+     */
+    @NonNull
+    public final Map<String, Object> getFields() {
+        return fields;
+    }
+
+    /**
+     * Retrieve a single field extracted from the body of this message.
+     *
+     * @param name the name of the field
+     * @return the value of the field, or null if it was not extracted
+     * @see #getFields()
+     */
+    @Nullable
+    public final Object getField(String name) {
+        return fields.get(name);
+    }
+
     /**
      * Retrieve the raw message.
      *
@@ -170,6 +249,138 @@ public final class LogCatMessage {
         return raw;
     }
 
+    /**
+     * Create a copy of this message with a different repeat count.
+     *
+     * @param repeatCount the repeat count
+     * @return the copy
+     */
+    final LogCatMessage withRepeatCount(int repeatCount) {
+        LogCatMessage output = new LogCatMessage(this);
+        output.repeatCount = repeatCount;
+        return output;
+    }
+
+    /**
+     * Retrieve the {@link System#nanoTime()} at which the line for this message was read from Log
+     * Cat, or 0 if the message was not read from Log Cat.
+     *
+     * @return the time at which the message was read
+     */
+    final long getIngestedAtNanos() {
+        return ingestedAtNanos;
+    }
+
+    /**
+     * Sets the {@link System#nanoTime()} at which the line for this message was read. Must only
+     * be called before the message is passed on.
+     *
+     * @param ingestedAtNanos the time at which the message was read
+     */
+    final void setIngestedAtNanos(long ingestedAtNanos) {
+        this.ingestedAtNanos = ingestedAtNanos;
+    }
+
+    /**
+     * Create a copy of this message with a process name.
+     *
+     * @param processName the process name
+     * @return the copy
+     */
+    final LogCatMessage withProcessName(String processName) {
+        LogCatMessage output = new LogCatMessage(this);
+        output.processName = processName;
+        return output;
+    }
+
+    /**
+     * Create a copy of this message with different extracted fields.
+     *
+     * @param fields the fields
+     * @return the copy
+     */
+    final LogCatMessage withFields(Map<String, Object> fields) {
+        LogCatMessage output = new LogCatMessage(this);
+        output.fields = Collections.unmodifiableMap(fields);
+        return output;
+    }
+
+    /**
+     * Creates a {@link LogCatMessage} from its individual components. Used when restoring messages
+     * that were previously stored, in which case there is no raw line available.
+     *
+     * @param loggedAt the time at which the message was logged
+     * @param priority the priority
+     * @param pid      the process ID
+     * @param tid      the thread ID
+     * @param tag      the tag
+     * @param message  the message body
+     * @return the {@link LogCatMessage}
+     */
+    static LogCatMessage create(
+        Date loggedAt, LogCatPriority priority, int pid, int tid, String tag, String message
+    ) {
+        return create(loggedAt, priority, pid, tid, tag, message, null);
+    }
+
+    /**
+     * Creates a {@link LogCatMessage} from its individual components and the raw line they were
+     * parsed from.
+     *
+     * @param loggedAt the time at which the message was logged
+     * @param priority the priority
+     * @param pid      the process ID
+     * @param tid      the thread ID
+     * @param tag      the tag
+     * @param message  the message body
+     * @param raw      the raw line, or null if it is not available
+     * @return the {@link LogCatMessage}
+     */
+    static LogCatMessage create(
+        Date loggedAt, LogCatPriority priority, int pid, int tid, String tag, String message,
+        @Nullable String raw
+    ) {
+        LogCatMessage output = new LogCatMessage();
+        output.loggedAt = loggedAt;
+        output.priority = priority;
+        output.pid = pid;
+        output.tid = tid;
+        output.tag = tag;
+        output.message = message;
+        output.raw = raw;
+        return output;
+    }
+
+    /**
+     * Finds the priority of a line in the threadtime format without parsing the rest of it. Used
+     * to decide how to handle a line before paying for a full parse.
+     *
+     * @param line the line
+     * @return the numeric priority, or -1 if the line does not look like a message
+     */
+    static int peekPriority(String line) {
+        int length = line.length();
+        int index = 0;
+        while (index < length && line.charAt(index) == ' ')
+            index++;
+
+        // Skip the date and time (MM-DD HH:MM:SS.mmm), then the pid and tid columns.
+        index += 18;
+        for (int column = 0; column < 2; column++) {
+            while (index < length && line.charAt(index) == ' ')
+                index++;
+            int digits = index;
+            while (index < length && Character.isDigit(line.charAt(index)))
+                index++;
+            if (index == digits)
+                return -1;
+        }
+
+        if (index + 2 >= length || line.charAt(index) != ' ' || line.charAt(index + 2) != ' ')
+            return -1;
+        return LogCatPriority.getNumericFromCharacter(String.valueOf(line.charAt(index + 1)));
+    }
+
     /**
      * Parses a message received from log cat into a {@link LogCatMessage} object.
      *
@@ -179,12 +390,8 @@ public final class LogCatMessage {
     @SuppressWarnings("ConstantConditions")
     @Nullable
     static LogCatMessage from(String message) {
-        // Create the regex pattern
-        final String regex = "(| +)([0-9]{2}-[0-9]{2}\\s[0-9]{2}:[0-9]{2}:[0-9]{2}\\.[0-9]{3})\\s+([0-9]+)\\s+([0-9]+)\\s([VDIWEF])\\s([^:]*):\\s+(.*)";
-        final Pattern pattern = Pattern.compile(regex);
-
         // Determine if the message matches the pattern
-        final Matcher matcher = pattern.matcher(message);
+        final Matcher matcher = THREADTIME_PATTERN.matcher(message);
         if (! matcher.find()) {
             return null;
         }
@@ -1,5 +1,6 @@
 package com.vrazo.logcat;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -38,12 +39,25 @@ public class LogCatMessageFilter {
         Tag,
     }
 
+    /**
+     * Incremented whenever the configuration of this filter changes, so that verdicts cached by a
+     * {@link LogCatFilterChain} containing it can be discarded.
+     */
+    private final AtomicInteger configurationVersion = new AtomicInteger();
+
+    /**
+     * Whether {@link #isValid(LogCatMessage)} is the implementation provided by this library, so
+     * its verdict is known to depend only on the configured span of the message.
+     */
+    private final boolean builtIn =
+        getClass() == LogCatMessageFilter.class || getClass() == LogCatPriorityFilter.class;
+
     /**
      * If set to true, only messages that do NOT match this filter will be considered valid.
      */
-    private boolean reverse;
+    private volatile boolean reverse;
 
-    private boolean forcePriorityMessageSpan;
+    private volatile boolean forcePriorityMessageSpan;
 
     /**
      * The pattern to compare messages to.
@@ -53,7 +67,7 @@ public class LogCatMessageFilter {
     /**
      * What part of the message to apply the filter to. Default value is {@link MessageSpan#Full}
      */
-    private MessageSpan messageSpan = MessageSpan.Full;
+    private volatile MessageSpan messageSpan = MessageSpan.Full;
 
     /**
      * Create a new message filter with the specified pattern.
@@ -73,6 +87,44 @@ public class LogCatMessageFilter {
      */
     void setForcePriorityMessageSpan(boolean value) {
         forcePriorityMessageSpan = value;
+        configurationVersion.incrementAndGet();
+    }
+
+    /**
+     * Retrieve the current configuration version, which increases whenever the configuration of
+     * this filter changes.
+     *
+     * @return the version
+     */
+    int getConfigurationVersion() {
+        return configurationVersion.get();
+    }
+
+    /**
+     * Determine whether the verdict of this filter depends only on the tag and priority of a
+     * message, so that it can be cached for each combination of the two.
+     *
+     * @return true if the verdict can be cached
+     */
+    boolean isCacheable() {
+        return builtIn && (forcePriorityMessageSpan || messageSpan == MessageSpan.Tag);
+    }
+
+    /**
+     * Retrieve the relative cost of evaluating this filter, used to order the filters in a
+     * {@link LogCatFilterChain}. Filters that require the formatted message are the most
+     * expensive.
+     *
+     * @return the relative cost
+     */
+    int getCost() {
+        if (forcePriorityMessageSpan)
+            return 0;
+        if (messageSpan == MessageSpan.Tag)
+            return 1;
+        if (messageSpan == MessageSpan.Message)
+            return 2;
+        return 3;
     }
 
     /**
@@ -85,6 +137,7 @@ public class LogCatMessageFilter {
      */
     public void setReverse(boolean reverse) {
         this.reverse = reverse;
+        configurationVersion.incrementAndGet();
     }
 
     /**
@@ -95,6 +148,7 @@ public class LogCatMessageFilter {
      */
     public void setMessageSpan(MessageSpan messageSpan) {
         this.messageSpan = messageSpan;
+        configurationVersion.incrementAndGet();
     }
 
     /**
@@ -104,13 +158,17 @@ public class LogCatMessageFilter {
      * @return true if the message is within this filter
      */
     public boolean isValid(LogCatMessage message) {
-        String input = message.getFormatted();
+        // Only format the message when the full message is needed, it is by far the most
+        // expensive span to produce.
+        String input;
         if (forcePriorityMessageSpan) {
             input = message.getPriority().getCharacter();
         } else if (this.messageSpan == MessageSpan.Message) {
             input = message.getMessage();
         } else if (this.messageSpan == MessageSpan.Tag) {
             input = message.getTag();
+        } else {
+            input = message.getFormatted();
         }
 
         Matcher matcher = this.pattern.matcher(input);
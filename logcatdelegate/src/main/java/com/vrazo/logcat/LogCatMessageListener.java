@@ -0,0 +1,15 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives messages routed to it, for example by a {@link LogCatProcessRouter}.
+ */
+public interface LogCatMessageListener {
+    /**
+     * Called when a new LogCat message is routed to this listener.
+     *
+     * @param message the message
+     */
+    void onNewMessage(@NonNull LogCatMessage message);
+}
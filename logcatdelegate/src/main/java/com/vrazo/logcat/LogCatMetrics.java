@@ -0,0 +1,323 @@
+package com.vrazo.logcat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters, gauges and latency histograms describing the operation of a {@link LogCatDelegate}.
+ *
+ * All values are updated without locking by the delegate and can be read from any thread at any
+ * time. Use {@link #snapshot()} to capture a copy of every value at once, for example to compare
+ * two points in time.
+ *
+ * @see LogCatDelegate#getMetrics()
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogCatMetrics {
+    private final AtomicLong linesRead = new AtomicLong();
+    private final AtomicLong parseFailures = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong filtered = new AtomicLong();
+    private final AtomicLong filterCacheHits = new AtomicLong();
+    private final AtomicLong filterCacheMisses = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final AtomicLong startedAtNanos = new AtomicLong();
+    private final AtomicBoolean awaitingFirstMessage = new AtomicBoolean();
+    private final AtomicLong timeToFirstMessageNanos = new AtomicLong(-1);
+
+    private final LogCatLatencyHistogram parseLatency;
+    private final LogCatLatencyHistogram filterLatency;
+    private final LogCatLatencyHistogram deliverLatency;
+    private final LogCatLatencyHistogram endToEndLatency;
+
+    /**
+     * Block access to instantiation outside of the package.
+     */
+    LogCatMetrics() {
+        this.parseLatency = new LogCatLatencyHistogram();
+        this.filterLatency = new LogCatLatencyHistogram();
+        this.deliverLatency = new LogCatLatencyHistogram();
+        this.endToEndLatency = new LogCatLatencyHistogram();
+    }
+
+    /**
+     * Create a copy of the provided metrics.
+     *
+     * @param other the metrics to copy
+     */
+    private LogCatMetrics(LogCatMetrics other) {
+        this.linesRead.set(other.linesRead.get());
+        this.parseFailures.set(other.parseFailures.get());
+        this.skipped.set(other.skipped.get());
+        this.sampled.set(other.sampled.get());
+        this.filtered.set(other.filtered.get());
+        this.filterCacheHits.set(other.filterCacheHits.get());
+        this.filterCacheMisses.set(other.filterCacheMisses.get());
+        this.delivered.set(other.delivered.get());
+        this.dropped.set(other.dropped.get());
+        this.restarts.set(other.restarts.get());
+        this.errors.set(other.errors.get());
+        this.queueDepth.set(other.queueDepth.get());
+        this.lagMillis.set(other.lagMillis.get());
+        this.startedAtNanos.set(other.startedAtNanos.get());
+        this.timeToFirstMessageNanos.set(other.timeToFirstMessageNanos.get());
+        this.parseLatency = other.parseLatency.snapshot();
+        this.filterLatency = other.filterLatency.snapshot();
+        this.deliverLatency = other.deliverLatency.snapshot();
+        this.endToEndLatency = other.endToEndLatency.snapshot();
+    }
+
+    /**
+     * Retrieve the number of lines read from the Log Cat child-process.
+     *
+     * @return the number of lines
+     */
+    public long getLinesRead() {
+        return linesRead.get();
+    }
+
+    /**
+     * Retrieve the number of lines that could not be parsed into a {@link LogCatMessage}.
+     *
+     * @return the number of lines
+     */
+    public long getParseFailures() {
+        return parseFailures.get();
+    }
+
+    /**
+     * Retrieve the number of messages that were ignored because they were logged before the
+     * delegate was registered.
+     *
+     * @return the number of messages
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Retrieve the number of messages dropped by the {@link LogCatSampler}.
+     *
+     * @return the number of messages
+     */
+    public long getSampled() {
+        return sampled.get();
+    }
+
+    /**
+     * Retrieve the number of messages rejected by a {@link LogCatMessageFilter}.
+     *
+     * @return the number of messages
+     */
+    public long getFiltered() {
+        return filtered.get();
+    }
+
+    /**
+     * Retrieve the number of messages whose verdict for the tag and priority filters was found in
+     * the cache of verdicts, without evaluating the filters.
+     *
+     * @return the number of messages
+     */
+    public long getFilterCacheHits() {
+        return filterCacheHits.get();
+    }
+
+    /**
+     * Retrieve the number of messages for which the tag and priority filters had to be evaluated
+     * because their verdict was not cached.
+     *
+     * @return the number of messages
+     */
+    public long getFilterCacheMisses() {
+        return filterCacheMisses.get();
+    }
+
+    /**
+     * Retrieve the number of messages delivered to {@link LogCatDelegate#onNewMessage}.
+     *
+     * @return the number of messages
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * Retrieve the number of messages discarded because their {@link LogCatPriorityLanes} lane
+     * was full.
+     *
+     * @return the number of messages
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Retrieve the number of times the Log Cat child-process has been restarted after exiting.
+     *
+     * @return the number of restarts
+     */
+    public long getRestarts() {
+        return restarts.get();
+    }
+
+    /**
+     * Retrieve the number of errors passed to {@link LogCatDelegate#onException(Exception)}.
+     *
+     * @return the number of errors
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * Retrieve the number of messages currently waiting to be delivered.
+     *
+     * @return the queue depth
+     */
+    public long getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Retrieve the difference between the time the most recently delivered message was logged and
+     * the time it was delivered. A growing value means the delegate is falling behind.
+     *
+     * @return the lag in milliseconds
+     */
+    public long getLagMillis() {
+        return lagMillis.get();
+    }
+
+    /**
+     * Retrieve the time between the delegate most recently being registered or resumed and the
+     * first message after that being delivered.
+     *
+     * @return the time in nanoseconds, or -1 if no message has been delivered since
+     */
+    public long getTimeToFirstMessageNanos() {
+        return timeToFirstMessageNanos.get();
+    }
+
+    /**
+     * Retrieve the histogram of the time taken to parse each line.
+     *
+     * @return the histogram
+     */
+    public LogCatLatencyHistogram getParseLatency() {
+        return parseLatency;
+    }
+
+    /**
+     * Retrieve the histogram of the time taken to apply the filters to each message.
+     *
+     * @return the histogram
+     */
+    public LogCatLatencyHistogram getFilterLatency() {
+        return filterLatency;
+    }
+
+    /**
+     * Retrieve the histogram of the time spent in {@link LogCatDelegate#onNewMessage} for each
+     * message.
+     *
+     * @return the histogram
+     */
+    public LogCatLatencyHistogram getDeliverLatency() {
+        return deliverLatency;
+    }
+
+    /**
+     * Retrieve the histogram of the time between a line being read from Log Cat and
+     * {@link LogCatDelegate#onNewMessage} returning for the resulting message. Messages held back
+     * by a stage include the time they were held.
+     *
+     * @return the histogram
+     */
+    public LogCatLatencyHistogram getEndToEndLatency() {
+        return endToEndLatency;
+    }
+
+    /**
+     * Create a copy of these metrics. The copy will not change as the delegate continues to run.
+     *
+     * @return the copy
+     */
+    public LogCatMetrics snapshot() {
+        return new LogCatMetrics(this);
+    }
+
+    void onLineRead() {
+        linesRead.incrementAndGet();
+    }
+
+    void onParsed(long nanos, boolean success) {
+        parseLatency.record(nanos);
+        if (!success) {
+            parseFailures.incrementAndGet();
+        }
+    }
+
+    void onSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    void onSampled() {
+        sampled.incrementAndGet();
+    }
+
+    void onFiltered(long nanos, boolean allowed) {
+        filterLatency.record(nanos);
+        if (!allowed) {
+            filtered.incrementAndGet();
+        }
+    }
+
+    void onFilterCacheHit() {
+        filterCacheHits.incrementAndGet();
+    }
+
+    void onFilterCacheMiss() {
+        filterCacheMisses.incrementAndGet();
+    }
+
+    void onDelivered(long nanos, long loggedAt, long ingestedAtNanos, long deliveredAtNanos) {
+        deliverLatency.record(nanos);
+        if (ingestedAtNanos != 0) {
+            endToEndLatency.record(deliveredAtNanos - ingestedAtNanos);
+        }
+        delivered.incrementAndGet();
+        if (awaitingFirstMessage.get() && awaitingFirstMessage.compareAndSet(true, false)) {
+            timeToFirstMessageNanos.set(System.nanoTime() - startedAtNanos.get());
+        }
+        lagMillis.set(System.currentTimeMillis() - loggedAt);
+    }
+
+    void onDropped() {
+        dropped.incrementAndGet();
+    }
+
+    void onStarted(long nanos) {
+        startedAtNanos.set(nanos);
+        timeToFirstMessageNanos.set(-1);
+        awaitingFirstMessage.set(true);
+    }
+
+    void onRestart() {
+        restarts.incrementAndGet();
+    }
+
+    void onError() {
+        errors.incrementAndGet();
+    }
+
+    void onQueueDepthChanged(long delta) {
+        queueDepth.addAndGet(delta);
+    }
+}
@@ -0,0 +1,217 @@
+package com.vrazo.logcat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses and filters the lines read by a {@link LogCatDelegate} on a pool of worker threads.
+ *
+ * The reader thread only splits the output of Log Cat into lines and hands them to this class in
+ * batches. Each batch is parsed, sampled and filtered by a worker. A single sequencer thread takes
+ * the results in the order the batches were submitted and passes them on to the stages of the
+ * delegate, so messages are delivered in their original order.
+ *
+ * The number of batches in flight is bounded; when the sequencer falls behind the reader thread
+ * blocks until a batch has been delivered.
+ */
+final class LogCatParallelParser {
+    /**
+     * Marks the end of the batches, telling the sequencer to stop.
+     */
+    private static final Future<List<LogCatMessage>> END = new FutureTask<>(
+        new Callable<List<LogCatMessage>>() {
+            @Override
+            public List<LogCatMessage> call() {
+                return null;
+            }
+        }
+    );
+
+    private final LogCatDelegate delegate;
+    private final int batchSize;
+    private final ExecutorService workers;
+    private final ArrayBlockingQueue<Future<List<LogCatMessage>>> pending;
+    private final Thread sequencer;
+
+    private ArrayList<String> batch;
+    private long[] batchIngestedAt;
+    private volatile boolean discarding;
+
+    /**
+     * Creates the worker pool and starts the sequencer.
+     *
+     * @param delegate  the delegate whose pipeline the messages are passed to
+     * @param workers   the number of worker threads
+     * @param batchSize the maximum number of lines in a batch
+     */
+    LogCatParallelParser(LogCatDelegate delegate, int workers, int batchSize) {
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+        this.batchIngestedAt = new long[batchSize];
+        this.pending = new ArrayBlockingQueue<>(workers * 4);
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(
+                    runnable, "LogCatDelegate-parser-" + threadCount.incrementAndGet()
+                );
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.sequencer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sequence();
+            }
+        }, "LogCatDelegate-sequencer");
+        this.sequencer.start();
+    }
+
+    /**
+     * Adds a line to the current batch. The batch is submitted when it is full, or when no more
+     * input is immediately available so that messages are not held back waiting for a batch to
+     * fill.
+     *
+     * @param line       the line
+     * @param ingestedAt the {@link System#nanoTime()} at which the line was read
+     * @param moreReady  true if more input can be read without blocking
+     * @throws InterruptedException if interrupted while waiting for the sequencer
+     */
+    void add(String line, long ingestedAt, boolean moreReady) throws InterruptedException {
+        batchIngestedAt[batch.size()] = ingestedAt;
+        batch.add(line);
+        if (batch.size() >= batchSize || !moreReady) {
+            submit();
+        }
+    }
+
+    /**
+     * Submits any remaining lines and waits until every batch has been delivered, or discards
+     * every batch that has not been delivered yet, then stops the worker threads.
+     *
+     * @param discard true to discard the batches instead of delivering them
+     */
+    void close(boolean discard) {
+        try {
+            if (discard) {
+                discarding = true;
+                batch.clear();
+            } else {
+                submit();
+            }
+            pending.put(END);
+            sequencer.join();
+        } catch (InterruptedException e) {
+            sequencer.interrupt();
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops delivering parsed messages straight away, from any thread. The remaining batches are
+     * discarded, and {@link #close(boolean)} must still be called to stop the worker threads.
+     */
+    void discard() {
+        discarding = true;
+    }
+
+    /**
+     * Hands the current batch to a worker.
+     */
+    private void submit() throws InterruptedException {
+        if (batch.isEmpty())
+            return;
+
+        final ArrayList<String> lines = batch;
+        final long[] ingestedAt = batchIngestedAt;
+        batch = new ArrayList<>(batchSize);
+        batchIngestedAt = new long[batchSize];
+        delegate.getMetrics().onQueueDepthChanged(lines.size());
+        pending.put(workers.submit(new Callable<List<LogCatMessage>>() {
+            @Override
+            public List<LogCatMessage> call() {
+                ArrayList<LogCatMessage> messages = new ArrayList<>(lines.size());
+                boolean parsed = false;
+                try {
+                    for (int i = 0; i < lines.size(); i++) {
+                        LogCatMessage message;
+                        try {
+                            message = delegate.accept(lines.get(i), ingestedAt[i]);
+                        } catch (RuntimeException e) {
+                            // Only drop the line, for example when a filter throws.
+                            delegate.reportException(e);
+                            continue;
+                        }
+                        if (message != null) {
+                            messages.add(message);
+                        }
+                    }
+                    parsed = true;
+                    return messages;
+                } finally {
+                    // The sequencer skips a batch that failed, so none of it stays queued.
+                    delegate.getMetrics().onQueueDepthChanged(
+                        (parsed ? messages.size() : 0) - lines.size()
+                    );
+                }
+            }
+        }));
+    }
+
+    /**
+     * Delivers the results of each batch in the order the batches were submitted.
+     */
+    private void sequence() {
+        try {
+            while (true) {
+                Future<List<LogCatMessage>> next = pending.take();
+                if (next == END)
+                    return;
+
+                List<LogCatMessage> messages;
+                try {
+                    messages = next.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    delegate.reportException(
+                        cause instanceof Exception ? (Exception) cause : e
+                    );
+                    continue;
+                }
+
+                for (int i = 0; i < messages.size(); i++) {
+                    if (discarding) {
+                        delegate.getMetrics().onQueueDepthChanged(i - messages.size());
+                        break;
+                    }
+                    LogCatMessage message = messages.get(i);
+                    delegate.getMetrics().onQueueDepthChanged(-1);
+                    try {
+                        delegate.dispatch(message);
+                    } catch (RuntimeException e) {
+                        // Keep going, the reader thread would block if the sequencer stopped.
+                        delegate.reportException(e);
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+            /* Stopped while waiting for a batch */
+        }
+    }
+}
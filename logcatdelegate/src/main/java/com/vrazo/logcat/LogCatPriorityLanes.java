@@ -0,0 +1,243 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * Queues accepted messages in one lane per priority so that messages of a high priority are
+ * delivered promptly even while a flood of low priority messages is waiting.
+ *
+ * When priority lanes are set on a {@link LogCatDelegate}, the thread reading from Log Cat only
+ * places each accepted message in the lane for its priority, and a separate delivery thread runs
+ * the stages and calls {@link LogCatDelegate#onNewMessage(LogCatMessage)}. The delivery thread
+ * drains the lanes in weighted round robin order, from {@link Log#ASSERT} down to
+ * {@link Log#VERBOSE}: each turn, a lane delivers up to its weight in messages before the next
+ * lane is visited. Once a message is at the head of its lane, at most the combined weight of the
+ * other lanes is taken from them before it, however many messages are queued in them. This bounds
+ * the number of messages delivered ahead of it, not the time it waits: each delivery takes as long
+ * as the stages and {@link LogCatDelegate#onNewMessage(LogCatMessage)} take, and in low-latency
+ * mode messages of the fast lane are delivered by the reader thread in between.
+ *
+ * Each lane has its own capacity. When a lane is full the oldest message in that lane is
+ * discarded, leaving the other lanes untouched. Since higher lanes are drained more often they
+ * fill last, so when the delegate is overloaded low priority messages are dropped first.
+ *
+ * By default every lane holds up to the capacity given to the constructor, and the weights are
+ * 16 for ASSERT and ERROR, 8 for WARN, 4 for INFO, 2 for DEBUG and 1 for VERBOSE.
+ *
+ * Messages are only delivered in their original order within a lane.
+ *
+ * @see LogCatDelegate#setPriorityLanes(LogCatPriorityLanes)
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatPriorityLanes {
+    /**
+     * The highest priority, whose lane is at index 0.
+     */
+    private static final int HIGHEST = Log.ASSERT;
+
+    /**
+     * The lowest priority, whose lane is at the last index.
+     */
+    private static final int LOWEST = Log.VERBOSE;
+
+    /**
+     * The queue of a single priority.
+     */
+    private static final class Lane {
+        final ArrayDeque<LogCatMessage> messages = new ArrayDeque<>();
+        int capacity;
+        int weight;
+        long dropped;
+    }
+
+    private final Lane[] lanes = new Lane[HIGHEST - LOWEST + 1];
+
+    private int size;
+    private int current;
+    private int credit;
+    private boolean closed;
+    private int generation;
+
+    /**
+     * Create priority lanes with the default weights.
+     *
+     * @param capacity the number of messages each lane can hold
+     */
+    public LogCatPriorityLanes(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than zero");
+        }
+
+        int[] weights = {16, 16, 8, 4, 2, 1};
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+            lanes[i].capacity = capacity;
+            lanes[i].weight = weights[i];
+        }
+        this.credit = lanes[0].weight;
+    }
+
+    /**
+     * Configures the lane of a priority. This method is safe to call while the lanes are in use;
+     * a reduced capacity applies to messages added from then on.
+     *
+     * @param priority the priority
+     * @param capacity the number of messages the lane can hold
+     * @param weight   the number of messages the lane delivers each turn
+     */
+    public synchronized void setLane(@NonNull LogCatPriority priority, int capacity, int weight) {
+        if (capacity <= 0 || weight <= 0) {
+            throw new IllegalArgumentException("capacity and weight must be greater than zero");
+        }
+        Lane lane = lanes[indexOf(priority.getNumeric())];
+        lane.capacity = capacity;
+        lane.weight = weight;
+    }
+
+    /**
+     * Retrieve the number of messages of a priority discarded because its lane was full.
+     *
+     * @param priority the priority
+     * @return the number of messages
+     */
+    public synchronized long getDropped(@NonNull LogCatPriority priority) {
+        return lanes[indexOf(priority.getNumeric())].dropped;
+    }
+
+    /**
+     * Retrieve the number of messages of a priority waiting to be delivered.
+     *
+     * @param priority the priority
+     * @return the number of messages
+     */
+    public synchronized int size(@NonNull LogCatPriority priority) {
+        return lanes[indexOf(priority.getNumeric())].messages.size();
+    }
+
+    /**
+     * Retrieve the number of messages waiting to be delivered in every lane.
+     *
+     * @return the number of messages
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Prepares the lanes for a new registration of the delegate, discarding any message left
+     * behind by the previous one. A registration that is still shutting down can no longer take,
+     * clear or close the lanes once they have been opened for the next one.
+     *
+     * @return the generation identifying the new registration
+     */
+    synchronized int open() {
+        for (Lane lane : lanes) {
+            lane.messages.clear();
+        }
+        size = 0;
+        current = 0;
+        credit = lanes[0].weight;
+        closed = false;
+        generation++;
+        notifyAll();
+        return generation;
+    }
+
+    /**
+     * Adds a message to the lane of its priority, discarding the oldest message in that lane if
+     * it is full.
+     *
+     * @param message the message
+     * @return the discarded message, or null if the lane was not full
+     */
+    @Nullable
+    synchronized LogCatMessage offer(@NonNull LogCatMessage message) {
+        Lane lane = lanes[indexOf(message.getPriority().getNumeric())];
+        LogCatMessage discarded = null;
+        if (lane.messages.size() >= lane.capacity) {
+            discarded = lane.messages.poll();
+            lane.dropped++;
+            size--;
+        }
+        lane.messages.add(message);
+        size++;
+        notifyAll();
+        return discarded;
+    }
+
+    /**
+     * Removes the next message to deliver, waiting until one is available.
+     *
+     * @param generation the generation returned by {@link #open()}
+     * @return the message, or null once the lanes have been closed and every lane is empty, or
+     * once they have been opened again
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Nullable
+    synchronized LogCatMessage take(int generation) throws InterruptedException {
+        while (size == 0 || generation != this.generation) {
+            if (closed || generation != this.generation)
+                return null;
+            wait();
+        }
+
+        while (true) {
+            Lane lane = lanes[current];
+            if (credit > 0 && !lane.messages.isEmpty()) {
+                credit--;
+                size--;
+                return lane.messages.poll();
+            }
+            current = (current + 1) % lanes.length;
+            credit = lanes[current].weight;
+        }
+    }
+
+    /**
+     * Discards every queued message, unless the lanes have been opened again.
+     *
+     * @param generation the generation returned by {@link #open()}
+     * @return the number of messages discarded
+     */
+    synchronized int clear(int generation) {
+        if (generation != this.generation)
+            return 0;
+
+        int discarded = size;
+        for (Lane lane : lanes) {
+            lane.messages.clear();
+        }
+        size = 0;
+        return discarded;
+    }
+
+    /**
+     * Stops {@link #take(int)} from waiting once every lane is empty, unless the lanes have been
+     * opened again.
+     *
+     * @param generation the generation returned by {@link #open()}
+     */
+    synchronized void close(int generation) {
+        if (generation != this.generation)
+            return;
+
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Retrieve the index of the lane of a priority. Unknown priorities share the lowest lane.
+     */
+    private static int indexOf(int priority) {
+        if (priority > HIGHEST)
+            return 0;
+        if (priority < LOWEST)
+            return HIGHEST - LOWEST;
+        return HIGHEST - priority;
+    }
+}
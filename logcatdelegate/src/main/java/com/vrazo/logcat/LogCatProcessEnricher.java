@@ -0,0 +1,46 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A {@link LogCatStage} that attaches the name of the process that logged each message, see
+ * {@link LogCatMessage#getProcessName()}.
+ *
+ * Process names are resolved through a {@link LogCatProcessResolver}, so the proc filesystem is
+ * only read the first time a process is seen and when its cache entry is revalidated.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatProcessEnricher extends LogCatStage {
+    private final LogCatProcessResolver resolver;
+
+    /**
+     * Create an enricher that reads {@code /proc}.
+     */
+    public LogCatProcessEnricher() {
+        this(new LogCatProcessResolver());
+    }
+
+    /**
+     * Create an enricher.
+     *
+     * @param resolver the resolver used to find process names
+     */
+    public LogCatProcessEnricher(@NonNull LogCatProcessResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * Retrieve the resolver used to find process names.
+     *
+     * @return the resolver
+     */
+    public LogCatProcessResolver getResolver() {
+        return resolver;
+    }
+
+    @Override
+    public void process(@NonNull LogCatMessage message, @NonNull Output output) {
+        String processName = resolver.resolve(message.getPid());
+        output.emit(processName == null ? message : message.withProcessName(processName));
+    }
+}
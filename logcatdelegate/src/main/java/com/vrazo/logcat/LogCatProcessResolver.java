@@ -0,0 +1,208 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves process IDs to process names by reading the proc filesystem.
+ *
+ * The name of a process is read from {@code <root>/<pid>/cmdline}, which for an Android
+ * application is its package name (followed by {@code :name} for secondary processes). Resolved
+ * names are kept in a bounded cache. Since process IDs are reused, a cached entry is revalidated
+ * at most once per interval by comparing the start time in {@code <root>/<pid>/stat} with the
+ * start time recorded when the entry was cached; the name is only read again if it changed.
+ *
+ * The root directory defaults to {@code /proc} but can be replaced, for example with a directory
+ * laid out the same way for testing.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatProcessResolver {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * A cached process name.
+     */
+    private static final class Entry {
+        String name;
+        long startTime;
+        long validatedAt;
+    }
+
+    private final File root;
+    private final int maxEntries;
+    private final long revalidateNanos;
+    private final LinkedHashMap<Integer, Entry> cache;
+    private final byte[] buffer = new byte[4096];
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Create a resolver for {@code /proc} that caches up to 256 processes and revalidates each
+     * entry at most once per second.
+     */
+    public LogCatProcessResolver() {
+        this(new File("/proc"), 256, 1000);
+    }
+
+    /**
+     * Create a resolver.
+     *
+     * @param root             the root of the proc filesystem
+     * @param maxEntries       the maximum number of processes to cache
+     * @param revalidateMillis the minimum interval between checks of a cached entry's start time
+     */
+    public LogCatProcessResolver(@NonNull File root, int maxEntries, long revalidateMillis) {
+        if (maxEntries <= 0 || revalidateMillis < 0) {
+            throw new IllegalArgumentException(
+                "maxEntries must be greater than zero and revalidateMillis must not be negative"
+            );
+        }
+        this.root = root;
+        this.maxEntries = maxEntries;
+        this.revalidateNanos = TimeUnit.MILLISECONDS.toNanos(revalidateMillis);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Retrieve the name of a process.
+     *
+     * @param pid the process ID
+     * @return the process name, or null if the process does not exist or has no name
+     */
+    @Nullable
+    public synchronized String resolve(int pid) {
+        long now = System.nanoTime();
+        Entry entry = cache.get(pid);
+        if (entry != null) {
+            if (now - entry.validatedAt < revalidateNanos) {
+                hits++;
+                return entry.name;
+            }
+
+            long startTime = readStartTime(pid);
+            entry.validatedAt = now;
+            if (startTime == entry.startTime && startTime != -1) {
+                hits++;
+                return entry.name;
+            }
+            entry.startTime = startTime;
+            entry.name = startTime == -1 ? null : readName(pid);
+            misses++;
+            return entry.name;
+        }
+
+        entry = new Entry();
+        entry.startTime = readStartTime(pid);
+        entry.name = entry.startTime == -1 ? null : readName(pid);
+        entry.validatedAt = now;
+        cache.put(pid, entry);
+        if (cache.size() > maxEntries) {
+            Iterator<Integer> eldest = cache.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        misses++;
+        return entry.name;
+    }
+
+    /**
+     * Retrieve the number of lookups answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Retrieve the number of lookups that required reading the process name.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Removes every cached entry.
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Reads the start time of a process, field 22 of its stat file.
+     *
+     * @return the start time, or -1 if it could not be read
+     */
+    private long readStartTime(int pid) {
+        String stat = readFile(new File(root, pid + "/stat"));
+        if (stat == null)
+            return -1;
+
+        // The command name (field 2) is in parentheses and may itself contain spaces.
+        int commandEnd = stat.lastIndexOf(')');
+        if (commandEnd == -1)
+            return -1;
+
+        String[] fields = stat.substring(commandEnd + 1).trim().split(" +");
+        // fields[0] is field 3 (state), so field 22 is at index 19.
+        if (fields.length < 20)
+            return -1;
+        try {
+            return Long.parseLong(fields[19]);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the name of a process, the first argument of its command line.
+     */
+    @Nullable
+    private String readName(int pid) {
+        String cmdline = readFile(new File(root, pid + "/cmdline"));
+        if (cmdline == null)
+            return null;
+
+        int end = cmdline.indexOf('\0');
+        String name = (end == -1 ? cmdline : cmdline.substring(0, end)).trim();
+        return name.isEmpty() ? null : name;
+    }
+
+    /**
+     * Reads the start of a small file such as those in the proc filesystem.
+     */
+    @Nullable
+    private String readFile(File file) {
+        InputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            int length = 0;
+            int read;
+            while (length < buffer.length &&
+                (read = input.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            return new String(buffer, 0, length, UTF_8);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+}
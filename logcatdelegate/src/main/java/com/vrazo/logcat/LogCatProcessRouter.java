@@ -0,0 +1,89 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link LogCatStage} that routes messages to a {@link LogCatMessageListener} based on the
+ * package of the process that logged them.
+ *
+ * The package is taken from {@link LogCatMessage#getProcessName()}, without the {@code :name}
+ * suffix of secondary processes, so a {@link LogCatProcessEnricher} must be added to the delegate
+ * before the router. The listener for a package is found with a single hash lookup. Messages that
+ * are routed to a listener are consumed; all other messages continue down the pipeline.
+ *
+ * Routes lead to a {@link LogCatMessageListener} rather than to a {@link LogCatDelegate} per
+ * package. A delegate starts its own Log Cat process when it is registered, and can not be handed
+ * messages read by another, so a listener plays the part of a per-package sub-delegate. Listeners
+ * are called on the thread delivering messages, one message at a time.
+ *
+ * <pre>
+ * logCatDelegate.addStage(new LogCatProcessEnricher());
+ * LogCatProcessRouter router = new LogCatProcessRouter();
+ * router.addRoute("com.example.app", appConsole);
+ * logCatDelegate.addStage(router);
+ * </pre>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatProcessRouter extends LogCatStage {
+    /**
+     * Routes indexed by package, replaced as a whole when a route is added or removed.
+     */
+    private volatile Map<String, LogCatMessageListener> routes = Collections.emptyMap();
+
+    /**
+     * Routes the messages of a package to a listener, replacing any existing route for the
+     * package.
+     *
+     * @param packageName the package
+     * @param listener    the listener
+     */
+    public synchronized void addRoute(
+        @NonNull String packageName, @NonNull LogCatMessageListener listener
+    ) {
+        HashMap<String, LogCatMessageListener> routes = new HashMap<>(this.routes);
+        routes.put(packageName, listener);
+        this.routes = routes;
+    }
+
+    /**
+     * Removes the route for a package.
+     *
+     * @param packageName the package
+     */
+    public synchronized void removeRoute(@NonNull String packageName) {
+        HashMap<String, LogCatMessageListener> routes = new HashMap<>(this.routes);
+        routes.remove(packageName);
+        this.routes = routes;
+    }
+
+    @Override
+    public void process(@NonNull LogCatMessage message, @NonNull Output output) {
+        LogCatMessageListener listener = null;
+        String packageName = getPackageName(message.getProcessName());
+        if (packageName != null) {
+            listener = routes.get(packageName);
+        }
+
+        if (listener != null) {
+            listener.onNewMessage(message);
+        } else {
+            output.emit(message);
+        }
+    }
+
+    /**
+     * Removes the suffix of a secondary process from a process name.
+     */
+    @Nullable
+    private static String getPackageName(@Nullable String processName) {
+        if (processName == null)
+            return null;
+        int separator = processName.indexOf(':');
+        return separator == -1 ? processName : processName.substring(0, separator);
+    }
+}
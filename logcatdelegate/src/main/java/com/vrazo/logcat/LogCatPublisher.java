@@ -0,0 +1,23 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A source of items that are delivered to subscribers on demand.
+ *
+ * This mirrors {@code java.util.concurrent.Flow.Publisher}, which is only available from API 30.
+ *
+ * @param <T> the type of item published
+ * @see LogCatPublisherDelegate
+ * @see LogCatFlows
+ */
+public interface LogCatPublisher<T> {
+    /**
+     * Adds a subscriber. The subscriber will receive a {@link LogCatSubscription} through
+     * {@link LogCatSubscriber#onSubscribe(LogCatSubscription)} and will not receive any items
+     * until it requests them.
+     *
+     * @param subscriber the subscriber
+     */
+    void subscribe(@NonNull LogCatSubscriber<? super T> subscriber);
+}
@@ -0,0 +1,294 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link LogCatDelegate} that publishes its messages to subscribers instead of requiring
+ * {@link #onNewMessage(LogCatMessage)} to be overridden.
+ *
+ * Each subscriber controls how many messages it receives by requesting them through its
+ * {@link LogCatSubscription}. While a subscriber has outstanding demand, messages are passed to it
+ * directly on the thread reading from Log Cat. When it does not, messages are held in a buffer of
+ * fixed capacity for that subscriber and delivered on the thread that next requests them. What
+ * happens when the buffer is full is determined by the {@link OverflowStrategy}.
+ *
+ * When the delegate is de-registered, every subscriber receives its buffered messages followed by
+ * {@link LogCatSubscriber#onComplete()}. When Log Cat fails, for example because it could not be
+ * started, they are followed by {@link LogCatSubscriber#onError(Throwable)} instead. Either way
+ * the subscribers are removed, and must subscribe again to receive messages from a new
+ * registration.
+ *
+ * <pre>
+ * LogCatPublisherDelegate publisher = new LogCatPublisherDelegate(1024);
+ * LogCatFlows.batch(publisher, 100).subscribe(uploader);
+ * publisher.register();
+ * </pre>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatPublisherDelegate extends LogCatDelegate
+        implements LogCatPublisher<LogCatMessage> {
+    /**
+     * Determines what happens when a message arrives for a subscriber whose buffer is full.
+     */
+    public enum OverflowStrategy {
+        /**
+         * Stop reading from Log Cat until the subscriber requests more messages. This applies
+         * backpressure all the way to the Log Cat child-process, and a slow subscriber will delay
+         * every other subscriber.
+         */
+        Block,
+
+        /**
+         * Discard the oldest buffered message to make room for the new message.
+         */
+        DropOldest,
+
+        /**
+         * Discard the new message.
+         */
+        DropNewest,
+    }
+
+    private final int capacity;
+    private final OverflowStrategy overflowStrategy;
+    private final CopyOnWriteArrayList<PublisherSubscription> subscriptions =
+        new CopyOnWriteArrayList<>();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Create a new publisher that drops the oldest message when a subscriber's buffer is full.
+     *
+     * @param capacity the number of messages to buffer for each subscriber
+     */
+    public LogCatPublisherDelegate(int capacity) {
+        this(capacity, OverflowStrategy.DropOldest);
+    }
+
+    /**
+     * Create a new publisher.
+     *
+     * @param capacity         the number of messages to buffer for each subscriber
+     * @param overflowStrategy what to do when a subscriber's buffer is full
+     */
+    public LogCatPublisherDelegate(int capacity, @NonNull OverflowStrategy overflowStrategy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than zero");
+        }
+        this.capacity = capacity;
+        this.overflowStrategy = overflowStrategy;
+    }
+
+    /**
+     * Retrieve the number of messages discarded because a subscriber's buffer was full.
+     *
+     * @return the number of messages
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    @Override
+    public void subscribe(@NonNull LogCatSubscriber<? super LogCatMessage> subscriber) {
+        PublisherSubscription subscription = new PublisherSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Signals every subscriber that no more messages will be published, once any buffered
+     * messages have been delivered, and removes them. The delegate is not de-registered.
+     */
+    public void complete() {
+        terminate(null);
+    }
+
+    @Override
+    void onStopped(@Nullable Exception error) {
+        terminate(error);
+    }
+
+    /**
+     * Removes every subscriber and terminates it once its buffer has been drained.
+     *
+     * @param error the error to signal, or null to signal completion
+     */
+    private void terminate(@Nullable Throwable error) {
+        for (PublisherSubscription subscription : subscriptions) {
+            subscriptions.remove(subscription);
+            subscription.complete(error);
+        }
+    }
+
+    @Override
+    protected void onNewMessage(LogCatMessage message) {
+        for (PublisherSubscription subscription : subscriptions) {
+            subscription.offer(message);
+        }
+    }
+
+    /**
+     * The subscription of a single subscriber, holding the subscriber's demand and buffer.
+     */
+    private final class PublisherSubscription implements LogCatSubscription {
+        private final LogCatSubscriber<? super LogCatMessage> subscriber;
+        private final ArrayDeque<LogCatMessage> buffer = new ArrayDeque<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private volatile Throwable error;
+        private volatile boolean terminated;
+
+        PublisherSubscription(LogCatSubscriber<? super LogCatMessage> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // The error goes through drain() so that it is never signalled while another
+                // thread is inside onNext().
+                subscriptions.remove(this);
+                discardBuffer();
+                complete(new IllegalArgumentException(
+                    "the number of requested items must be greater than zero"
+                ));
+                return;
+            }
+
+            long current;
+            long next;
+            do {
+                current = requested.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!requested.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            discardBuffer();
+        }
+
+        /**
+         * Discards the buffered messages and wakes any thread blocked on the full buffer.
+         */
+        private synchronized void discardBuffer() {
+            int discarded = buffer.size();
+            buffer.clear();
+            getMetrics().onQueueDepthChanged(-discarded);
+            notifyAll();
+        }
+
+        /**
+         * Adds a message to the buffer, applying the overflow strategy if it is full, and delivers
+         * whatever the subscriber has demand for.
+         */
+        void offer(LogCatMessage message) {
+            if (cancelled || completed)
+                return;
+
+            synchronized (this) {
+                while (buffer.size() >= capacity && !cancelled && !completed) {
+                    if (overflowStrategy == OverflowStrategy.DropNewest) {
+                        droppedCount.incrementAndGet();
+                        return;
+                    } else if (overflowStrategy == OverflowStrategy.DropOldest) {
+                        buffer.poll();
+                        droppedCount.incrementAndGet();
+                        getMetrics().onQueueDepthChanged(-1);
+                    } else if (!isRegistered()) {
+                        return;
+                    } else {
+                        try {
+                            wait(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+                if (cancelled || completed)
+                    return;
+                buffer.offer(message);
+                getMetrics().onQueueDepthChanged(1);
+            }
+            drain();
+        }
+
+        /**
+         * Terminates the subscription once the buffer has been drained.
+         *
+         * @param error the error to signal, or null to signal completion
+         */
+        void complete(@Nullable Throwable error) {
+            synchronized (this) {
+                if (completed)
+                    return;
+                this.error = error;
+                completed = true;
+            }
+            drain();
+        }
+
+        /**
+         * Delivers buffered messages while there is demand. Only one thread drains at a time; a
+         * thread that finds another thread draining leaves the work to it.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+
+            int missed = 1;
+            do {
+                long demand = requested.get();
+                long emitted = 0;
+                while (emitted != demand && !cancelled) {
+                    LogCatMessage message;
+                    synchronized (this) {
+                        message = buffer.poll();
+                        if (message != null) {
+                            getMetrics().onQueueDepthChanged(-1);
+                            notifyAll();
+                        }
+                    }
+                    if (message == null)
+                        break;
+                    subscriber.onNext(message);
+                    emitted++;
+                }
+
+                if (emitted > 0 && demand != Long.MAX_VALUE) {
+                    requested.addAndGet(-emitted);
+                }
+
+                if (completed && !cancelled && !terminated) {
+                    boolean empty;
+                    synchronized (this) {
+                        empty = buffer.isEmpty();
+                    }
+                    if (empty) {
+                        terminated = true;
+                        Throwable failure = error;
+                        if (failure != null) {
+                            subscriber.onError(failure);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
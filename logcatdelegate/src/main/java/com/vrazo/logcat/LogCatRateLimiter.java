@@ -0,0 +1,101 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A {@link LogCatStage} that limits the rate of messages per tag using a token bucket.
+ *
+ * Each tag is allowed a burst of messages, after which messages are only passed through at the
+ * configured rate. Messages that exceed the rate are dropped. Time is measured using the
+ * timestamps of the messages, so replayed logs are limited the same way as live logs.
+ *
+ * The number of tags that are tracked is bounded; the least recently seen tag is forgotten when the
+ * bound is reached.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatRateLimiter extends LogCatStage {
+    /**
+     * The state of the token bucket for a single tag.
+     */
+    private static final class Bucket {
+        double tokens;
+        long updatedAt;
+    }
+
+    private final double messagesPerSecond;
+    private final int burst;
+    private final int maxTags;
+    private final LinkedHashMap<String, Bucket> buckets;
+
+    private volatile long droppedCount;
+
+    /**
+     * Create a new rate limiter that tracks up to 1024 tags.
+     *
+     * @param messagesPerSecond the sustained number of messages allowed per tag each second
+     * @param burst             the number of messages a tag may send in a burst
+     */
+    public LogCatRateLimiter(double messagesPerSecond, int burst) {
+        this(messagesPerSecond, burst, 1024);
+    }
+
+    /**
+     * Create a new rate limiter.
+     *
+     * @param messagesPerSecond the sustained number of messages allowed per tag each second
+     * @param burst             the number of messages a tag may send in a burst
+     * @param maxTags           the maximum number of tags to track
+     */
+    public LogCatRateLimiter(double messagesPerSecond, int burst, int maxTags) {
+        if (messagesPerSecond <= 0 || burst <= 0 || maxTags <= 0) {
+            throw new IllegalArgumentException(
+                "messagesPerSecond, burst and maxTags must be greater than zero"
+            );
+        }
+        this.messagesPerSecond = messagesPerSecond;
+        this.burst = burst;
+        this.maxTags = maxTags;
+        this.buckets = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Retrieve the number of messages that have been dropped by this rate limiter.
+     *
+     * @return the number of dropped messages
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public void process(@NonNull LogCatMessage message, @NonNull Output output) {
+        long now = message.getLoggedAt().getTime();
+        Bucket bucket = buckets.get(message.getTag());
+        if (bucket == null) {
+            bucket = new Bucket();
+            bucket.tokens = burst;
+            bucket.updatedAt = now;
+            buckets.put(message.getTag(), bucket);
+            if (buckets.size() > maxTags) {
+                Iterator<String> eldest = buckets.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        } else if (now > bucket.updatedAt) {
+            bucket.tokens = Math.min(
+                burst, bucket.tokens + (now - bucket.updatedAt) * messagesPerSecond / 1000D
+            );
+            bucket.updatedAt = now;
+        }
+
+        if (bucket.tokens >= 1D) {
+            bucket.tokens -= 1D;
+            output.emit(message);
+        } else {
+            droppedCount++;
+        }
+    }
+}
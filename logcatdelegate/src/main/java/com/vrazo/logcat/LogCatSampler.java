@@ -0,0 +1,204 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples messages based on their {@link LogCatPriority}.
+ *
+ * A sampler is applied by a {@link LogCatDelegate} before any {@link LogCatMessageFilter}, so
+ * messages that are sampled out never reach the (comparatively expensive) filters, stages or
+ * formatting. Messages at or above the protected priority (by default {@link Log#WARN}) are never
+ * sampled out.
+ *
+ * Each priority has a keep ratio between 0 and 1. Whether or not an individual message is kept is
+ * decided by hashing the configured {@link Key}, so sampling by {@link Key#Tag} or {@link Key#Pid}
+ * keeps or drops everything from a tag or process consistently instead of leaving gaps in every
+ * stream.
+ *
+ * When a target throughput is set the sampler is adaptive: if the keep ratios would let more
+ * unprotected messages than the target through in a second, the keep ratios of all unprotected
+ * priorities are scaled down until the throughput is back within the target. The throughput is
+ * measured after the keep ratios, so a priority that is already mostly sampled out only counts
+ * for the messages it keeps.
+ *
+ * @see LogCatDelegate#setSampler(LogCatSampler)
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class LogCatSampler {
+    /**
+     * Determines which part of a message is hashed to decide whether or not it is kept.
+     */
+    public enum Key {
+        /**
+         * Every message is considered individually, regardless of its tag or process.
+         */
+        Message,
+
+        /**
+         * All messages with the same tag are either kept or dropped.
+         */
+        Tag,
+
+        /**
+         * All messages from the same process are either kept or dropped.
+         */
+        Pid,
+    }
+
+    private static final long WINDOW_NANOS = 1000000000L;
+    private static final int HASH_RANGE = 1 << 24;
+
+    /**
+     * Keep ratios indexed by numeric priority, replaced as a whole when changed.
+     */
+    private volatile double[] keepRatios = new double[] {1, 1, 1, 1, 1, 1, 1, 1};
+    private volatile Key key = Key.Message;
+    private volatile int protectedPriority = Log.WARN;
+    private volatile double targetMessagesPerSecond;
+    private volatile double adaptiveScale = 1D;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong windowStart = new AtomicLong(nanoTime());
+    /**
+     * The number of messages the keep ratios alone would have kept in the current window, in
+     * units of 1 / {@link #HASH_RANGE} of a message.
+     */
+    private final AtomicLong windowKept = new AtomicLong();
+
+    /**
+     * Sets the ratio of messages with the provided priority to keep. The default for every
+     * priority is 1 (keep everything). The ratio of a protected priority has no effect.
+     *
+     * @param priority the priority
+     * @param ratio    the ratio to keep, between 0 and 1
+     */
+    public synchronized void setKeepRatio(@NonNull LogCatPriority priority, double ratio) {
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("ratio must be between 0 and 1");
+        }
+        double[] keepRatios = this.keepRatios.clone();
+        keepRatios[priority.getNumeric()] = ratio;
+        this.keepRatios = keepRatios;
+    }
+
+    /**
+     * Sets which part of a message is hashed to decide whether or not it is kept. The default
+     * value is {@link Key#Message}.
+     *
+     * @param key the key
+     */
+    public void setKey(@NonNull Key key) {
+        this.key = key;
+    }
+
+    /**
+     * Sets the lowest priority that is never sampled out. The default value is {@link Log#WARN}.
+     *
+     * @param priority the priority
+     */
+    public void setProtectedPriority(@NonNull LogCatPriority priority) {
+        this.protectedPriority = priority.getNumeric();
+    }
+
+    /**
+     * Sets the number of unprotected messages per second kept by the keep ratios above which the
+     * keep ratios are scaled down. Set to 0 (the default) to disable adaptive sampling.
+     *
+     * @param targetMessagesPerSecond the target throughput
+     */
+    public void setTargetMessagesPerSecond(double targetMessagesPerSecond) {
+        this.targetMessagesPerSecond = Math.max(0D, targetMessagesPerSecond);
+        if (this.targetMessagesPerSecond == 0D) {
+            this.adaptiveScale = 1D;
+        }
+    }
+
+    /**
+     * Retrieve the factor currently applied to the keep ratios by adaptive sampling.
+     *
+     * @return the factor, between 0 and 1
+     */
+    public double getAdaptiveScale() {
+        return adaptiveScale;
+    }
+
+    /**
+     * Determine whether or not a message should be kept. This method is thread-safe.
+     *
+     * @param message the message
+     * @return true if the message should be kept
+     */
+    public boolean isKept(@NonNull LogCatMessage message) {
+        int priority = message.getPriority().getNumeric();
+        if (priority >= protectedPriority)
+            return true;
+
+        double ratio = keepRatios[priority];
+        if (targetMessagesPerSecond > 0D) {
+            ratio *= updateAdaptiveScale(ratio);
+        }
+        if (ratio >= 1D)
+            return true;
+        if (ratio <= 0D)
+            return false;
+
+        int hash;
+        switch (key) {
+            case Tag:
+                hash = message.getTag().hashCode();
+                break;
+            case Pid:
+                hash = message.getPid();
+                break;
+            default:
+                hash = (int) sequence.incrementAndGet();
+                break;
+        }
+        return (mix(hash) & (HASH_RANGE - 1)) < ratio * HASH_RANGE;
+    }
+
+    /**
+     * Retrieve the current time for measuring throughput.
+     *
+     * @return the time in nanoseconds, from an arbitrary origin
+     */
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Counts the share of the message the keep ratio would keep towards the current window, and
+     * recomputes the adaptive scale when the window has elapsed.
+     *
+     * @param ratio the keep ratio of the message's priority
+     */
+    private double updateAdaptiveScale(double ratio) {
+        long kept = windowKept.addAndGet((long) (ratio * HASH_RANGE));
+        long start = windowStart.get();
+        long now = nanoTime();
+        if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+            windowKept.set(0);
+            double perSecond = kept / (double) HASH_RANGE * WINDOW_NANOS / (now - start);
+            double target = Math.min(1D, targetMessagesPerSecond / perSecond);
+            // Tighten immediately, relax gradually so bursts don't cause oscillation.
+            adaptiveScale = target < adaptiveScale
+                ? target
+                : Math.min(1D, adaptiveScale + (target - adaptiveScale) / 2D);
+        }
+        return adaptiveScale;
+    }
+
+    /**
+     * Spreads the bits of a hash so that similar inputs make independent sampling decisions.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B1;
+        hash ^= hash >>> 15;
+        hash *= 0x85EBCA77;
+        return hash ^ (hash >>> 13);
+    }
+}
@@ -0,0 +1,251 @@
+package com.vrazo.logcat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashSet;
+
+/**
+ * An entry in the sparse index of a segment written by {@link LogCatSegmentWriter}.
+ *
+ * Each block records where it is stored in the segment along with the range of timestamps and
+ * priorities it contains and a bloom filter of the tags within it. This allows a
+ * {@link LogCatSegmentReader} to skip blocks that cannot contain a match without decompressing
+ * them. The bloom filter is sized from the number of distinct tags in the block once it has been
+ * written, for a false positive rate of about 1% whether the block holds a few tags or hundreds.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogCatSegmentBlock {
+    /**
+     * The size in bytes of an index entry without its bloom filter.
+     */
+    static final int FIXED_BYTES = 37;
+
+    /**
+     * The number of bloom filter bits per distinct tag, and the number of hashes that minimizes
+     * false positives at that density.
+     */
+    private static final int BLOOM_BITS_PER_TAG = 10;
+    private static final int BLOOM_HASHES = 7;
+
+    private long offset;
+    private int length;
+    private int count;
+    private long minLoggedAt = Long.MAX_VALUE;
+    private long maxLoggedAt = Long.MIN_VALUE;
+    private int minPriority = Integer.MAX_VALUE;
+    private int maxPriority = Integer.MIN_VALUE;
+    private HashSet<String> tags = new HashSet<>();
+    private long[] tagBloom;
+    private int bloomHashes;
+
+    /**
+     * Block access to instantiation outside of the package.
+     */
+    LogCatSegmentBlock() {}
+
+    /**
+     * Retrieve the offset in the segment at which the compressed block starts.
+     *
+     * @return the offset in bytes
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Retrieve the compressed length of the block.
+     *
+     * @return the length in bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Retrieve the number of messages stored in the block.
+     *
+     * @return the message count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Retrieve the earliest timestamp stored in the block, in milliseconds since the epoch.
+     *
+     * @return the earliest timestamp
+     */
+    public long getMinLoggedAt() {
+        return minLoggedAt;
+    }
+
+    /**
+     * Retrieve the latest timestamp stored in the block, in milliseconds since the epoch.
+     *
+     * @return the latest timestamp
+     */
+    public long getMaxLoggedAt() {
+        return maxLoggedAt;
+    }
+
+    /**
+     * Retrieve the lowest numeric priority stored in the block.
+     *
+     * @return the lowest priority
+     */
+    public int getMinPriority() {
+        return minPriority;
+    }
+
+    /**
+     * Retrieve the highest numeric priority stored in the block.
+     *
+     * @return the highest priority
+     */
+    public int getMaxPriority() {
+        return maxPriority;
+    }
+
+    /**
+     * Determine whether or not this block may contain messages matching the provided criteria. A
+     * return value of false means the block can be skipped entirely.
+     *
+     * @param fromMillis      the start of the time window (inclusive)
+     * @param toMillis        the end of the time window (inclusive)
+     * @param tag             the tag to match, or null to match any tag
+     * @param minimumPriority the minimum numeric priority to match
+     * @return true if the block may contain a match
+     */
+    public boolean mayContain(long fromMillis, long toMillis, String tag, int minimumPriority) {
+        if (count == 0 || maxLoggedAt < fromMillis || minLoggedAt > toMillis)
+            return false;
+        if (maxPriority < minimumPriority)
+            return false;
+        return tag == null || mayContainTag(tag);
+    }
+
+    /**
+     * Determine whether or not the tag bloom filter may contain the provided tag.
+     *
+     * @param tag the tag
+     * @return false if the tag is definitely not in this block
+     */
+    boolean mayContainTag(String tag) {
+        if (tagBloom == null)
+            return tags.contains(tag);
+
+        int hash = tag.hashCode();
+        int bits = tagBloom.length * 64;
+        for (int i = 0; i < bloomHashes; i++) {
+            int bit = bloomBit(hash, i, bits);
+            if ((tagBloom[bit >>> 6] & (1L << (bit & 63))) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records a message as being part of this block.
+     *
+     * @param message the message
+     */
+    void add(LogCatMessage message) {
+        long loggedAt = message.getLoggedAt().getTime();
+        int priority = message.getPriority().getNumeric();
+        minLoggedAt = Math.min(minLoggedAt, loggedAt);
+        maxLoggedAt = Math.max(maxLoggedAt, loggedAt);
+        minPriority = Math.min(minPriority, priority);
+        maxPriority = Math.max(maxPriority, priority);
+        tags.add(message.getTag());
+        count++;
+    }
+
+    /**
+     * Sets the location of the block within the segment once it has been written, and builds the
+     * bloom filter of its tags.
+     *
+     * @param offset the offset in bytes
+     * @param length the compressed length in bytes
+     */
+    void setLocation(long offset, int length) {
+        this.offset = offset;
+        this.length = length;
+
+        int bits = Math.max(64, tags.size() * BLOOM_BITS_PER_TAG);
+        tagBloom = new long[(bits + 63) / 64];
+        bloomHashes = BLOOM_HASHES;
+        bits = tagBloom.length * 64;
+        for (String tag : tags) {
+            int hash = tag.hashCode();
+            for (int i = 0; i < bloomHashes; i++) {
+                int bit = bloomBit(hash, i, bits);
+                tagBloom[bit >>> 6] |= 1L << (bit & 63);
+            }
+        }
+        tags = null;
+    }
+
+    /**
+     * Writes this index entry.
+     *
+     * @param output the output
+     * @throws IOException if the entry could not be written
+     */
+    void writeTo(DataOutput output) throws IOException {
+        output.writeLong(offset);
+        output.writeInt(length);
+        output.writeInt(count);
+        output.writeLong(minLoggedAt);
+        output.writeLong(maxLoggedAt);
+        output.writeByte(minPriority);
+        output.writeByte(maxPriority);
+        output.writeByte(bloomHashes);
+        output.writeShort(tagBloom.length);
+        for (long word : tagBloom) {
+            output.writeLong(word);
+        }
+    }
+
+    /**
+     * Reads an index entry previously written with {@link #writeTo(DataOutput)}, checking that the
+     * block lies within the data of the segment.
+     *
+     * @param input   the input
+     * @param dataEnd the offset at which the data of the segment ends and its index starts
+     * @return the index entry
+     * @throws IOException if the entry could not be read or is corrupt
+     */
+    static LogCatSegmentBlock readFrom(DataInput input, long dataEnd) throws IOException {
+        LogCatSegmentBlock block = new LogCatSegmentBlock();
+        block.tags = null;
+        block.offset = input.readLong();
+        block.length = input.readInt();
+        block.count = input.readInt();
+        block.minLoggedAt = input.readLong();
+        block.maxLoggedAt = input.readLong();
+        block.minPriority = input.readByte();
+        block.maxPriority = input.readByte();
+        block.bloomHashes = input.readUnsignedByte();
+        int words = input.readUnsignedShort();
+        if (block.offset < 8 || block.length < 0 || block.count < 0 ||
+            block.offset + block.length > dataEnd || block.bloomHashes == 0 || words == 0) {
+            throw new IOException("log cat segment index is corrupt");
+        }
+
+        block.tagBloom = new long[words];
+        for (int i = 0; i < words; i++) {
+            block.tagBloom[i] = input.readLong();
+        }
+        return block;
+    }
+
+    /**
+     * Derives the i-th bloom filter bit for a hash using double hashing.
+     */
+    private static int bloomBit(int hash, int i, int bits) {
+        int second = (hash >>> 16) | (hash << 16);
+        second = second * 0x9E3779B1 | 1;
+        return ((hash + i * second) & 0x7FFFFFFF) % bits;
+    }
+}
@@ -0,0 +1,208 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a segment written by {@link LogCatSegmentWriter}.
+ *
+ * The sparse index of the segment is loaded when the reader is opened. Queries consult the index
+ * first and only decompress the blocks that may contain matching messages.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogCatSegmentReader implements Closeable {
+    private final RandomAccessFile file;
+    private final List<LogCatSegmentBlock> blocks;
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * Opens a segment and loads its index.
+     *
+     * @param segment the segment file
+     * @throws IOException if the file could not be read or is not a finalized segment
+     */
+    public LogCatSegmentReader(@NonNull File segment) throws IOException {
+        this.file = new RandomAccessFile(segment, "r");
+        try {
+            this.blocks = Collections.unmodifiableList(readIndex());
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Retrieve the index entries for every block in the segment, in the order they were written.
+     *
+     * @return the blocks
+     */
+    public List<LogCatSegmentBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Retrieve all messages in the segment logged within the provided time window.
+     *
+     * @param fromMillis the start of the time window in milliseconds since the epoch (inclusive)
+     * @param toMillis   the end of the time window in milliseconds since the epoch (inclusive)
+     * @return the matching messages
+     * @throws IOException if the segment could not be read
+     */
+    public List<LogCatMessage> read(long fromMillis, long toMillis) throws IOException {
+        return read(fromMillis, toMillis, null, null);
+    }
+
+    /**
+     * Retrieve the messages in the segment matching the provided criteria. Blocks whose index
+     * entry rules out a match are skipped without being decompressed.
+     *
+     * @param fromMillis      the start of the time window in milliseconds since the epoch
+     *                        (inclusive)
+     * @param toMillis        the end of the time window in milliseconds since the epoch
+     *                        (inclusive)
+     * @param tag             the tag the messages must have, or null for any tag
+     * @param minimumPriority the minimum priority of the messages, or null for any priority
+     * @return the matching messages
+     * @throws IOException if the segment could not be read
+     */
+    public synchronized List<LogCatMessage> read(
+        long fromMillis, long toMillis,
+        @Nullable String tag, @Nullable LogCatPriority minimumPriority
+    ) throws IOException {
+        int priority = minimumPriority == null ? Integer.MIN_VALUE : minimumPriority.getNumeric();
+        ArrayList<LogCatMessage> output = new ArrayList<>();
+
+        for (LogCatSegmentBlock block : blocks) {
+            if (!block.mayContain(fromMillis, toMillis, tag, priority))
+                continue;
+
+            DataInputStream input = new DataInputStream(
+                new ByteArrayInputStream(inflate(block))
+            );
+            for (int i = 0; i < block.getCount(); i++) {
+                long loggedAt = input.readLong();
+                int messagePriority = input.readByte();
+                int pid = input.readInt();
+                int tid = input.readInt();
+                String messageTag = readString(input);
+
+                if (loggedAt < fromMillis || loggedAt > toMillis || messagePriority < priority ||
+                    (tag != null && !tag.equals(messageTag))) {
+                    input.skipBytes(input.readInt());
+                    continue;
+                }
+
+                output.add(LogCatMessage.create(
+                    new Date(loggedAt), new LogCatPriority(messagePriority),
+                    pid, tid, messageTag, readString(input)
+                ));
+            }
+        }
+
+        return output;
+    }
+
+    /**
+     * Closes the segment.
+     *
+     * @throws IOException if the segment could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+
+    /**
+     * Reads the footer and the index entries of the segment.
+     */
+    private List<LogCatSegmentBlock> readIndex() throws IOException {
+        if (file.length() < 24 || file.readInt() != LogCatSegmentWriter.MAGIC) {
+            throw new IOException("file is not a log cat segment");
+        }
+        if (file.readInt() != LogCatSegmentWriter.VERSION) {
+            throw new IOException("unsupported log cat segment version");
+        }
+
+        long indexEnd = file.length() - 16;
+        file.seek(indexEnd);
+        long indexOffset = file.readLong();
+        int blockCount = file.readInt();
+        if (file.readInt() != LogCatSegmentWriter.MAGIC) {
+            throw new IOException("log cat segment was not finalized");
+        }
+        // A truncated or corrupt footer must not lead to reading garbage or allocating an index
+        // larger than the file.
+        if (indexOffset < 8 || indexOffset > indexEnd ||
+            indexEnd - indexOffset > Integer.MAX_VALUE || blockCount < 0 ||
+            blockCount > (indexEnd - indexOffset) / LogCatSegmentBlock.FIXED_BYTES) {
+            throw new IOException("log cat segment index is corrupt");
+        }
+
+        byte[] index = new byte[(int) (indexEnd - indexOffset)];
+        file.seek(indexOffset);
+        file.readFully(index);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(index));
+        ArrayList<LogCatSegmentBlock> output = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            output.add(LogCatSegmentBlock.readFrom(input, indexOffset));
+        }
+        return output;
+    }
+
+    /**
+     * Reads and decompresses a single block.
+     */
+    private byte[] inflate(LogCatSegmentBlock block) throws IOException {
+        byte[] compressed = new byte[block.getLength()];
+        file.seek(block.getOffset());
+        file.readFully(compressed);
+
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] buffer = new byte[Math.max(1024, compressed.length * 4)];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    buffer = grown;
+                }
+                int read = inflater.inflate(buffer, length, buffer.length - length);
+                if (read == 0 && inflater.needsInput()) {
+                    throw new IOException("log cat segment block is truncated");
+                }
+                length += read;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("log cat segment block is corrupt: " + e.getMessage());
+        }
+
+        byte[] output = new byte[length];
+        System.arraycopy(buffer, 0, output, 0, length);
+        return output;
+    }
+
+    /**
+     * Reads a length prefixed UTF-8 string.
+     */
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, LogCatSegmentWriter.UTF_8);
+    }
+}
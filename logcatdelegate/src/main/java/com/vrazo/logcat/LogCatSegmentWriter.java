@@ -0,0 +1,167 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+
+/**
+ * Writes {@link LogCatMessage} instances to a segment file on disk.
+ *
+ * Messages are grouped into blocks which are compressed individually. When the writer is closed a
+ * sparse index of the blocks is appended to the segment (see {@link LogCatSegmentBlock}) so that
+ * a {@link LogCatSegmentReader} can seek to a time window or tag without decompressing the whole
+ * segment. A segment that was not closed has no index and can not be read.
+ *
+ * Messages should be appended in the order they are received from the delegate.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogCatSegmentWriter implements Closeable {
+    static final int MAGIC = 0x4C435347;
+    static final int VERSION = 2;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DataOutputStream output;
+    private final ArrayList<LogCatSegmentBlock> blocks = new ArrayList<>();
+    private final ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream blockOutput = new DataOutputStream(blockBuffer);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final byte[] deflateBuffer = new byte[8192];
+
+    private LogCatSegmentBlock currentBlock = new LogCatSegmentBlock();
+    private int blockSize = 32 * 1024;
+    private long position;
+    private boolean closed;
+
+    /**
+     * Creates a new segment writer. Any existing file will be overwritten.
+     *
+     * @param file the segment file
+     * @throws IOException if the file could not be opened
+     */
+    public LogCatSegmentWriter(@NonNull File file) throws IOException {
+        this.output = new DataOutputStream(new FileOutputStream(file));
+        this.output.writeInt(MAGIC);
+        this.output.writeInt(VERSION);
+        this.position = 8;
+    }
+
+    /**
+     * Sets the uncompressed size at which a block is closed and compressed. Smaller blocks make
+     * seeking more precise at the cost of a larger index and a worse compression ratio. The
+     * default value is 32 KiB.
+     *
+     * @param blockSize the block size in bytes
+     */
+    public synchronized void setBlockSize(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be greater than zero");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Appends a message to the segment.
+     *
+     * @param message the message
+     * @throws IOException if the message could not be written
+     */
+    public synchronized void append(@NonNull LogCatMessage message) throws IOException {
+        if (closed) {
+            throw new IOException("segment writer has been closed");
+        }
+
+        blockOutput.writeLong(message.getLoggedAt().getTime());
+        blockOutput.writeByte(message.getPriority().getNumeric());
+        blockOutput.writeInt(message.getPid());
+        blockOutput.writeInt(message.getTid());
+        writeString(blockOutput, message.getTag());
+        writeString(blockOutput, message.getMessage());
+        currentBlock.add(message);
+
+        if (blockBuffer.size() >= blockSize) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Retrieve the number of blocks written so far, not including the block currently being
+     * filled.
+     *
+     * @return the number of blocks
+     */
+    public synchronized int getBlockCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Flushes the last block and writes the index. After this call the segment can be read with a
+     * {@link LogCatSegmentReader}.
+     *
+     * @throws IOException if the segment could not be finalized
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            flushBlock();
+
+            long indexOffset = position;
+            for (LogCatSegmentBlock block : blocks) {
+                block.writeTo(output);
+            }
+            output.writeLong(indexOffset);
+            output.writeInt(blocks.size());
+            output.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+            output.close();
+        }
+    }
+
+    /**
+     * Compresses the current block and writes it to the segment.
+     */
+    private void flushBlock() throws IOException {
+        if (currentBlock.getCount() == 0)
+            return;
+
+        blockOutput.flush();
+        deflater.reset();
+        deflater.setInput(blockBuffer.toByteArray());
+        deflater.finish();
+
+        int length = 0;
+        while (!deflater.finished()) {
+            int written = deflater.deflate(deflateBuffer);
+            output.write(deflateBuffer, 0, written);
+            length += written;
+        }
+
+        currentBlock.setLocation(position, length);
+        blocks.add(currentBlock);
+        position += length;
+
+        currentBlock = new LogCatSegmentBlock();
+        blockBuffer.reset();
+    }
+
+    /**
+     * Writes a length prefixed UTF-8 string.
+     */
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+}
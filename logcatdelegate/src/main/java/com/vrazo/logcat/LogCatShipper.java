@@ -0,0 +1,956 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Ships messages to a remote collector in compressed batches.
+ *
+ * Messages passed to {@link #onNewMessage(LogCatMessage)} are serialized into the current batch,
+ * which is closed once it holds a maximum number of messages or bytes, or once its oldest message
+ * has waited for the maximum delay. Closed batches are compressed with gzip and passed to a
+ * {@link Transport} by a fixed number of sender threads, which bounds the number of requests in
+ * flight. {@link #onNewMessage(LogCatMessage)} never waits for the network: when more batches are
+ * waiting than allowed, the oldest is dropped.
+ *
+ * A batch that can not be sent is retried with exponential backoff. Once its attempts are used up
+ * the transport is treated as unavailable for the maximum backoff, and the batch is written to
+ * the overflow directory if one is set, or dropped otherwise. While the transport is unavailable
+ * new batches go straight to the overflow directory. Batches in the overflow directory are sent,
+ * oldest first, whenever the senders have nothing newer to send, including batches left behind by
+ * a previous instance. A batch in the overflow directory that still can not be sent after a
+ * maximum number of attempts is deleted, so that a batch the collector never accepts does not stay
+ * at the head of the directory forever.
+ *
+ * A transport that knows the collector will never accept a batch, for example because it was
+ * answered with a client error, throws a {@link RejectedException}. The batch is then dropped
+ * without being retried or written to the overflow directory.
+ *
+ * Batches are serialized in one of two {@link Format formats}. {@link Format#Json} writes one
+ * JSON object per line:
+ *
+ * <pre>
+ * {"loggedAt":1700000000000,"priority":6,"pid":1234,"tid":1250,"tag":"MyTag","message":"..."}
+ * </pre>
+ *
+ * {@link Format#Binary} writes the magic number {@code 0x4C435342} and a version, followed by
+ * each message as a 32 bit length and the record: the time it was logged as a 64 bit number of
+ * milliseconds, the priority as a byte, the 32 bit pid and tid, and the tag and message as a 32
+ * bit length followed by UTF-8 bytes. Every number is big endian.
+ *
+ * <pre>
+ * LogCatShipper shipper = new LogCatShipper(new LogCatHttpTransport(url));
+ * shipper.setOverflowDirectory(new File(getCacheDir(), "logcat-overflow"), 8 * 1024 * 1024);
+ * ...
+ * public void onNewMessage(@NonNull LogCatMessage message) {
+ *     shipper.onNewMessage(message);
+ * }
+ * </pre>
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogCatShipper implements LogCatMessageListener, Closeable {
+    static final int MAGIC = 0x4C435342;
+    static final int VERSION = 1;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The prefix and suffix of the names of batches in the overflow directory.
+     */
+    private static final String OVERFLOW_PREFIX = "batch-";
+    private static final String OVERFLOW_SUFFIX = ".gz";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * The serialization of a batch.
+     */
+    public enum Format {
+        /**
+         * Newline delimited JSON, one object per message.
+         */
+        Json("application/x-ndjson", "ndjson"),
+
+        /**
+         * Length prefixed binary records.
+         */
+        Binary("application/octet-stream", "bin");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        /**
+         * Retrieve the media type of a batch before it was compressed.
+         *
+         * @return the media type
+         */
+        @NonNull
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    /**
+     * Sends compressed batches to a collector.
+     */
+    public interface Transport {
+        /**
+         * Sends a batch. Called from the sender threads of the shipper, at most one call per
+         * sender at a time.
+         *
+         * @param batch the batch
+         * @throws RejectedException if the collector will never accept the batch; it is dropped
+         * @throws IOException       if the batch was not accepted by the collector; it will be
+         *                           retried
+         */
+        void send(@NonNull Batch batch) throws IOException;
+    }
+
+    /**
+     * Thrown by a {@link Transport} when the collector refused a batch for good, for example
+     * because it is malformed or too large, so that sending it again is pointless.
+     */
+    public static class RejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Create the exception.
+         *
+         * @param message the reason the batch was refused
+         */
+        public RejectedException(@NonNull String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A compressed batch of messages.
+     */
+    public static final class Batch {
+        private final byte[] payload;
+        private final Format format;
+        private final int messageCount;
+
+        Batch(byte[] payload, Format format, int messageCount) {
+            this.payload = payload;
+            this.format = format;
+            this.messageCount = messageCount;
+        }
+
+        /**
+         * Retrieve the serialized messages compressed with gzip.
+         *
+         * @return the payload
+         */
+        @NonNull
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * Retrieve the serialization of the messages.
+         *
+         * @return the format
+         */
+        @NonNull
+        public Format getFormat() {
+            return format;
+        }
+
+        /**
+         * Retrieve the number of messages in the batch.
+         *
+         * @return the number of messages
+         */
+        public int getMessageCount() {
+            return messageCount;
+        }
+    }
+
+    /**
+     * A batch waiting to be sent, either serialized in memory or compressed in the overflow
+     * directory.
+     */
+    private static final class Pending {
+        final Format format;
+        final long startedAt;
+        final ByteArrayOutputStream buffer;
+        final File file;
+        int messageCount;
+
+        /**
+         * The number of times a batch in the overflow directory failed to be sent, guarded by
+         * the shipper.
+         */
+        int attempts;
+
+        Pending(Format format, long startedAt) {
+            this.format = format;
+            this.startedAt = startedAt;
+            this.buffer = new ByteArrayOutputStream(8192);
+            this.file = null;
+        }
+
+        Pending(File file, Format format, int messageCount) {
+            this.format = format;
+            this.startedAt = 0;
+            this.buffer = null;
+            this.file = file;
+            this.messageCount = messageCount;
+        }
+    }
+
+    private final Transport transport;
+    private final Thread[] senders;
+    private final Random random = new Random();
+
+    private final AtomicLong shipped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Guarded by this.
+    private final StringBuilder json = new StringBuilder();
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+    private Format format = Format.Json;
+    private int maxBatchMessages = 1000;
+    private int maxBatchBytes = 256 * 1024;
+    private long maxDelayNanos = TimeUnit.SECONDS.toNanos(5);
+    private int maxQueuedBatches = 16;
+    private int maxAttempts = 5;
+    private long initialBackoffMillis = 500;
+    private long maxBackoffMillis = 30000;
+    private int maxOverflowAttempts = 20;
+    private File overflowDirectory;
+    private long maxOverflowBytes;
+    private long overflowBytes;
+    private final TreeMap<String, Pending> overflow = new TreeMap<>();
+    private final HashSet<String> claimed = new HashSet<>();
+    private final ArrayDeque<Pending> ready = new ArrayDeque<>();
+    private Pending current;
+    private long unavailableUntil = System.nanoTime();
+    private int sequence;
+    private boolean closed;
+
+    /**
+     * Create a shipper with two sender threads.
+     *
+     * @param transport the transport batches are sent with
+     */
+    public LogCatShipper(@NonNull Transport transport) {
+        this(transport, 2);
+    }
+
+    /**
+     * Create a shipper and start its sender threads.
+     *
+     * @param transport   the transport batches are sent with
+     * @param maxInFlight the number of sender threads, and therefore the maximum number of
+     *                    batches being sent at the same time
+     */
+    public LogCatShipper(@NonNull Transport transport, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be greater than zero");
+        }
+        this.transport = transport;
+        this.senders = new Thread[maxInFlight];
+        for (int i = 0; i < maxInFlight; i++) {
+            senders[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sendBatches();
+                }
+            }, "LogCatShipper-sender-" + (i + 1));
+            senders[i].setDaemon(true);
+            senders[i].start();
+        }
+    }
+
+    /**
+     * Sets the serialization of batches started from now on. The default is {@link Format#Json}.
+     *
+     * @param format the format
+     */
+    public synchronized void setFormat(@NonNull Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Sets the limits at which a batch is closed and sent. The defaults are 1000 messages,
+     * 256 KiB before compression and 5 seconds.
+     *
+     * @param maxMessages the maximum number of messages in a batch
+     * @param maxBytes    the size in bytes before compression at which a batch is closed
+     * @param maxDelay    the maximum time in milliseconds a message waits for its batch to close
+     */
+    public synchronized void setBatchLimits(int maxMessages, int maxBytes, long maxDelay) {
+        if (maxMessages <= 0 || maxBytes <= 0 || maxDelay <= 0) {
+            throw new IllegalArgumentException(
+                "maxMessages, maxBytes and maxDelay must be greater than zero"
+            );
+        }
+        this.maxBatchMessages = maxMessages;
+        this.maxBatchBytes = maxBytes;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+        notifyAll();
+    }
+
+    /**
+     * Sets the number of closed batches that may wait in memory for a sender. When another batch
+     * is closed the oldest waiting batch is dropped. The default is 16.
+     *
+     * @param maxQueuedBatches the number of batches
+     */
+    public synchronized void setMaxQueuedBatches(int maxQueuedBatches) {
+        if (maxQueuedBatches <= 0) {
+            throw new IllegalArgumentException("maxQueuedBatches must be greater than zero");
+        }
+        this.maxQueuedBatches = maxQueuedBatches;
+    }
+
+    /**
+     * Sets how often a batch is sent before it is given up on. The wait before each retry doubles,
+     * starting at the initial backoff and up to the maximum backoff, and is shortened by a random
+     * amount of up to half so that senders do not retry in lockstep. The defaults are 5 attempts
+     * with a backoff from 500 milliseconds up to 30 seconds.
+     *
+     * @param maxAttempts    the number of attempts
+     * @param initialBackoff the wait before the first retry in milliseconds
+     * @param maxBackoff     the longest wait between retries in milliseconds, also the time the
+     *                       transport is treated as unavailable after a batch was given up on
+     */
+    public synchronized void setRetry(int maxAttempts, long initialBackoff, long maxBackoff) {
+        if (maxAttempts <= 0 || initialBackoff <= 0 || maxBackoff < initialBackoff) {
+            throw new IllegalArgumentException(
+                "maxAttempts and initialBackoff must be greater than zero and maxBackoff must " +
+                "be at least initialBackoff"
+            );
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoff;
+        this.maxBackoffMillis = maxBackoff;
+    }
+
+    /**
+     * Sets how often a batch in the overflow directory is sent before it is deleted and its
+     * messages are counted as dropped. Each time the transport is available the batch is sent up
+     * to the number of attempts set with {@link #setRetry(int, long, long)}, and every one of
+     * them counts. Attempts are only counted by this shipper; a batch left behind by a previous
+     * instance starts over. The default is 20 attempts.
+     *
+     * @param maxAttempts the number of attempts
+     */
+    public synchronized void setMaxOverflowAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be greater than zero");
+        }
+        this.maxOverflowAttempts = maxAttempts;
+    }
+
+    /**
+     * Sets the directory batches are written to when they can not be sent. Batches already in
+     * the directory are sent once the transport is available. When the directory would grow
+     * beyond its maximum size the oldest batches are deleted.
+     *
+     * @param directory the directory, created if it does not exist, or null to drop batches that
+     *                  can not be sent
+     * @param maxBytes  the maximum size of the batches in the directory
+     * @throws IOException if the directory could not be created
+     */
+    public synchronized void setOverflowDirectory(@Nullable File directory, long maxBytes)
+        throws IOException {
+        if (directory != null && maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be greater than zero");
+        }
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+
+        this.overflowDirectory = directory;
+        this.maxOverflowBytes = maxBytes;
+        this.overflow.clear();
+        this.overflowBytes = 0;
+        if (directory == null)
+            return;
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Pending pending = parseOverflowName(file);
+                if (pending != null) {
+                    overflow.put(file.getName(), pending);
+                    overflowBytes += file.length();
+                }
+            }
+        }
+        trimOverflow(0);
+        notifyAll();
+    }
+
+    /**
+     * Retrieve the number of messages accepted by the transport.
+     *
+     * @return the number of messages
+     */
+    public long getShipped() {
+        return shipped.get();
+    }
+
+    /**
+     * Retrieve the number of batches accepted by the transport.
+     *
+     * @return the number of batches
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Retrieve the number of compressed bytes accepted by the transport.
+     *
+     * @return the number of bytes
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Retrieve the number of times a batch was sent again after failing.
+     *
+     * @return the number of retries
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Retrieve the number of batches written to the overflow directory.
+     *
+     * @return the number of batches
+     */
+    public long getOverflowed() {
+        return overflowed.get();
+    }
+
+    /**
+     * Retrieve the number of messages that were dropped, because too many batches were waiting,
+     * because their batch could not be sent and there was no room in the overflow directory or
+     * its attempts were used up, because the collector rejected their batch, or because they
+     * arrived after the shipper was closed.
+     *
+     * @return the number of messages
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Retrieve the number of batches waiting to be sent, in memory and in the overflow directory.
+     *
+     * @return the number of batches
+     */
+    public synchronized int getPendingBatches() {
+        return ready.size() + overflow.size();
+    }
+
+    /**
+     * Adds a message to the current batch. This method never waits for the network.
+     *
+     * @param message the message
+     */
+    @Override
+    public synchronized void onNewMessage(@NonNull LogCatMessage message) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        if (current == null) {
+            current = new Pending(format, System.nanoTime());
+            if (format == Format.Binary) {
+                writeHeader(current);
+            }
+            // Senders waiting without a deadline must start waiting for this batch to be due.
+            notifyAll();
+        }
+        append(current, message);
+        if (current.messageCount >= maxBatchMessages || current.buffer.size() >= maxBatchBytes) {
+            closeBatch();
+        }
+    }
+
+    /**
+     * Closes the current batch so that it is sent without waiting for it to fill.
+     */
+    public synchronized void flush() {
+        if (current != null) {
+            closeBatch();
+        }
+    }
+
+    /**
+     * Closes the shipper, waiting up to five seconds for the batches in memory to be sent.
+     *
+     * @see #close(long)
+     */
+    @Override
+    public void close() {
+        close(5000);
+    }
+
+    /**
+     * Closes the current batch and waits for the batches in memory to be sent. Batches that have
+     * not been sent when the timeout expires are written to the overflow directory, or dropped if
+     * there is none. Batches in the overflow directory are left for the next shipper using it.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds
+     */
+    public void close(long timeoutMillis) {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            flush();
+            notifyAll();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            for (Thread sender : senders) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining > 0) {
+                    sender.join(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Interrupted senders give their current batch up and stop.
+        for (Thread sender : senders) {
+            sender.interrupt();
+        }
+
+        while (true) {
+            Pending pending;
+            synchronized (this) {
+                pending = ready.poll();
+            }
+            if (pending == null)
+                break;
+            giveUp(pending, null);
+        }
+    }
+
+    /**
+     * Moves the current batch to the batches waiting for a sender, dropping the oldest waiting
+     * batch if there are too many.
+     */
+    private void closeBatch() {
+        ready.add(current);
+        current = null;
+        if (ready.size() > maxQueuedBatches) {
+            dropped.addAndGet(ready.poll().messageCount);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Runs on each sender thread until the shipper is closed.
+     */
+    private void sendBatches() {
+        while (true) {
+            Pending pending;
+            try {
+                pending = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (pending == null)
+                return;
+
+            send(pending);
+            if (Thread.currentThread().isInterrupted())
+                return;
+        }
+    }
+
+    /**
+     * Waits for the next batch to send: a batch in memory, or the oldest batch in the overflow
+     * directory when the transport is available. Closes the current batch once it is due.
+     *
+     * @return the batch, or null once the shipper is closed and no batch is left in memory
+     */
+    private synchronized Pending take() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            if (current != null && now - current.startedAt >= maxDelayNanos) {
+                closeBatch();
+            }
+
+            Pending pending = ready.poll();
+            if (pending != null)
+                return pending;
+            if (closed)
+                return null;
+
+            boolean available = now - unavailableUntil >= 0;
+            if (available) {
+                for (String name : overflow.keySet()) {
+                    if (claimed.add(name))
+                        return overflow.get(name);
+                }
+            }
+
+            long waitNanos = Long.MAX_VALUE;
+            if (current != null) {
+                waitNanos = current.startedAt + maxDelayNanos - now;
+            }
+            if (!available && overflow.size() > claimed.size()) {
+                waitNanos = Math.min(waitNanos, unavailableUntil - now);
+            }
+            if (waitNanos == Long.MAX_VALUE) {
+                wait();
+            } else {
+                TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, 1));
+            }
+        }
+    }
+
+    /**
+     * Sends a batch, retrying with backoff, and gives it up if it can not be sent.
+     */
+    private void send(Pending pending) {
+        Batch batch;
+        try {
+            batch = toBatch(pending);
+        } catch (IOException e) {
+            // The batch can never be sent, so there is no point in keeping it.
+            discard(pending, false);
+            return;
+        }
+
+        int attempts;
+        long backoff;
+        synchronized (this) {
+            if (pending.file == null && overflowDirectory != null &&
+                System.nanoTime() - unavailableUntil < 0) {
+                giveUp(pending, batch);
+                return;
+            }
+            attempts = maxAttempts;
+            if (pending.file != null) {
+                attempts = Math.max(1, Math.min(attempts, maxOverflowAttempts - pending.attempts));
+            }
+            backoff = initialBackoffMillis;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transport.send(batch);
+                shipped.addAndGet(batch.getMessageCount());
+                batches.incrementAndGet();
+                bytesSent.addAndGet(batch.getPayload().length);
+                if (pending.file != null) {
+                    discard(pending, true);
+                }
+                return;
+            } catch (RejectedException e) {
+                // The collector is up but will never take this batch.
+                discard(pending, false);
+                return;
+            } catch (Exception e) {
+                // Retried below.
+                if (pending.file != null) {
+                    synchronized (this) {
+                        pending.attempts++;
+                    }
+                }
+            }
+
+            if (attempt >= attempts)
+                break;
+            try {
+                Thread.sleep(backoff - (long) (random.nextDouble() * backoff / 2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            retries.incrementAndGet();
+            synchronized (this) {
+                backoff = Math.min(backoff * 2, maxBackoffMillis);
+            }
+        }
+
+        synchronized (this) {
+            unavailableUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+        }
+        giveUp(pending, batch);
+    }
+
+    /**
+     * Writes a batch that could not be sent to the overflow directory, or drops it. Batches
+     * already in the overflow directory are left there until their attempts are used up.
+     *
+     * @param batch the batch compressed, or null to compress it if needed
+     */
+    private void giveUp(Pending pending, @Nullable Batch batch) {
+        if (pending.file != null) {
+            synchronized (this) {
+                if (pending.attempts >= maxOverflowAttempts) {
+                    discard(pending, false);
+                } else {
+                    claimed.remove(pending.file.getName());
+                }
+            }
+            return;
+        }
+
+        File directory;
+        String name;
+        synchronized (this) {
+            directory = overflowDirectory;
+            name = String.format(
+                Locale.US, "%s%013d-%06d-%d.%s%s", OVERFLOW_PREFIX, System.currentTimeMillis(),
+                sequence++ % 1000000, pending.messageCount, pending.format.extension,
+                OVERFLOW_SUFFIX
+            );
+        }
+        if (directory == null) {
+            dropped.addAndGet(pending.messageCount);
+            return;
+        }
+
+        File file = new File(directory, name);
+        File temporary = new File(directory, name + ".tmp");
+        try {
+            if (batch == null) {
+                batch = toBatch(pending);
+            }
+            FileOutputStream output = new FileOutputStream(temporary);
+            try {
+                output.write(batch.getPayload());
+            } finally {
+                output.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("could not rename " + temporary);
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temporary.delete();
+            dropped.addAndGet(pending.messageCount);
+            return;
+        }
+
+        synchronized (this) {
+            if (!directory.equals(overflowDirectory) || !trimOverflow(file.length())) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                dropped.addAndGet(pending.messageCount);
+                return;
+            }
+            overflow.put(name, new Pending(file, pending.format, pending.messageCount));
+            overflowBytes += file.length();
+            overflowed.incrementAndGet();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Deletes the oldest batches in the overflow directory that are not being sent until there is
+     * room for another batch.
+     *
+     * @param length the size of the other batch in bytes
+     * @return true if there is room
+     */
+    private boolean trimOverflow(long length) {
+        if (length > maxOverflowBytes)
+            return false;
+
+        Iterator<Map.Entry<String, Pending>> iterator =
+            overflow.entrySet().iterator();
+        while (overflowBytes + length > maxOverflowBytes && iterator.hasNext()) {
+            Map.Entry<String, Pending> entry = iterator.next();
+            if (claimed.contains(entry.getKey()))
+                continue;
+            File file = entry.getValue().file;
+            overflowBytes -= file.length();
+            dropped.addAndGet(entry.getValue().messageCount);
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            iterator.remove();
+        }
+        return overflowBytes + length <= maxOverflowBytes;
+    }
+
+    /**
+     * Removes a batch that has been sent, or can never be sent, from the overflow directory.
+     * Messages of a batch that was not sent are counted as dropped.
+     *
+     * @param sent true if the batch was accepted by the transport
+     */
+    private synchronized void discard(Pending pending, boolean sent) {
+        if (!sent) {
+            dropped.addAndGet(pending.messageCount);
+        }
+        if (pending.file == null)
+            return;
+
+        String name = pending.file.getName();
+        claimed.remove(name);
+        if (overflow.remove(name) != null) {
+            overflowBytes -= pending.file.length();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        pending.file.delete();
+    }
+
+    /**
+     * Compresses a batch in memory, or reads a batch from the overflow directory.
+     */
+    private static Batch toBatch(Pending pending) throws IOException {
+        if (pending.file != null) {
+            byte[] payload = new byte[(int) pending.file.length()];
+            DataInputStream input = new DataInputStream(new FileInputStream(pending.file));
+            try {
+                input.readFully(payload);
+            } finally {
+                input.close();
+            }
+            return new Batch(payload, pending.format, pending.messageCount);
+        }
+
+        ByteArrayOutputStream compressed =
+            new ByteArrayOutputStream(Math.max(pending.buffer.size() / 4, 256));
+        GZIPOutputStream output = new GZIPOutputStream(compressed, 8192);
+        pending.buffer.writeTo(output);
+        output.close();
+        return new Batch(compressed.toByteArray(), pending.format, pending.messageCount);
+    }
+
+    /**
+     * Recognizes a batch in the overflow directory by its name, which records the number of
+     * messages in the batch and its format.
+     *
+     * @return the batch, or null if the file is not a batch
+     */
+    @Nullable
+    private static Pending parseOverflowName(File file) {
+        String name = file.getName();
+        if (!name.startsWith(OVERFLOW_PREFIX) || !name.endsWith(OVERFLOW_SUFFIX))
+            return null;
+
+        String[] parts = name.substring(
+            OVERFLOW_PREFIX.length(), name.length() - OVERFLOW_SUFFIX.length()
+        ).split("[-.]");
+        if (parts.length != 4)
+            return null;
+        for (Format format : Format.values()) {
+            if (format.extension.equals(parts[3])) {
+                try {
+                    return new Pending(file, format, Integer.parseInt(parts[2]));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Serializes a message into a batch in the format of the batch. The message is encoded into
+     * a reused buffer first so that it is copied into the batch with a single write.
+     */
+    private void append(Pending pending, LogCatMessage message) {
+        if (pending.format == Format.Binary) {
+            byte[] tag = message.getTag().getBytes(UTF_8);
+            byte[] body = message.getMessage().getBytes(UTF_8);
+            int length = 8 + 1 + 4 + 4 + 4 + tag.length + 4 + body.length;
+            if (record.capacity() < 4 + length) {
+                record = ByteBuffer.allocate(Math.max(4 + length, record.capacity() * 2));
+            }
+            record.clear();
+            record.putInt(length)
+                .putLong(message.getLoggedAt().getTime())
+                .put((byte) message.getPriority().getNumeric())
+                .putInt(message.getPid())
+                .putInt(message.getTid())
+                .putInt(tag.length).put(tag)
+                .putInt(body.length).put(body);
+            pending.buffer.write(record.array(), 0, record.position());
+        } else {
+            json.setLength(0);
+            json.append("{\"loggedAt\":").append(message.getLoggedAt().getTime())
+                .append(",\"priority\":").append(message.getPriority().getNumeric())
+                .append(",\"pid\":").append(message.getPid())
+                .append(",\"tid\":").append(message.getTid())
+                .append(",\"tag\":");
+            appendJsonString(json, message.getTag());
+            json.append(",\"message\":");
+            appendJsonString(json, message.getMessage());
+            json.append("}\n");
+            byte[] bytes = json.toString().getBytes(UTF_8);
+            pending.buffer.write(bytes, 0, bytes.length);
+        }
+        pending.messageCount++;
+    }
+
+    /**
+     * Writes the header of a binary batch.
+     */
+    private static void writeHeader(Pending pending) {
+        byte[] header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).array();
+        pending.buffer.write(header, 0, header.length);
+    }
+
+    /**
+     * Appends a string as a quoted JSON string.
+     */
+    private static void appendJsonString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        builder.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+}
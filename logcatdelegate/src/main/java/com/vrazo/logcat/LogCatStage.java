@@ -0,0 +1,48 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A stage in the pipeline of a {@link LogCatDelegate}.
+ *
+ * Stages are run in the order they were added, after a message has passed every
+ * {@link LogCatMessageFilter} and before it is delivered to
+ * {@link LogCatDelegate#onNewMessage(LogCatMessage)}. Unlike a filter, a stage can hold messages
+ * back, replace them, or emit more than one message for a single input.
+ *
+ * A stage is only ever invoked from one thread at a time, so implementations do not need to be
+ * thread-safe with regards to {@link #process(LogCatMessage, Output)} and {@link #flush(Output)}.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public abstract class LogCatStage {
+    /**
+     * Receives the messages emitted by a stage.
+     */
+    public interface Output {
+        /**
+         * Passes a message to the next stage in the pipeline.
+         *
+         * @param message the message
+         */
+        void emit(@NonNull LogCatMessage message);
+    }
+
+    /**
+     * Called for every message that reaches this stage. Call {@link Output#emit(LogCatMessage)}
+     * for each message that should continue down the pipeline.
+     *
+     * @param message the message
+     * @param output  the next stage in the pipeline
+     */
+    public abstract void process(@NonNull LogCatMessage message, @NonNull Output output);
+
+    /**
+     * Called when the delegate is de-registered so that any messages still held by this stage can
+     * be emitted.
+     *
+     * @param output the next stage in the pipeline
+     */
+    public void flush(@NonNull Output output) {
+        /* Not implemented by default */
+    }
+}
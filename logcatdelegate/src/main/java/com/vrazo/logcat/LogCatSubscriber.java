@@ -0,0 +1,40 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives items from a {@link LogCatPublisher}.
+ *
+ * This mirrors {@code java.util.concurrent.Flow.Subscriber}, which is only available from API 30.
+ * Calls to a subscriber are never made concurrently, but they may be made from different threads.
+ *
+ * @param <T> the type of item received
+ */
+public interface LogCatSubscriber<T> {
+    /**
+     * Called once when the subscriber is added to a publisher, before any other method.
+     *
+     * @param subscription the subscription, used to request items or cancel
+     */
+    void onSubscribe(@NonNull LogCatSubscription subscription);
+
+    /**
+     * Called for each item. Will never be called more times than the number of items requested.
+     *
+     * @param item the item
+     */
+    void onNext(@NonNull T item);
+
+    /**
+     * Called when the publisher fails. No other methods will be called afterwards.
+     *
+     * @param error the error
+     */
+    void onError(@NonNull Throwable error);
+
+    /**
+     * Called when the publisher will not publish any more items. No other methods will be called
+     * afterwards.
+     */
+    void onComplete();
+}
@@ -0,0 +1,22 @@
+package com.vrazo.logcat;
+
+/**
+ * Links a {@link LogCatSubscriber} to a {@link LogCatPublisher}.
+ *
+ * This mirrors {@code java.util.concurrent.Flow.Subscription}, which is only available from API
+ * 30.
+ */
+public interface LogCatSubscription {
+    /**
+     * Requests up to n more items. Demand is cumulative; requesting {@link Long#MAX_VALUE} items
+     * is treated as unbounded.
+     *
+     * @param n the number of items, must be greater than zero
+     */
+    void request(long n);
+
+    /**
+     * Stops the delivery of items. Items already in flight may still be delivered.
+     */
+    void cancel();
+}
@@ -0,0 +1,35 @@
+package com.vrazo.logcat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A delegate that keeps every message and error passed to it.
+ */
+class CollectingDelegate extends LogCatDelegate {
+    final List<LogCatMessage> messages = new ArrayList<>();
+    final List<Exception> errors = new ArrayList<>();
+
+    @Override
+    protected void onNewMessage(LogCatMessage message) {
+        synchronized (messages) {
+            messages.add(message);
+        }
+    }
+
+    @Override
+    protected void onException(Exception error) {
+        synchronized (errors) {
+            errors.add(error);
+        }
+    }
+
+    /**
+     * Retrieve the messages received so far.
+     */
+    List<LogCatMessage> getMessages() {
+        synchronized (messages) {
+            return new ArrayList<>(messages);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.vrazo.logcat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Shell scripts that stand in for Log Cat, passed to {@link LogCatDelegate#setExecutable(String)}.
+ *
+ * Lines are timestamped at the very end of the current year, so that they are never skipped for
+ * having been logged before the delegate was registered.
+ */
+final class FakeLogCat {
+    private FakeLogCat() {}
+
+    /**
+     * Formats a line in the threadtime format.
+     */
+    static String line(char priority, String tag, String body) {
+        return "12-31 23:59:59.999  1234  1250 " + priority + " " + tag + ": " + body;
+    }
+
+    /**
+     * Creates a script that prints the lines, then waits to be destroyed like Log Cat does.
+     *
+     * @param directory the directory to create the script in
+     * @param lines     the lines, which must not contain single quotes
+     * @return the path of the script
+     */
+    static String once(File directory, List<String> lines) throws IOException {
+        StringBuilder script = new StringBuilder();
+        for (String line : lines) {
+            script.append("echo '").append(line).append("'\n");
+        }
+        script.append("exec sleep 3600\n");
+        return write(directory, script.toString());
+    }
+
+    /**
+     * Creates a script that prints the same lines over and over until it is destroyed. It only
+     * uses shell builtins, so destroying the shell leaves no other process behind.
+     *
+     * @param directory the directory to create the script in
+     * @param lines     the lines, which must not contain single quotes
+     * @return the path of the script
+     */
+    static String endless(File directory, List<String> lines) throws IOException {
+        StringBuilder script = new StringBuilder("while :; do\n");
+        for (String line : lines) {
+            script.append("echo '").append(line).append("'\n");
+        }
+        script.append("done\n");
+        return write(directory, script.toString());
+    }
+
+    /**
+     * Counts the processes running a script, by searching the command lines in the proc
+     * filesystem.
+     *
+     * @param script the path of the script
+     * @return the number of processes, or -1 if the proc filesystem is not available
+     */
+    static int countProcesses(String script) {
+        File[] processes = new File("/proc").listFiles();
+        if (processes == null)
+            return -1;
+
+        byte[] buffer = new byte[4096];
+        int count = 0;
+        for (File process : processes) {
+            if (!process.getName().matches("[0-9]+"))
+                continue;
+            try {
+                FileInputStream input = new FileInputStream(new File(process, "cmdline"));
+                try {
+                    int length = Math.max(0, input.read(buffer));
+                    if (new String(buffer, 0, length, TestLogs.UTF_8).contains(script)) {
+                        count++;
+                    }
+                } finally {
+                    input.close();
+                }
+            } catch (IOException ignored) {
+                /* The process exited while being read */
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes an executable shell script.
+     */
+    private static String write(File directory, String body) throws IOException {
+        File file = File.createTempFile("logcat", ".sh", directory);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(("#!/bin/sh\n" + body).getBytes(TestLogs.UTF_8));
+        } finally {
+            output.close();
+        }
+        assertTrue(file.setExecutable(true));
+        return file.getAbsolutePath();
+    }
+}
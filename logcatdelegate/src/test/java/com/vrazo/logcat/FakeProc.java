@@ -0,0 +1,54 @@
+package com.vrazo.logcat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes the files of processes to a directory laid out like the proc filesystem, to be passed to
+ * {@link LogCatProcessResolver#LogCatProcessResolver(File, int, long)}.
+ */
+final class FakeProc {
+    private FakeProc() {}
+
+    /**
+     * Writes the stat and cmdline files of a process.
+     */
+    static void writeProcess(File root, int pid, String command, long startTime, String cmdline)
+        throws IOException {
+        File directory = new File(root, String.valueOf(pid));
+        assertTrue(directory.isDirectory() || directory.mkdir());
+
+        // Fields 3 to 21 are irrelevant to the resolver; field 22 is the start time.
+        StringBuilder stat = new StringBuilder();
+        stat.append(pid).append(" (").append(command).append(") S");
+        for (int field = 4; field <= 21; field++) {
+            stat.append(' ').append(field);
+        }
+        stat.append(' ').append(startTime).append(" 0 0\n");
+
+        writeFile(new File(directory, "stat"), stat.toString());
+        writeFile(new File(directory, "cmdline"), cmdline);
+    }
+
+    /**
+     * Deletes the files of a process, as if it had exited.
+     */
+    static void deleteProcess(File root, int pid) {
+        File directory = new File(root, String.valueOf(pid));
+        assertTrue(new File(directory, "stat").delete());
+        assertTrue(new File(directory, "cmdline").delete());
+        assertTrue(directory.delete());
+    }
+
+    static void writeFile(File file, String content) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes(TestLogs.UTF_8));
+        } finally {
+            output.close();
+        }
+    }
+}
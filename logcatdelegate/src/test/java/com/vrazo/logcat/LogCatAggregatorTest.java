@@ -0,0 +1,253 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatAggregator}, with a clock that is advanced by the test, and a benchmark
+ * of the cost of counting a message.
+ */
+public class LogCatAggregatorTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private volatile long now;
+
+    private final LogCatStage.Output output = new LogCatStage.Output() {
+        @Override
+        public void emit(LogCatMessage message) {
+            emitted++;
+        }
+    };
+    private int emitted;
+
+    @Test
+    public void countsPrioritiesExactly() {
+        LogCatAggregator aggregator = aggregator(60000, 6, 10);
+        Random random = new Random(1);
+        long[] expected = new long[8];
+        for (int i = 0; i < 50000; i++) {
+            int priority = Log.VERBOSE + random.nextInt(Log.ASSERT - Log.VERBOSE + 1);
+            expected[priority]++;
+            aggregator.process(message(priority, "Tag" + random.nextInt(5000), i % 300), output);
+        }
+
+        for (int priority = Log.VERBOSE; priority <= Log.ASSERT; priority++) {
+            assertEquals(expected[priority],
+                aggregator.getPriorityCount(new LogCatPriority(priority)));
+        }
+        assertEquals(50000, aggregator.getTotalCount());
+        assertEquals(50000, emitted);
+    }
+
+    @Test
+    public void neverEstimatesBelowTrueCount() {
+        LogCatAggregator aggregator = aggregator(60000, 6, 10);
+        Map<String, Long> tagCounts = new HashMap<>();
+        Map<Integer, Long> pidCounts = new HashMap<>();
+        Random random = new Random(2);
+        int total = 200000;
+        for (int i = 0; i < total; i++) {
+            // A skewed distribution over many more keys than a row of the sketch has counters.
+            String tag = "Tag" + (int) Math.pow(5000, random.nextDouble());
+            int pid = 1000 + (int) Math.pow(3000, random.nextDouble());
+            increment(tagCounts, tag);
+            increment(pidCounts, pid);
+            aggregator.process(message(Log.INFO, tag, pid), output);
+        }
+
+        for (Map.Entry<String, Long> entry : tagCounts.entrySet()) {
+            long estimate = aggregator.getTagCount(entry.getKey());
+            assertTrue(entry.getKey(), estimate >= entry.getValue());
+            assertTrue(entry.getKey(), estimate - entry.getValue() <= total / 100);
+        }
+        for (Map.Entry<Integer, Long> entry : pidCounts.entrySet()) {
+            long estimate = aggregator.getPidCount(entry.getKey());
+            assertTrue("pid " + entry.getKey(), estimate >= entry.getValue());
+            assertTrue("pid " + entry.getKey(), estimate - entry.getValue() <= total / 100);
+        }
+        assertEquals(0, aggregator.getTagCount("Unseen"), total / 100);
+    }
+
+    @Test
+    public void ordersTopKeysAndReplacesLightestCandidate() {
+        LogCatAggregator aggregator = aggregator(60000, 6, 3);
+        process(aggregator, "A", 100, 10);
+        process(aggregator, "B", 200, 5);
+        process(aggregator, "C", 300, 3);
+        assertTop(aggregator.getTopTags(), "A=10", "B=5", "C=3");
+        assertTop(aggregator.getTopPids(), "100=10", "200=5", "300=3");
+
+        // D only displaces C, the lightest candidate, once it is heavier.
+        process(aggregator, "D", 400, 3);
+        assertTop(aggregator.getTopTags(), "A=10", "B=5", "C=3");
+        process(aggregator, "D", 400, 1);
+        assertTop(aggregator.getTopTags(), "A=10", "B=5", "D=4");
+        assertTop(aggregator.getTopPids(), "100=10", "200=5", "400=4");
+
+        // Candidates are re-ordered as their counts change.
+        process(aggregator, "B", 200, 6);
+        assertTop(aggregator.getTopTags(), "B=11", "A=10", "D=4");
+        assertEquals(3, aggregator.getTagCount("C"));
+    }
+
+    @Test
+    public void expiresCountsAsBucketsLeaveWindow() {
+        // A window of one second in four buckets of 250 milliseconds.
+        LogCatAggregator aggregator = aggregator(1000, 4, 10);
+        process(aggregator, "Early", 100, 5);
+        now += 500 * MILLIS;
+        process(aggregator, "Late", 200, 3);
+        assertTop(aggregator.getTopTags(), "Early=5", "Late=3");
+        assertEquals(8, aggregator.getTotalCount());
+
+        // The bucket holding the early messages leaves the window even without new messages.
+        now += 510 * MILLIS;
+        assertEquals(0, aggregator.getTagCount("Early"));
+        assertEquals(0, aggregator.getPidCount(100));
+        assertTop(aggregator.getTopTags(), "Late=3");
+        assertTop(aggregator.getTopPids(), "200=3");
+        assertEquals(3, aggregator.getPriorityCount(new LogCatPriority(Log.INFO)));
+
+        // The window moving forward with new messages drops the expired candidate.
+        process(aggregator, "Next", 300, 1);
+        assertTop(aggregator.getTopTags(), "Late=3", "Next=1");
+
+        now += 1000 * MILLIS;
+        assertTrue(aggregator.getTopTags().isEmpty());
+        assertEquals(0, aggregator.getTotalCount());
+
+        // Reused buckets start over from zero.
+        process(aggregator, "Late", 200, 2);
+        assertTop(aggregator.getTopTags(), "Late=2");
+        assertEquals(2, aggregator.getTotalCount());
+    }
+
+    @Test(timeout = 30000)
+    public void answersQueriesWhileCounting() throws InterruptedException {
+        final LogCatAggregator aggregator = aggregator(60000, 6, 5);
+        final AtomicLong processed = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final int total = 200000;
+        Thread pipeline = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < total; i++) {
+                        aggregator.process(message(Log.INFO, "Tag" + i % 20, 100 + i % 7), output);
+                        processed.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        pipeline.start();
+
+        long previous = 0;
+        int queries = 0;
+        while (pipeline.isAlive() || queries == 0) {
+            // A message may have been counted while process() has not returned yet.
+            long count = aggregator.getTotalCount();
+            assertTrue(count + " after " + previous, count >= previous);
+            assertTrue(count + " of " + processed.get(), count <= processed.get() + 1);
+            previous = count;
+
+            List<LogCatAggregator.Count<String>> top = aggregator.getTopTags();
+            assertTrue(top.size() <= 5);
+            for (int i = 1; i < top.size(); i++) {
+                assertTrue(top.get(i - 1).getCount() >= top.get(i).getCount());
+            }
+            queries++;
+        }
+        pipeline.join();
+
+        assertNull(failure.get());
+        assertEquals(total, aggregator.getTotalCount());
+        assertEquals(5, aggregator.getTopTags().size());
+        assertEquals(total / 20, aggregator.getTagCount("Tag0"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWindowShorterThanBuckets() {
+        new LogCatAggregator(5, 6, 10);
+    }
+
+    /**
+     * Measures the cost of counting a message with the default window, by tag, process ID and
+     * priority, against the real clock.
+     */
+    @Test
+    public void benchmarkProcess() {
+        TestLogs.assumeBenchmarks();
+        Random random = new Random(3);
+        List<LogCatMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            String tag = TestLogs.TAGS[random.nextInt(TestLogs.TAGS.length)] + random.nextInt(50);
+            messages.add(message(Log.VERBOSE + random.nextInt(6), tag, random.nextInt(500)));
+        }
+
+        LogCatAggregator aggregator = new LogCatAggregator();
+        int rounds = 100;
+        long best = Long.MAX_VALUE;
+        for (int pass = 0; pass < 5; pass++) {
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                for (LogCatMessage message : messages) {
+                    aggregator.process(message, output);
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        TestLogs.report("aggregator", String.format(
+            "%d messages: %.0f ns/message", messages.size() * rounds,
+            best / (double) (messages.size() * rounds)
+        ));
+    }
+
+    private LogCatAggregator aggregator(long windowMillis, int buckets, int topK) {
+        return new LogCatAggregator(windowMillis, buckets, topK) {
+            @Override
+            long nanoTime() {
+                return now;
+            }
+        };
+    }
+
+    private void process(LogCatAggregator aggregator, String tag, int pid, int count) {
+        for (int i = 0; i < count; i++) {
+            aggregator.process(message(Log.INFO, tag, pid), output);
+        }
+    }
+
+    private static void assertTop(List<? extends LogCatAggregator.Count<?>> top,
+                                  String... expected) {
+        List<String> actual = new ArrayList<>();
+        for (LogCatAggregator.Count<?> count : top) {
+            actual.add(count.toString());
+        }
+        assertEquals(Arrays.asList(expected), actual);
+    }
+
+    private static <K> void increment(Map<K, Long> counts, K key) {
+        Long count = counts.get(key);
+        counts.put(key, count == null ? 1 : count + 1);
+    }
+
+    private static LogCatMessage message(int priority, String tag, int pid) {
+        return TestLogs.message(0, priority, pid, tag, "body");
+    }
+}
@@ -0,0 +1,105 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatDeduplicator}.
+ */
+public class LogCatDeduplicatorTest {
+    private final List<LogCatMessage> emitted = new ArrayList<>();
+    private final LogCatStage.Output output = new LogCatStage.Output() {
+        @Override
+        public void emit(LogCatMessage message) {
+            emitted.add(message);
+        }
+    };
+
+    @Test
+    public void holdsBackRepeatsWithinWindow() {
+        LogCatDeduplicator deduplicator = new LogCatDeduplicator(1000);
+        for (int i = 0; i < 100; i++) {
+            deduplicator.process(message(i, "Storm", "same"), output);
+        }
+
+        assertEquals(1, emitted.size());
+        assertEquals(1, emitted.get(0).getRepeatCount());
+        assertEquals(99, deduplicator.getSuppressedCount());
+    }
+
+    @Test
+    public void emitsSummaryAfterBurstAndSilence() {
+        LogCatDeduplicator deduplicator = new LogCatDeduplicator(1000);
+        for (int i = 0; i < 100; i++) {
+            deduplicator.process(message(i, "Storm", "same"), output);
+        }
+
+        // The burst is over; a different message arrives well after the window.
+        deduplicator.process(message(5000, "Other", "unrelated"), output);
+
+        assertEquals(3, emitted.size());
+        assertEquals("same", emitted.get(1).getMessage());
+        assertEquals(99, emitted.get(1).getRepeatCount());
+        assertEquals(99, emitted.get(1).getLoggedAt().getTime());
+        assertEquals("unrelated", emitted.get(2).getMessage());
+        assertEquals(1, emitted.get(2).getRepeatCount());
+    }
+
+    @Test
+    public void doesNotEmitSummaryBeforeWindowElapses() {
+        LogCatDeduplicator deduplicator = new LogCatDeduplicator(1000);
+        for (int i = 0; i < 10; i++) {
+            deduplicator.process(message(i, "Storm", "same"), output);
+        }
+        deduplicator.process(message(500, "Other", "unrelated"), output);
+
+        assertEquals(2, emitted.size());
+        assertEquals("unrelated", emitted.get(1).getMessage());
+    }
+
+    @Test
+    public void restartsWindowAfterSummary() {
+        LogCatDeduplicator deduplicator = new LogCatDeduplicator(1000);
+        deduplicator.process(message(0, "Storm", "same"), output);
+        deduplicator.process(message(10, "Storm", "same"), output);
+        deduplicator.process(message(2000, "Storm", "same"), output);
+        deduplicator.process(message(2010, "Storm", "same"), output);
+        deduplicator.flush(output);
+
+        assertEquals(4, emitted.size());
+        assertEquals(1, emitted.get(0).getRepeatCount());
+        assertEquals(1, emitted.get(1).getRepeatCount());
+        assertEquals(10, emitted.get(1).getLoggedAt().getTime());
+        assertEquals(1, emitted.get(2).getRepeatCount());
+        assertEquals(2000, emitted.get(2).getLoggedAt().getTime());
+        assertEquals(1, emitted.get(3).getRepeatCount());
+        assertEquals(2010, emitted.get(3).getLoggedAt().getTime());
+    }
+
+    @Test
+    public void flushEmitsPendingRepeats() {
+        LogCatDeduplicator deduplicator = new LogCatDeduplicator(1000);
+        for (int i = 0; i < 5; i++) {
+            deduplicator.process(message(i, "A", "a"), output);
+            deduplicator.process(message(i, "B", "b"), output);
+        }
+        deduplicator.flush(output);
+
+        int repeats = 0;
+        for (LogCatMessage message : emitted) {
+            repeats += message.getRepeatCount();
+        }
+        assertEquals(4, emitted.size());
+        assertEquals(10, repeats);
+    }
+
+    private static LogCatMessage message(long loggedAt, String tag, String body) {
+        return TestLogs.message(loggedAt, Log.WARN, 100, tag, body);
+    }
+}
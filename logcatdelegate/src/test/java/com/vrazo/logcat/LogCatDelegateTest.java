@@ -0,0 +1,384 @@
+package com.vrazo.logcat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for configuring and registering a {@link LogCatDelegate}, with a shell script standing in
+ * for Log Cat.
+ */
+public class LogCatDelegateTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fastLaneSkipsPriorityLanes() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            lines.add(FakeLogCat.line(i % 10 == 0 ? 'E' : 'V', "Tag", "message " + i));
+        }
+
+        final List<String> threads = new ArrayList<>();
+        CollectingDelegate delegate = new CollectingDelegate() {
+            @Override
+            protected void onNewMessage(LogCatMessage message) {
+                synchronized (messages) {
+                    threads.add(Thread.currentThread().getName());
+                }
+                super.onNewMessage(message);
+            }
+        };
+        delegate.setExecutable(FakeLogCat.once(folder.getRoot(), lines));
+        delegate.setPriorityLanes(new LogCatPriorityLanes(4096));
+        delegate.setLowLatency(true);
+
+        delegate.register();
+        awaitMessages(delegate, lines.size());
+        delegate.deregister();
+
+        List<LogCatMessage> messages = delegate.getMessages();
+        for (int i = 0; i < messages.size(); i++) {
+            boolean fastLane = messages.get(i).getPriority().getCharacter().equals("E");
+            assertEquals(
+                fastLane ? "LogCatDelegate-reader" : "LogCatDelegate-delivery", threads.get(i)
+            );
+        }
+        assertEquals(lines.size(), delegate.getMetrics().getDelivered());
+        assertTrue(delegate.errors.isEmpty());
+    }
+
+    @Test(timeout = 30000)
+    public void registerDoesNotWaitForShutdownTimeout() throws Exception {
+        CollectingDelegate delegate = new CollectingDelegate();
+        delegate.setExecutable(FakeLogCat.endless(folder.getRoot(), sample(10)));
+        delegate.setPriorityLanes(new LogCatPriorityLanes(1024));
+        delegate.setShutdownTimeout(5000);
+
+        for (int i = 0; i < 10; i++) {
+            delegate.register();
+            awaitMessages(delegate, delegate.getMessages().size() + 1);
+            delegate.deregisterAsync();
+
+            long start = System.currentTimeMillis();
+            delegate.register();
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("register took " + elapsed + " ms", elapsed < 2500);
+            delegate.deregister();
+        }
+        assertTrue(delegate.errors.isEmpty());
+    }
+
+    @Test(timeout = 30000)
+    public void registerRefusesWhileReaderIsBlocked() throws Exception {
+        assertRefusesWhileListenerIsBlocked(false);
+    }
+
+    @Test(timeout = 30000)
+    public void registerRefusesWhileDeliveryIsBlocked() throws Exception {
+        assertRefusesWhileListenerIsBlocked(true);
+    }
+
+    @Test
+    public void tokenizesQuotedAndEscapedArguments() {
+        LogCatDelegate delegate = new CollectingDelegate();
+        delegate.setCommandLineArguments("  -b all\t-e 'a b'  \"c \\\" d\" e\\ f 'g\\h'\"\"  ");
+        assertEquals(
+            Arrays.asList("-b", "all", "-e", "a b", "c \" d", "e f", "g\\h"),
+            delegate.getCommandLineArguments()
+        );
+
+        delegate.setCommandLineArguments("--regex=x'y z'\"\" ''");
+        assertEquals(Arrays.asList("--regex=xy z", ""), delegate.getCommandLineArguments());
+
+        delegate.setCommandLineArguments("");
+        assertTrue(delegate.getCommandLineArguments().isEmpty());
+    }
+
+    @Test
+    public void rejectsUnterminatedQuote() {
+        LogCatDelegate delegate = new CollectingDelegate();
+        for (String arguments : new String[]{"-e 'a b", "-e \"a\\\"", "\"'"}) {
+            try {
+                delegate.setCommandLineArguments(arguments);
+                fail("accepted " + arguments);
+            } catch (IllegalArgumentException expected) {
+                assertEquals(Arrays.asList("-b", "all"), delegate.getCommandLineArguments());
+            }
+        }
+    }
+
+    @Test
+    public void rejectsFormatArguments() {
+        LogCatDelegate delegate = new CollectingDelegate();
+        String[] rejected = {"-v brief", "-vbrief", "-b all --format brief", "--format=brief"};
+        for (String arguments : rejected) {
+            try {
+                delegate.setCommandLineArguments(arguments);
+                fail("accepted " + arguments);
+            } catch (IllegalArgumentException expected) {
+                assertEquals(Arrays.asList("-b", "all"), delegate.getCommandLineArguments());
+            }
+        }
+        try {
+            delegate.setCommandLineArguments(Arrays.asList("-b", "main", "--format=threadtime"));
+            fail("accepted --format=threadtime");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(Arrays.asList("-b", "all"), delegate.getCommandLineArguments());
+        }
+
+        delegate.setCommandLineArguments("-b main -T 10 --regex=format");
+        assertEquals(5, delegate.getCommandLineArguments().size());
+    }
+
+    @Test(timeout = 30000)
+    public void pauseDropsLinesAndResumeKeepsProcess() throws Exception {
+        String script = FakeLogCat.endless(folder.getRoot(), sample(10));
+        CollectingDelegate delegate = new CollectingDelegate();
+        delegate.setExecutable(script);
+
+        delegate.register();
+        awaitMessages(delegate, 100);
+        delegate.pause();
+        assertTrue(delegate.isPaused());
+
+        // A line already being parsed when the delegate was paused may still be delivered.
+        Thread.sleep(200);
+        int beforePause = delegate.getMessages().size();
+        long linesRead = delegate.getMetrics().getLinesRead();
+        Thread.sleep(500);
+        assertEquals(beforePause, delegate.getMessages().size());
+        assertEquals(linesRead, delegate.getMetrics().getLinesRead());
+        assertEquals(1, FakeLogCat.countProcesses(script));
+
+        delegate.resume();
+        assertFalse(delegate.isPaused());
+        awaitMessages(delegate, beforePause + 100);
+        assertEquals(1, FakeLogCat.countProcesses(script));
+        assertEquals(0, delegate.getMetrics().getRestarts());
+
+        delegate.deregister();
+        assertTrue(delegate.errors.isEmpty());
+        awaitNoThreadsOrProcesses(script);
+    }
+
+    @Test
+    public void discardStopsDeliveringBufferedLines() throws Exception {
+        assertDeliveredAfterDiscard(false, 1);
+    }
+
+    @Test
+    public void discardStopsDeliveringQueuedMessages() throws Exception {
+        // One message may be in flight on the delivery thread, and one more may have been passed
+        // to the lanes by the sequencer just as they were cleared.
+        assertDeliveredAfterDiscard(true, 2);
+    }
+
+    /**
+     * Registers and de-registers the delegate thousands of times with every combination of
+     * parser threads, priority lanes, low-latency mode and shutdown policy, and checks that no
+     * thread or child-process outlives the registrations.
+     */
+    @Test(timeout = 120000)
+    public void stressRegisterDeregister() throws Exception {
+        TestLogs.assumeBenchmarks();
+        String script = FakeLogCat.endless(folder.getRoot(), sample(50));
+        CollectingDelegate delegate = new CollectingDelegate() {
+            @Override
+            protected void onNewMessage(LogCatMessage message) {
+                // Only keep a count, the messages themselves are not checked.
+                synchronized (messages) {
+                    if (messages.isEmpty()) {
+                        messages.add(message);
+                    }
+                }
+            }
+        };
+        delegate.setExecutable(script);
+        delegate.setShutdownTimeout(2000);
+
+        Random random = new Random(1);
+        long start = System.currentTimeMillis();
+        int cycles = 5000;
+        for (int i = 0; i < cycles; i++) {
+            delegate.setParserThreads(i % 2 == 0 ? 1 : 2, 16);
+            delegate.setPriorityLanes((i / 2) % 2 == 0 ? null : new LogCatPriorityLanes(256));
+            delegate.setLowLatency((i / 4) % 2 == 0);
+            delegate.setShutdownPolicy((i / 8) % 2 == 0
+                ? LogCatDelegate.ShutdownPolicy.Drain : LogCatDelegate.ShutdownPolicy.Discard);
+
+            delegate.register();
+            assertTrue(delegate.isRegistered());
+            if (random.nextInt(4) == 0) {
+                Thread.sleep(random.nextInt(3));
+            }
+            if (random.nextBoolean()) {
+                delegate.deregister();
+                assertFalse(delegate.isRegistered());
+            } else {
+                // The next register() waits for this registration to shut down.
+                delegate.deregisterAsync();
+            }
+        }
+        delegate.deregister();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(delegate.errors.toString(), delegate.errors.isEmpty());
+        assertEquals(0, delegate.getMetrics().getQueueDepth());
+        awaitNoThreadsOrProcesses(script);
+        TestLogs.report("register and deregister", String.format(
+            "%d cycles in %d ms, %.2f ms each", cycles, elapsed, elapsed / (double) cycles
+        ));
+    }
+
+    /**
+     * Blocks the listener without responding to interrupts, and checks that de-registering gives
+     * up after the grace period and that no new registration starts until the listener returns.
+     */
+    private void assertRefusesWhileListenerIsBlocked(boolean lanes) throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        CollectingDelegate delegate = new CollectingDelegate() {
+            @Override
+            protected void onNewMessage(LogCatMessage message) {
+                blocked.countDown();
+                boolean interrupted = false;
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onNewMessage(message);
+            }
+        };
+        String script = FakeLogCat.endless(folder.getRoot(), sample(10));
+        delegate.setExecutable(script);
+        delegate.setShutdownTimeout(300);
+        if (lanes) {
+            delegate.setPriorityLanes(new LogCatPriorityLanes(64));
+        }
+
+        delegate.register();
+        assertTrue(blocked.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        Future<Void> completion = delegate.deregisterAsync();
+        long start = System.currentTimeMillis();
+        delegate.deregister();
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("deregister took " + elapsed + " ms", elapsed < 300 + 1000 + 1000);
+        assertFalse(completion.isDone());
+
+        delegate.register();
+        assertFalse(delegate.isRegistered());
+        assertEquals(1, delegate.errors.size());
+        assertTrue(delegate.errors.get(0) instanceof IllegalStateException);
+
+        release.countDown();
+        completion.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        delegate.register();
+        assertTrue(delegate.isRegistered());
+        delegate.deregister();
+        assertEquals(1, delegate.errors.size());
+        awaitNoThreadsOrProcesses(script);
+    }
+
+    /**
+     * De-registers the delegate while it is busy with the discard policy, and checks how many
+     * messages are delivered once de-registration has started.
+     */
+    private void assertDeliveredAfterDiscard(boolean queued, int allowed) throws Exception {
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicInteger afterStop = new AtomicInteger();
+        CollectingDelegate delegate = new CollectingDelegate() {
+            @Override
+            protected void onNewMessage(LogCatMessage message) {
+                if (stopped.get()) {
+                    afterStop.incrementAndGet();
+                }
+                super.onNewMessage(message);
+            }
+        };
+        delegate.setExecutable(FakeLogCat.endless(folder.getRoot(), sample(100)));
+        delegate.setShutdownPolicy(LogCatDelegate.ShutdownPolicy.Discard);
+        if (queued) {
+            delegate.setParserThreads(2, 64);
+            delegate.setPriorityLanes(new LogCatPriorityLanes(4096));
+        }
+
+        delegate.register();
+        awaitMessages(delegate, 2000);
+        Future<Void> completion = delegate.deregisterAsync();
+        stopped.set(true);
+        completion.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        assertTrue("delivered " + afterStop.get() + " after de-registering",
+            afterStop.get() <= allowed);
+        assertEquals(0, delegate.getMetrics().getQueueDepth());
+    }
+
+    /**
+     * Waits until every thread of the delegate has finished and no process is running the
+     * script.
+     */
+    private static void awaitNoThreadsOrProcesses(String script) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            List<String> threads = new ArrayList<>();
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith("LogCatDelegate-") && thread.isAlive()) {
+                    threads.add(thread.getName());
+                }
+            }
+            int processes = FakeLogCat.countProcesses(script);
+            if (threads.isEmpty() && processes <= 0)
+                return;
+
+            assertTrue("threads " + threads + ", processes " + processes,
+                System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Creates lines of every priority.
+     */
+    private static List<String> sample(int count) {
+        char[] priorities = {'V', 'D', 'I', 'W', 'E'};
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(FakeLogCat.line(priorities[i % priorities.length], "Tag", "message " + i));
+        }
+        return lines;
+    }
+
+    /**
+     * Waits until the delegate has received a number of messages.
+     */
+    private static void awaitMessages(CollectingDelegate delegate, int count)
+        throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (delegate.getMessages().size() < count) {
+            assertTrue("received " + delegate.getMessages().size() + " of " + count,
+                System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatFieldExtractor}, as a stage and ahead of the filters of a delegate.
+ */
+public class LogCatFieldExtractorTest {
+    private final List<LogCatMessage> emitted = new ArrayList<>();
+    private final LogCatStage.Output output = new LogCatStage.Output() {
+        @Override
+        public void emit(LogCatMessage message) {
+            emitted.add(message);
+        }
+    };
+
+    @Test
+    public void appliesRulesOnlyToTheirTag() {
+        LogCatFieldExtractor extractor = displayedExtractor();
+        LogCatMessage other = message("WindowManager", "Displayed com.example/.Main: +250ms");
+        extractor.process(other, output);
+
+        assertSame(other, emitted.get(0));
+        assertTrue(emitted.get(0).getFields().isEmpty());
+    }
+
+    @Test
+    public void convertsCapturedValues() {
+        LogCatFieldExtractor extractor = displayedExtractor();
+        extractor.addRule("ActivityManager", "load ([0-9.]+)",
+            new LogCatFieldExtractor.Field("load", LogCatFieldExtractor.Type.Double));
+        extractor.process(
+            message("ActivityManager", "Displayed com.example/.Main: +250ms, load 0.75"), output
+        );
+
+        LogCatMessage message = emitted.get(0);
+        assertEquals("com.example/.Main", message.getField("component"));
+        assertEquals(250L, message.getField("displayedMs"));
+        assertEquals(0.75, message.getField("load"));
+        assertEquals(3, message.getFields().size());
+        assertEquals("Displayed com.example/.Main: +250ms, load 0.75", message.getMessage());
+    }
+
+    @Test
+    public void passesThroughMessagesNoRuleMatches() {
+        LogCatFieldExtractor extractor = displayedExtractor();
+        LogCatMessage message = message("ActivityManager", "Start proc 1234:com.example");
+        extractor.process(message, output);
+
+        assertSame(message, emitted.get(0));
+        assertTrue(message.getFields().isEmpty());
+    }
+
+    @Test
+    public void skipsValuesThatAreNotNumbers() {
+        LogCatFieldExtractor extractor = new LogCatFieldExtractor();
+        extractor.addRule("Net", "took (\\S+) ms(?: to (\\S+))?",
+            new LogCatFieldExtractor.Field("took", LogCatFieldExtractor.Type.Long),
+            new LogCatFieldExtractor.Field("host", LogCatFieldExtractor.Type.String));
+        extractor.process(message("Net", "took soon ms"), output);
+        extractor.process(message("Net", "took 99999999999999999999 ms to example.com"), output);
+
+        // A match without any usable value still gets an empty set of fields.
+        assertTrue(emitted.get(0).getFields().isEmpty());
+        assertNull(emitted.get(1).getField("took"));
+        assertEquals("example.com", emitted.get(1).getField("host"));
+    }
+
+    @Test
+    public void removesRulesOfTag() {
+        LogCatFieldExtractor extractor = displayedExtractor();
+        extractor.removeRules("ActivityManager");
+        extractor.process(message("ActivityManager", "Displayed com.example/.Main: +250ms"),
+            output);
+
+        assertTrue(emitted.get(0).getFields().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRuleWithWrongNumberOfFields() {
+        new LogCatFieldExtractor().addRule("Tag", "(a)(b)",
+            new LogCatFieldExtractor.Field("a", LogCatFieldExtractor.Type.String));
+    }
+
+    @Test
+    public void fieldsAreVisibleToFiltersWhenSetOnDelegate() {
+        CollectingDelegate delegate = new CollectingDelegate();
+        delegate.setFieldExtractor(displayedExtractor());
+        delegate.addMessageFilter(new LogCatMessageFilter("") {
+            @Override
+            public boolean isValid(LogCatMessage message) {
+                Long displayedMs = (Long) message.getField("displayedMs");
+                return displayedMs != null && displayedMs > 500;
+            }
+        });
+
+        assertNull(delegate.accept(line("Displayed com.example/.Fast: +120ms"), 0));
+        assertNull(delegate.accept(line("Start proc 1234:com.example"), 0));
+        LogCatMessage slow = delegate.accept(line("Displayed com.example/.Slow: +900ms"), 0);
+        assertNotNull(slow);
+        assertEquals(900L, slow.getField("displayedMs"));
+    }
+
+    private static LogCatFieldExtractor displayedExtractor() {
+        LogCatFieldExtractor extractor = new LogCatFieldExtractor();
+        extractor.addRule("ActivityManager", "Displayed (\\S+): \\+(\\d+)ms",
+            new LogCatFieldExtractor.Field("component", LogCatFieldExtractor.Type.String),
+            new LogCatFieldExtractor.Field("displayedMs", LogCatFieldExtractor.Type.Long));
+        return extractor;
+    }
+
+    private static String line(String body) {
+        return "01-02 03:04:05.678  1234  1250 I ActivityManager: " + body;
+    }
+
+    private static LogCatMessage message(String tag, String body) {
+        return TestLogs.message(0, Log.INFO, 100, tag, body);
+    }
+}
@@ -0,0 +1,239 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the verdict cache of {@link LogCatFilterChain}, and a benchmark of filtering with a
+ * cached verdict against evaluating the filters.
+ */
+public class LogCatFilterChainTest {
+    private final LogCatMetrics metrics = new LogCatMetrics();
+
+    @Test
+    public void cachesVerdictByTagAndPriority() {
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY.with(tagFilter("Network|Storage"));
+
+        assertTrue(chain.isValid(message(Log.INFO, "Network"), metrics));
+        assertTrue(chain.isValid(message(Log.INFO, "Network"), metrics));
+        assertFalse(chain.isValid(message(Log.INFO, "Other"), metrics));
+        assertFalse(chain.isValid(message(Log.INFO, "Other"), metrics));
+        // Verdicts are cached separately for each priority.
+        assertTrue(chain.isValid(message(Log.ERROR, "Network"), metrics));
+
+        assertEquals(2, metrics.getFilterCacheHits());
+        assertEquals(3, metrics.getFilterCacheMisses());
+    }
+
+    @Test
+    public void invalidatesVerdictWhenFilterIsReversed() {
+        LogCatMessageFilter filter = tagFilter("Network");
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY.with(filter);
+        assertTrue(chain.isValid(message(Log.INFO, "Network"), metrics));
+
+        filter.setReverse(true);
+        assertFalse(chain.isValid(message(Log.INFO, "Network"), metrics));
+        assertTrue(chain.isValid(message(Log.INFO, "Other"), metrics));
+
+        filter.setReverse(false);
+        assertTrue(chain.isValid(message(Log.INFO, "Network"), metrics));
+        assertEquals(0, metrics.getFilterCacheHits());
+    }
+
+    @Test
+    public void stopsCachingWhenSpanIsNoLongerTag() {
+        LogCatMessageFilter filter = tagFilter("Network");
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY.with(filter);
+        assertTrue(chain.isValid(message(Log.INFO, "Network", "body"), metrics));
+
+        filter.setMessageSpan(LogCatMessageFilter.MessageSpan.Message);
+        assertFalse(chain.isValid(message(Log.INFO, "Network", "body"), metrics));
+        assertTrue(chain.isValid(message(Log.INFO, "Other", "Network"), metrics));
+        assertEquals(1, metrics.getFilterCacheMisses());
+    }
+
+    @Test
+    public void reconfiguringFilterOutsideChainKeepsVerdicts() {
+        LogCatMessageFilter other = tagFilter("Storage");
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY.with(tagFilter("Network"));
+        LogCatFilterChain otherChain = LogCatFilterChain.EMPTY.with(other);
+        chain.isValid(message(Log.INFO, "Network"), metrics);
+        otherChain.isValid(message(Log.INFO, "Network"), metrics);
+
+        other.setReverse(true);
+        assertTrue(chain.isValid(message(Log.INFO, "Network"), metrics));
+        assertEquals(1, metrics.getFilterCacheHits());
+        assertTrue(otherChain.isValid(message(Log.INFO, "Network"), metrics));
+        assertEquals(1, metrics.getFilterCacheHits());
+        assertEquals(3, metrics.getFilterCacheMisses());
+    }
+
+    @Test
+    public void reconfiguringAnyFilterOfChainInvalidatesVerdicts() {
+        LogCatMessageFilter first = tagFilter("Network|Storage");
+        LogCatMessageFilter second = tagFilter("Network|Other");
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY.with(first).with(second);
+        assertTrue(chain.isValid(message(Log.INFO, "Network"), metrics));
+        assertFalse(chain.isValid(message(Log.INFO, "Storage"), metrics));
+
+        second.setReverse(true);
+        assertFalse(chain.isValid(message(Log.INFO, "Network"), metrics));
+        assertTrue(chain.isValid(message(Log.INFO, "Storage"), metrics));
+        first.setReverse(true);
+        assertFalse(chain.isValid(message(Log.INFO, "Storage"), metrics));
+        assertEquals(0, metrics.getFilterCacheHits());
+    }
+
+    @Test
+    public void evictsVerdictsOneAtATimeWhenFull() {
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY.with(tagFilter("Tag[0-9]*0"));
+        int capacity = LogCatFilterChain.CACHE_CAPACITY;
+        for (int i = 0; i < capacity; i++) {
+            chain.isValid(message(Log.INFO, "Tag" + i), metrics);
+        }
+        assertEquals(capacity, chain.getCachedVerdicts(Log.INFO));
+
+        chain.isValid(message(Log.INFO, "New"), metrics);
+        assertEquals(capacity, chain.getCachedVerdicts(Log.INFO));
+        assertEquals(capacity + 1, metrics.getFilterCacheMisses());
+
+        // Only a few of the cached tags have been evicted to make room for the new ones.
+        for (int i = 0; i < capacity; i++) {
+            chain.isValid(message(Log.INFO, "Tag" + i), metrics);
+        }
+        assertTrue("hits " + metrics.getFilterCacheHits(),
+            metrics.getFilterCacheHits() > capacity * 9 / 10);
+        assertEquals(capacity, chain.getCachedVerdicts(Log.INFO));
+    }
+
+    @Test
+    public void combinesPriorityAndTagFilters() {
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY
+            .with(tagFilter("Network"))
+            .with(new LogCatPriorityFilter(Arrays.asList(
+                new LogCatPriority(Log.WARN), new LogCatPriority(Log.ERROR)
+            )));
+
+        for (int pass = 0; pass < 2; pass++) {
+            assertTrue(chain.isValid(message(Log.WARN, "Network"), metrics));
+            assertTrue(chain.isValid(message(Log.ERROR, "Network"), metrics));
+            assertFalse(chain.isValid(message(Log.INFO, "Network"), metrics));
+            assertFalse(chain.isValid(message(Log.ERROR, "Other"), metrics));
+        }
+        assertEquals(4, metrics.getFilterCacheHits());
+        assertEquals(4, metrics.getFilterCacheMisses());
+    }
+
+    @Test
+    public void evaluatesCustomFiltersEveryTime() {
+        final AtomicInteger evaluations = new AtomicInteger();
+        LogCatMessageFilter custom = new LogCatMessageFilter("Network") {
+            @Override
+            public boolean isValid(LogCatMessage message) {
+                evaluations.incrementAndGet();
+                return !message.getMessage().contains("secret");
+            }
+        };
+        custom.setMessageSpan(LogCatMessageFilter.MessageSpan.Tag);
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY.with(custom);
+
+        assertTrue(chain.isValid(message(Log.INFO, "Network", "public"), metrics));
+        assertFalse(chain.isValid(message(Log.INFO, "Network", "secret"), metrics));
+        assertEquals(2, evaluations.get());
+        assertEquals(0, metrics.getFilterCacheMisses());
+    }
+
+    @Test
+    public void newChainDoesNotShareVerdicts() {
+        LogCatMessageFilter filter = tagFilter("Network");
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY.with(filter);
+        assertFalse(chain.isValid(message(Log.INFO, "Other"), metrics));
+
+        LogCatFilterChain without = chain.without(filter);
+        assertTrue(without.isValid(message(Log.INFO, "Other"), metrics));
+        assertSame(without, without.without(filter));
+        assertFalse(chain.with(tagFilter(".*")).isValid(message(Log.INFO, "Other"), metrics));
+    }
+
+    @Test
+    public void staysCorrectBeyondCacheCapacity() {
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY.with(tagFilter("Tag[0-9]*0"));
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < LogCatFilterChain.CACHE_CAPACITY * 3; i++) {
+                assertEquals(i % 10 == 0, chain.isValid(message(Log.INFO, "Tag" + i), metrics));
+            }
+        }
+    }
+
+    /**
+     * Measures the time to filter canned messages through a chain with a tag and a priority
+     * filter, whose verdicts are cached, against evaluating both filters for every message.
+     */
+    @Test
+    public void benchmarkCacheHitPath() {
+        TestLogs.assumeBenchmarks();
+        List<LogCatMessage> messages = new ArrayList<>();
+        for (String line : TestLogs.threadtime(200000, 1)) {
+            messages.add(LogCatMessage.from(line));
+        }
+        LogCatMessageFilter tags = tagFilter("ActivityManager|WindowManager|MyApp|OkHttp");
+        LogCatMessageFilter priorities = new LogCatPriorityFilter(Arrays.asList(
+            new LogCatPriority(Log.INFO), new LogCatPriority(Log.WARN),
+            new LogCatPriority(Log.ERROR)
+        ));
+        LogCatFilterChain chain = LogCatFilterChain.EMPTY.with(tags).with(priorities);
+
+        long cached = Long.MAX_VALUE;
+        long uncached = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            int passed = 0;
+            long start = System.nanoTime();
+            for (LogCatMessage message : messages) {
+                if (chain.isValid(message, metrics)) {
+                    passed++;
+                }
+            }
+            cached = Math.min(cached, System.nanoTime() - start);
+
+            int expected = 0;
+            start = System.nanoTime();
+            for (LogCatMessage message : messages) {
+                if (tags.isValid(message) && priorities.isValid(message)) {
+                    expected++;
+                }
+            }
+            uncached = Math.min(uncached, System.nanoTime() - start);
+            assertEquals(expected, passed);
+        }
+
+        long hits = metrics.getFilterCacheHits();
+        TestLogs.report("filter chain", String.format(
+            "%d messages: cached %.1f ns/message, uncached %.1f ns/message, %.2f%% hits",
+            messages.size(), cached / (double) messages.size(),
+            uncached / (double) messages.size(),
+            100D * hits / (hits + metrics.getFilterCacheMisses())
+        ));
+    }
+
+    private static LogCatMessageFilter tagFilter(String pattern) {
+        LogCatMessageFilter filter = new LogCatMessageFilter(pattern);
+        filter.setMessageSpan(LogCatMessageFilter.MessageSpan.Tag);
+        return filter;
+    }
+
+    private static LogCatMessage message(int priority, String tag) {
+        return message(priority, tag, "message");
+    }
+
+    private static LogCatMessage message(int priority, String tag, String body) {
+        return TestLogs.message(0, priority, 100, tag, body);
+    }
+}
@@ -0,0 +1,144 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatFlows}.
+ */
+public class LogCatFlowsTest {
+    @Test
+    public void batchHoldsFinalBatchUntilRequested() {
+        Source<Integer> source = new Source<>(1, 2, 3, 4);
+        TestSubscriber<List<Integer>> subscriber = new TestSubscriber<>();
+        LogCatFlows.batch(source, 2).subscribe(subscriber);
+
+        subscriber.request(2);
+        assertEquals(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4)), subscriber.items);
+
+        // An item pushed past the demand leaves a partial batch when the source completes.
+        source.push(5);
+        source.complete();
+        assertEquals(2, subscriber.items.size());
+        assertFalse(subscriber.completed);
+
+        subscriber.request(1);
+        assertEquals(Arrays.asList(5), subscriber.items.get(2));
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void batchDeliversFinalBatchWithOutstandingDemand() {
+        Source<Integer> source = new Source<>(1, 2, 3);
+        TestSubscriber<List<Integer>> subscriber = new TestSubscriber<>();
+        LogCatFlows.batch(source, 2).subscribe(subscriber);
+
+        subscriber.request(5);
+        source.complete();
+
+        assertEquals(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3)), subscriber.items);
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void batchCompletesWithoutDemandWhenEmpty() {
+        Source<Integer> source = new Source<>(1, 2);
+        TestSubscriber<List<Integer>> subscriber = new TestSubscriber<>();
+        LogCatFlows.batch(source, 2).subscribe(subscriber);
+
+        subscriber.request(1);
+        source.complete();
+
+        assertEquals(1, subscriber.items.size());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void filterReplacesRejectedItems() {
+        Source<Integer> source = new Source<>(1, 2, 3, 4, 5, 6, 7, 8);
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        LogCatFlows.filter(source, new LogCatFlows.Predicate<Integer>() {
+            @Override
+            public boolean test(Integer item) {
+                return item % 2 == 0;
+            }
+        }).subscribe(subscriber);
+
+        subscriber.request(3);
+        assertEquals(Arrays.asList(2, 4, 6), subscriber.items);
+        assertEquals(2, source.items.size());
+    }
+
+    @Test
+    public void mapForwardsTerminalSignals() {
+        Source<Integer> source = new Source<>(1, 2);
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        LogCatFlows.map(source, new LogCatFlows.Function<Integer, String>() {
+            @Override
+            public String apply(Integer item) {
+                return "#" + item;
+            }
+        }).subscribe(subscriber);
+
+        subscriber.request(1);
+        assertEquals(Arrays.asList("#1"), subscriber.items);
+
+        IllegalStateException error = new IllegalStateException("failed");
+        source.fail(error);
+        assertSame(error, subscriber.error);
+    }
+
+    /**
+     * A publisher of fixed items that emits what has been requested on the thread that requests
+     * them, and can also be made to push items regardless of demand.
+     */
+    private static final class Source<T> implements LogCatPublisher<T> {
+        final ArrayDeque<T> items;
+        private LogCatSubscriber<? super T> subscriber;
+
+        @SafeVarargs
+        Source(T... items) {
+            this.items = new ArrayDeque<>(items.length);
+            for (T item : items) {
+                this.items.add(item);
+            }
+        }
+
+        @Override
+        public void subscribe(@NonNull final LogCatSubscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(new LogCatSubscription() {
+                @Override
+                public void request(long n) {
+                    for (long i = 0; i < n && !items.isEmpty(); i++) {
+                        subscriber.onNext(items.poll());
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    items.clear();
+                }
+            });
+        }
+
+        void push(T item) {
+            subscriber.onNext(item);
+        }
+
+        void complete() {
+            subscriber.onComplete();
+        }
+
+        void fail(Throwable error) {
+            subscriber.onError(error);
+        }
+    }
+}
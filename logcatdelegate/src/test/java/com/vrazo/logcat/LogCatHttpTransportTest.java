@@ -0,0 +1,103 @@
+package com.vrazo.logcat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the responses {@link LogCatHttpTransport} treats as success, as a batch to retry and
+ * as a batch the collector rejected for good, against a local HTTP server.
+ */
+public class LogCatHttpTransportTest {
+    private HttpServer server;
+    private LogCatHttpTransport transport;
+
+    private volatile int status;
+    private volatile String contentEncoding;
+    private volatile int received;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/batches", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                InputStream input = exchange.getRequestBody();
+                int length = 0;
+                while (input.read() != -1) {
+                    length++;
+                }
+                received = length;
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        transport = new LogCatHttpTransport(
+            new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/batches")
+        );
+        transport.setTimeouts(5000, 5000);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test(timeout = 30000)
+    public void acceptsSuccessfulResponses() throws IOException {
+        for (int code : new int[]{200, 202, 204}) {
+            status = code;
+            transport.send(batch());
+            assertEquals("gzip", contentEncoding);
+            assertEquals(batch().getPayload().length, received);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void rejectsBatchOnClientError() {
+        for (int code : new int[]{400, 401, 404, 413, 422}) {
+            status = code;
+            try {
+                transport.send(batch());
+                fail("accepted HTTP " + code);
+            } catch (LogCatShipper.RejectedException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().contains("" + code));
+            } catch (IOException e) {
+                fail("HTTP " + code + " is retried: " + e);
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void retriesBatchOnOtherErrors() {
+        for (int code : new int[]{408, 429, 500, 503}) {
+            status = code;
+            try {
+                transport.send(batch());
+                fail("accepted HTTP " + code);
+            } catch (LogCatShipper.RejectedException e) {
+                fail("HTTP " + code + " is rejected for good");
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().contains("" + code));
+            }
+        }
+    }
+
+    private static LogCatShipper.Batch batch() {
+        return new LogCatShipper.Batch(new byte[]{31, -117, 8, 0}, LogCatShipper.Format.Json, 1);
+    }
+}
@@ -0,0 +1,131 @@
+package com.vrazo.logcat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that {@link LogCatLineParser} produces the same messages as the regular expression of
+ * {@link LogCatMessage#from(String)}, and a benchmark of both and of a complete dump.
+ */
+public class LogCatLineParserTest {
+    @Test
+    public void matchesRegexOnCannedOutput() {
+        LogCatLineParser parser = new LogCatLineParser();
+        for (String line : TestLogs.threadtime(50000, 1)) {
+            assertSameResult(line, LogCatMessage.from(line), parser.parse(line));
+        }
+    }
+
+    @Test
+    public void matchesRegexOnUnusualLines() {
+        List<String> lines = Arrays.asList(
+            "01-02 03:04:05.678  1234  5678 I Tag: message",
+            "   01-02 03:04:05.678  1234  5678 I Tag: leading spaces",
+            "01-02 03:04:05.678 1 2 D Tag: narrow columns",
+            "01-02 03:04:05.678 123456789 123456789 W Tag: wide columns",
+            "01-02 03:04:05.678  1234  5678 E Tag with spaces: message",
+            "01-02 03:04:05.678  1234  5678 E : empty tag",
+            "01-02 03:04:05.678  1234  5678 F Tag: message: with: colons",
+            "01-02 03:04:05.678  1234  5678 V Tag:\tafter a tab",
+            "01-02 03:04:05.678  1234  5678 V Tag:    after spaces",
+            "01-02 03:04:05.678  1234  5678 I Tag: unicode é中😀",
+            "01-02 03:04:05.678  1234  5678 I Tag: ",
+            "01-02 03:04:05.678  1234  5678 I Tag:",
+            "01-02 03:04:05.678  1234  5678 I Tag:no space",
+            "01-02 03:04:05.678  1234  5678 X Tag: unknown priority",
+            "01-02 03:04:05.678  1234  5678 i Tag: lower case priority",
+            "01-02 03:04:05.678  1234 I Tag: missing tid",
+            "01-02 03:04:05  1234  5678 I Tag: missing millis",
+            "1-02 03:04:05.678  1234  5678 I Tag: short month",
+            "01-02T03:04:05.678  1234  5678 I Tag: ISO separator",
+            "--------- beginning of main",
+            "--------- beginning of crash",
+            "",
+            "garbage"
+        );
+
+        LogCatLineParser parser = new LogCatLineParser();
+        for (String line : lines) {
+            assertSameResult(line, LogCatMessage.from(line), parser.parse(line));
+        }
+        assertEquals(lines.size(), parser.getLineCount());
+    }
+
+    @Test
+    public void matchesRegexAcrossMinutesAndDays() {
+        LogCatLineParser parser = new LogCatLineParser();
+        String[] times = {
+            "01-01 00:00:00.000", "01-01 00:00:59.999", "01-01 00:01:00.000",
+            "02-28 23:59:59.999", "03-01 00:00:00.000", "06-15 12:30:00.500",
+            "12-31 23:59:59.999", "01-01 00:00:00.000"
+        };
+        for (String time : times) {
+            String line = time + "  1234  5678 I Tag: at " + time;
+            assertSameResult(line, LogCatMessage.from(line), parser.parse(line));
+        }
+    }
+
+    /**
+     * Measures the throughput of parsing canned lines with the regular expression and with the
+     * parser, and of a complete dump from a stream.
+     */
+    @Test
+    public void benchmarkParseAndDump() throws IOException {
+        TestLogs.assumeBenchmarks();
+        List<String> lines = TestLogs.threadtime(200000, 2);
+        long regex = Long.MAX_VALUE;
+        long parsed = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            for (String line : lines) {
+                assertNotNull(LogCatMessage.from(line));
+            }
+            regex = Math.min(regex, System.nanoTime() - start);
+
+            LogCatLineParser parser = new LogCatLineParser();
+            start = System.nanoTime();
+            for (String line : lines) {
+                assertNotNull(parser.parse(line));
+            }
+            parsed = Math.min(parsed, System.nanoTime() - start);
+        }
+
+        byte[] input = TestLogs.join(lines);
+        CollectingDelegate delegate = new CollectingDelegate();
+        long dump = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            List<LogCatMessage> messages = delegate.dump(new ByteArrayInputStream(input), 1000);
+            dump = Math.min(dump, System.nanoTime() - start);
+            assertEquals(1000, messages.size());
+        }
+
+        TestLogs.report("line parser", String.format(
+            "%d lines: regex %.0f lines/s, parser %.0f lines/s (%.1fx), dump %.0f lines/s",
+            lines.size(), linesPerSecond(lines.size(), regex),
+            linesPerSecond(lines.size(), parsed), regex / (double) parsed,
+            linesPerSecond(lines.size(), dump)
+        ));
+    }
+
+    private static double linesPerSecond(int lines, long nanos) {
+        return lines / (nanos / 1e9);
+    }
+
+    private static void assertSameResult(String line, LogCatMessage expected,
+                                         LogCatMessage actual) {
+        if (expected == null) {
+            assertNull(line, actual);
+            return;
+        }
+        assertNotNull(line, actual);
+        TestLogs.assertSameMessage(expected, actual);
+        assertEquals(line, expected.getFormatted(), actual.getFormatted());
+    }
+}
@@ -0,0 +1,169 @@
+package com.vrazo.logcat;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatLineReader} against a {@link BufferedReader}, and a benchmark of their
+ * throughput on canned Log Cat output.
+ */
+public class LogCatLineReaderTest {
+    @Test
+    public void splitsLinesLikeBufferedReader() throws IOException {
+        byte[] input = (
+            "first\n" +
+            "\n" +
+            "windows\r\n" +
+            "unicode é中😀 end\n" +
+            "a line that is much longer than the initial buffer of the reader\n" +
+            "no terminator"
+        ).getBytes(TestLogs.UTF_8);
+
+        for (int chunk : new int[]{1, 2, 3, 7, 64, 4096}) {
+            assertEquals("chunk " + chunk, readBuffered(input), read(input, chunk, 16));
+        }
+    }
+
+    @Test
+    public void splitsCannedOutputInRandomChunks() throws IOException {
+        byte[] input = TestLogs.join(TestLogs.threadtime(20000, 1));
+        List<String> expected = readBuffered(input);
+        for (int chunk : new int[]{1, 17, 1000, 65536}) {
+            assertEquals("chunk " + chunk, expected, read(input, chunk, 64));
+        }
+    }
+
+    @Test
+    public void returnsNullForEmptyInput() throws IOException {
+        LogCatLineReader reader = new LogCatLineReader(new ByteArrayInputStream(new byte[0]));
+        assertNull(reader.readLine());
+        assertFalse(reader.ready());
+    }
+
+    @Test
+    public void readyWhileLinesAreBuffered() throws IOException {
+        LogCatLineReader reader = new LogCatLineReader(
+            new ByteArrayInputStream("one\ntwo\n".getBytes(TestLogs.UTF_8))
+        );
+        assertTrue(reader.ready());
+        assertEquals("one", reader.readLine());
+        assertTrue(reader.ready());
+        assertEquals("two", reader.readLine());
+        assertFalse(reader.ready());
+        assertNull(reader.readLine());
+    }
+
+    /**
+     * Measures the throughput of splitting canned output into lines, against a
+     * {@link BufferedReader} over an {@link InputStreamReader}.
+     */
+    @Test
+    public void benchmarkThroughput() throws IOException {
+        TestLogs.assumeBenchmarks();
+        byte[] input = TestLogs.join(TestLogs.threadtime(200000, 2));
+        long reader = Long.MAX_VALUE;
+        long buffered = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            LogCatLineReader lineReader = new LogCatLineReader(new ByteArrayInputStream(input));
+            int lines = 0;
+            while (lineReader.readLine() != null) {
+                lines++;
+            }
+            reader = Math.min(reader, System.nanoTime() - start);
+            assertEquals(200000, lines);
+
+            start = System.nanoTime();
+            BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(input), TestLogs.UTF_8
+            ));
+            lines = 0;
+            while (bufferedReader.readLine() != null) {
+                lines++;
+            }
+            buffered = Math.min(buffered, System.nanoTime() - start);
+            assertEquals(200000, lines);
+        }
+
+        TestLogs.report("line reader", String.format(
+            "%d KiB: LogCatLineReader %.0f MiB/s, BufferedReader %.0f MiB/s",
+            input.length / 1024, mebibytesPerSecond(input.length, reader),
+            mebibytesPerSecond(input.length, buffered)
+        ));
+    }
+
+    private static double mebibytesPerSecond(int bytes, long nanos) {
+        return bytes / 1048576D / (nanos / 1e9);
+    }
+
+    private static List<String> read(byte[] input, int chunk, int bufferSize) throws IOException {
+        LogCatLineReader reader = new LogCatLineReader(new ChunkedInputStream(input, chunk),
+            bufferSize);
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private static List<String> readBuffered(byte[] input) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new ByteArrayInputStream(input), TestLogs.UTF_8
+        ));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * A stream that returns at most a fixed number of bytes from each read, or a random number
+     * up to it, like a pipe that is written to in small pieces.
+     */
+    private static final class ChunkedInputStream extends InputStream {
+        private final byte[] data;
+        private final int chunk;
+        private final Random random = new Random(1);
+        private int position;
+
+        ChunkedInputStream(byte[] data, int chunk) {
+            this.data = Arrays.copyOf(data, data.length);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position == data.length)
+                return -1;
+            int count = Math.min(Math.min(length, 1 + random.nextInt(chunk)),
+                data.length - position);
+            System.arraycopy(data, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return data.length - position;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatLogModel} on a plain JVM, with a frame scheduler that only records the
+ * frames it is asked for.
+ */
+public class LogCatLogModelTest {
+    private final List<Runnable> frames =
+        Collections.synchronizedList(new ArrayList<Runnable>());
+    private final List<int[]> changes = new ArrayList<>();
+    private LogCatLogModel model;
+
+    @Before
+    public void setUp() {
+        model = create(5);
+    }
+
+    @Test
+    public void schedulesOneFramePerBatch() {
+        for (int i = 0; i < 3; i++) {
+            model.append(message(i));
+        }
+        assertEquals(1, frames.size());
+        assertEquals(0, model.size());
+
+        frames.remove(0).run();
+        assertEquals(3, model.size());
+        assertChanges(new int[]{0, 3});
+
+        model.append(message(3));
+        assertEquals(1, frames.size());
+    }
+
+    @Test
+    public void dispatchWithoutPendingLinesDoesNotNotify() {
+        model.dispatchChanges();
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void trimsOldestLines() {
+        append(0, 4);
+        model.dispatchChanges();
+        append(4, 3);
+        model.dispatchChanges();
+
+        assertEquals(5, model.size());
+        assertChanges(new int[]{0, 4}, new int[]{2, 3});
+        assertLines(2, 5);
+    }
+
+    @Test
+    public void replacesVisibleLinesWhenPendingExceedCapacity() {
+        append(0, 3);
+        model.dispatchChanges();
+        append(3, 12);
+        model.dispatchChanges();
+
+        assertEquals(5, model.size());
+        assertChanges(new int[]{0, 3}, new int[]{3, 5});
+        assertLines(10, 5);
+    }
+
+    @Test
+    public void keepsPositionsOfTagAndBody() {
+        model.append(TestLogs.message(0, Log.WARN, 100, "Network", "connection lost"));
+        model.dispatchChanges();
+
+        LogCatLogModel.Line line = model.getLine(0);
+        assertEquals(Log.WARN, line.getPriority());
+        assertEquals("Network", line.getText().substring(line.getTagStart(), line.getTagEnd()));
+        assertEquals("connection lost", line.getText().substring(line.getMessageStart()));
+        assertTrue(line.getText().contains(" W Network: "));
+    }
+
+    @Test
+    public void clearRemovesVisibleAndPendingLines() {
+        append(0, 3);
+        model.dispatchChanges();
+        append(3, 2);
+        model.clear();
+        model.dispatchChanges();
+
+        assertEquals(0, model.size());
+        assertChanges(new int[]{0, 3}, new int[]{3, 0});
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsPositionOutsideVisibleLines() {
+        append(0, 3);
+        model.getLine(0);
+    }
+
+    @Test
+    public void appliesAppendsFromOtherThreads() throws InterruptedException {
+        model = create(1000);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int first = t * 10000;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = first; i < first + 10000; i++) {
+                        model.append(message(i));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        // Dispatch concurrently with the appends, as the main thread would.
+        int dispatched = 0;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                model.dispatchChanges();
+                dispatched++;
+            }
+        }
+        model.dispatchChanges();
+
+        int inserted = 0;
+        int removed = 0;
+        for (int[] change : changes) {
+            removed += change[0];
+            inserted += change[1];
+        }
+        assertEquals(1000, model.size());
+        assertEquals(1000, inserted - removed);
+        // A frame is only requested again once the previous one has been dispatched.
+        assertTrue(frames.size() <= dispatched + 1);
+        assertTrue(changes.size() <= dispatched + 1);
+    }
+
+    private LogCatLogModel create(int capacity) {
+        LogCatLogModel model = new LogCatLogModel(capacity, new LogCatLogModel.FrameScheduler() {
+            @Override
+            public void scheduleFrame(@NonNull Runnable dispatch) {
+                frames.add(dispatch);
+            }
+        });
+        model.setListener(new LogCatLogModel.Listener() {
+            @Override
+            public void onLinesChanged(int removedFromStart, int insertedAtEnd) {
+                changes.add(new int[]{removedFromStart, insertedAtEnd});
+            }
+        });
+        return model;
+    }
+
+    private void append(int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            model.append(message(i));
+        }
+    }
+
+    private void assertChanges(int[]... expected) {
+        assertEquals(expected.length, changes.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], changes.get(i));
+        }
+    }
+
+    private void assertLines(int first, int count) {
+        assertEquals(count, model.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(model.getLine(i).getText().endsWith("message " + (first + i)));
+        }
+    }
+
+    private static LogCatMessage message(int i) {
+        return TestLogs.message(i, Log.INFO, 100, "Tag", "message " + i);
+    }
+}
@@ -0,0 +1,46 @@
+package com.vrazo.logcat;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the latencies recorded in {@link LogCatMetrics} as messages are delivered.
+ */
+public class LogCatMetricsTest {
+    private static final long DELIVERY_MILLIS = 20;
+
+    @Test
+    public void endToEndLatencyIncludesDelivery() {
+        CollectingDelegate delegate = new CollectingDelegate() {
+            @Override
+            protected void onNewMessage(LogCatMessage message) {
+                super.onNewMessage(message);
+                try {
+                    Thread.sleep(DELIVERY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        List<String> lines = TestLogs.threadtime(5, 1);
+        for (String line : lines) {
+            LogCatMessage message = delegate.accept(line, System.nanoTime());
+            assertNotNull(message);
+            delegate.dispatch(message);
+        }
+
+        LogCatMetrics metrics = delegate.getMetrics();
+        long deliveryNanos = TimeUnit.MILLISECONDS.toNanos(DELIVERY_MILLIS);
+        assertEquals(lines.size(), metrics.getDelivered());
+        assertEquals(lines.size(), metrics.getEndToEndLatency().getCount());
+        assertTrue(metrics.getDeliverLatency().getPercentileNanos(0) >= deliveryNanos);
+        assertTrue(metrics.getEndToEndLatency().getPercentileNanos(0) >= deliveryNanos);
+        assertTrue(metrics.getEndToEndLatency().getMeanNanos() >=
+            metrics.getDeliverLatency().getMeanNanos());
+    }
+}
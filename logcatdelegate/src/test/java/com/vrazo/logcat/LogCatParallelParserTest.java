@@ -0,0 +1,166 @@
+package com.vrazo.logcat;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the ordering of {@link LogCatParallelParser}, and a benchmark of its throughput
+ * against the number of worker threads.
+ */
+public class LogCatParallelParserTest {
+    @Test
+    public void deliversInOriginalOrder() throws InterruptedException {
+        List<String> lines = TestLogs.threadtime(50000, 1);
+        CollectingDelegate delegate = new CollectingDelegate();
+        LogCatParallelParser parser = new LogCatParallelParser(delegate, 4, 16);
+
+        // Batches of varying sizes, so that workers finish out of order.
+        Random random = new Random(1);
+        for (String line : lines) {
+            parser.add(line, System.nanoTime(), random.nextInt(8) != 0);
+        }
+        parser.close(false);
+
+        assertInOrder(delegate.getMessages(), lines.size(), null);
+        assertEquals(0, delegate.getMetrics().getQueueDepth());
+        assertTrue(delegate.errors.isEmpty());
+    }
+
+    @Test
+    public void deliversFilteredMessagesInOrder() throws InterruptedException {
+        List<String> lines = TestLogs.threadtime(20000, 2);
+        CollectingDelegate delegate = new CollectingDelegate();
+        LogCatMessageFilter filter = new LogCatMessageFilter("chatty");
+        filter.setMessageSpan(LogCatMessageFilter.MessageSpan.Tag);
+        filter.setReverse(true);
+        delegate.addMessageFilter(filter);
+
+        LogCatParallelParser parser = new LogCatParallelParser(delegate, 3, 7);
+        for (String line : lines) {
+            parser.add(line, System.nanoTime(), true);
+        }
+        parser.close(false);
+
+        List<LogCatMessage> messages = delegate.getMessages();
+        assertTrue(messages.size() < lines.size());
+        assertInOrder(messages, lines.size(), "chatty");
+        assertEquals(0, delegate.getMetrics().getQueueDepth());
+    }
+
+    @Test
+    public void dropsOnlyLinesWhoseFilterThrows() throws InterruptedException {
+        List<String> lines = TestLogs.threadtime(5000, 5);
+        CollectingDelegate delegate = new CollectingDelegate();
+        delegate.addMessageFilter(new LogCatMessageFilter("") {
+            @Override
+            public boolean isValid(LogCatMessage message) {
+                if (message.getMessage().startsWith("message 1000 ")) {
+                    throw new IllegalStateException("broken filter");
+                }
+                return true;
+            }
+        });
+
+        LogCatParallelParser parser = new LogCatParallelParser(delegate, 2, 64);
+        for (String line : lines) {
+            parser.add(line, System.nanoTime(), true);
+        }
+        parser.close(false);
+
+        List<LogCatMessage> messages = delegate.getMessages();
+        assertEquals(lines.size() - 1, messages.size());
+        assertTrue(messages.get(1000).getMessage().startsWith("message 1001 "));
+        assertEquals(1, delegate.errors.size());
+        assertTrue(delegate.errors.get(0) instanceof IllegalStateException);
+        assertEquals(0, delegate.getMetrics().getQueueDepth());
+    }
+
+    @Test
+    public void discardsUndeliveredBatches() throws InterruptedException {
+        List<String> lines = TestLogs.threadtime(10000, 3);
+        CollectingDelegate delegate = new CollectingDelegate();
+        LogCatParallelParser parser = new LogCatParallelParser(delegate, 2, 64);
+        for (String line : lines) {
+            parser.add(line, System.nanoTime(), true);
+        }
+        parser.close(true);
+
+        // Whatever was delivered before closing is a prefix of the input.
+        List<LogCatMessage> messages = delegate.getMessages();
+        assertTrue(messages.size() <= lines.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertTrue(messages.get(i).getMessage().startsWith("message " + i + " "));
+        }
+        assertEquals(0, delegate.getMetrics().getQueueDepth());
+    }
+
+    /**
+     * Measures the throughput of parsing and filtering on the calling thread against the
+     * parallel parser with an increasing number of workers. The speedup depends on the number
+     * of cores available, so only the order of the messages is asserted.
+     */
+    @Test
+    public void benchmarkSpeedupByWorkers() throws InterruptedException {
+        TestLogs.assumeBenchmarks();
+        List<String> lines = TestLogs.threadtime(200000, 4);
+
+        // The first pass warms up the parser.
+        long serialNanos = Long.MAX_VALUE;
+        long start;
+        for (int pass = 0; pass < 2; pass++) {
+            CollectingDelegate serial = new CollectingDelegate();
+            start = System.nanoTime();
+            for (String line : lines) {
+                LogCatMessage message = serial.accept(line, start);
+                if (message != null) {
+                    serial.dispatch(message);
+                }
+            }
+            serialNanos = Math.min(serialNanos, System.nanoTime() - start);
+            assertInOrder(serial.getMessages(), lines.size(), null);
+        }
+        TestLogs.report("parallel parser", String.format(
+            "%d lines, %d cores: serial %.0f lines/s",
+            lines.size(), Runtime.getRuntime().availableProcessors(),
+            lines.size() / (serialNanos / 1e9)
+        ));
+
+        for (int workers : new int[]{1, 2, 4}) {
+            CollectingDelegate delegate = new CollectingDelegate();
+            LogCatParallelParser parser = new LogCatParallelParser(delegate, workers, 256);
+            start = System.nanoTime();
+            for (String line : lines) {
+                parser.add(line, start, true);
+            }
+            parser.close(false);
+            long nanos = System.nanoTime() - start;
+
+            assertInOrder(delegate.getMessages(), lines.size(), null);
+            TestLogs.report("parallel parser", String.format(
+                "%d workers: %.0f lines/s, %.2fx serial",
+                workers, lines.size() / (nanos / 1e9), serialNanos / (double) nanos
+            ));
+        }
+    }
+
+    /**
+     * Asserts that every line, except those with the excluded tag, was delivered in order.
+     */
+    private static void assertInOrder(List<LogCatMessage> messages, int lines, String excluded) {
+        int expected = 0;
+        for (LogCatMessage message : messages) {
+            assertNotEquals(excluded, message.getTag());
+            String body = message.getMessage();
+            int index = Integer.parseInt(body.substring(8, body.indexOf(' ', 8)));
+            assertTrue("message " + index + " after " + (expected - 1), index >= expected);
+            expected = index + 1;
+        }
+        if (excluded == null) {
+            assertEquals(lines, messages.size());
+        }
+    }
+}
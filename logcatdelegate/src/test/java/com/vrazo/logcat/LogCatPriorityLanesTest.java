@@ -0,0 +1,92 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatPriorityLanes}.
+ */
+public class LogCatPriorityLanesTest {
+    @Test
+    public void deliversLanesByWeight() throws InterruptedException {
+        LogCatPriorityLanes lanes = new LogCatPriorityLanes(64);
+        lanes.setLane(new LogCatPriority(Log.ERROR), 64, 3);
+        lanes.setLane(new LogCatPriority(Log.DEBUG), 64, 1);
+        int generation = lanes.open();
+        for (int i = 0; i < 10; i++) {
+            lanes.offer(message(Log.DEBUG, i));
+            lanes.offer(message(Log.ERROR, i));
+        }
+
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            int priority = lanes.take(generation).getPriority().getNumeric();
+            order.append(priority == Log.ERROR ? 'E' : 'D');
+        }
+        assertEquals("EEEDEEED", order.toString());
+        assertEquals(12, lanes.size());
+    }
+
+    @Test
+    public void discardsOldestMessageOfFullLane() throws InterruptedException {
+        LogCatPriorityLanes lanes = new LogCatPriorityLanes(2);
+        int generation = lanes.open();
+        assertNull(lanes.offer(message(Log.INFO, 0)));
+        assertNull(lanes.offer(message(Log.INFO, 1)));
+        assertEquals("message 0", lanes.offer(message(Log.INFO, 2)).getMessage());
+        assertNull(lanes.offer(message(Log.WARN, 0)));
+
+        assertEquals(1, lanes.getDropped(new LogCatPriority(Log.INFO)));
+        assertEquals(0, lanes.getDropped(new LogCatPriority(Log.WARN)));
+        assertEquals(2, lanes.size(new LogCatPriority(Log.INFO)));
+        assertEquals("message 0", lanes.take(generation).getMessage());
+        assertEquals("message 1", lanes.take(generation).getMessage());
+    }
+
+    @Test
+    public void openDiscardsMessagesOfPreviousRegistration() throws InterruptedException {
+        LogCatPriorityLanes lanes = new LogCatPriorityLanes(16);
+        int previous = lanes.open();
+        lanes.offer(message(Log.ERROR, 0));
+        lanes.offer(message(Log.INFO, 1));
+
+        int generation = lanes.open();
+        assertEquals(0, lanes.size());
+        lanes.offer(message(Log.INFO, 2));
+
+        // The previous registration can no longer take or clear messages of the new one.
+        assertNull(lanes.take(previous));
+        assertEquals(0, lanes.clear(previous));
+        lanes.close(previous);
+        assertEquals("message 2", lanes.take(generation).getMessage());
+        assertEquals(0, lanes.size());
+    }
+
+    @Test(timeout = 10000)
+    public void closeReleasesWaitingTake() throws InterruptedException {
+        final LogCatPriorityLanes lanes = new LogCatPriorityLanes(16);
+        final int generation = lanes.open();
+        final LogCatMessage[] taken = new LogCatMessage[1];
+        Thread taker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taken[0] = lanes.take(generation);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        taker.start();
+
+        lanes.close(generation);
+        taker.join();
+        assertNull(taken[0]);
+    }
+
+    private static LogCatMessage message(int priority, int index) {
+        return TestLogs.message(index, priority, 100, "Tag", "message " + index);
+    }
+}
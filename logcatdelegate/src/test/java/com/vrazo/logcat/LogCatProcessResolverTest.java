@@ -0,0 +1,159 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatProcessResolver} and {@link LogCatProcessEnricher} against a temporary
+ * directory laid out like the proc filesystem.
+ */
+public class LogCatProcessResolverTest {
+    private static final int LIVE_PID = 1234;
+    private static final int DEAD_PID = 4321;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.newFolder("proc");
+        writeProcess(LIVE_PID, "app_process", 5000, "com.example.app:worker\0--flag\0");
+    }
+
+    @Test
+    public void resolvesLivePid() {
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 16, 60000);
+        assertEquals("com.example.app:worker", resolver.resolve(LIVE_PID));
+    }
+
+    @Test
+    public void resolvesDeadPidToNull() {
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 16, 60000);
+        assertNull(resolver.resolve(DEAD_PID));
+        assertNull(resolver.resolve(DEAD_PID));
+        assertEquals(1, resolver.getHits());
+        assertEquals(1, resolver.getMisses());
+    }
+
+    @Test
+    public void cachesWithinInterval() throws IOException {
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 16, 60000);
+        resolver.resolve(LIVE_PID);
+        writeProcess(LIVE_PID, "app_process", 6000, "com.example.other\0");
+
+        assertEquals("com.example.app:worker", resolver.resolve(LIVE_PID));
+        assertEquals(1, resolver.getHits());
+        assertEquals(1, resolver.getMisses());
+    }
+
+    @Test
+    public void keepsNameWhileStartTimeIsUnchanged() throws IOException {
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 16, 0);
+        resolver.resolve(LIVE_PID);
+        // Only the start time is compared, so the command line is not read again.
+        FakeProc.writeFile(new File(root, LIVE_PID + "/cmdline"), "com.example.other\0");
+
+        assertEquals("com.example.app:worker", resolver.resolve(LIVE_PID));
+        assertEquals(1, resolver.getHits());
+    }
+
+    @Test
+    public void detectsReusedPid() throws IOException {
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 16, 0);
+        resolver.resolve(LIVE_PID);
+        writeProcess(LIVE_PID, "app_process", 6000, "com.example.other\0");
+
+        assertEquals("com.example.other", resolver.resolve(LIVE_PID));
+        assertEquals(2, resolver.getMisses());
+    }
+
+    @Test
+    public void detectsProcessThatDied() throws IOException {
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 16, 0);
+        assertNotNull(resolver.resolve(LIVE_PID));
+        deleteProcess(LIVE_PID);
+
+        assertNull(resolver.resolve(LIVE_PID));
+    }
+
+    @Test
+    public void parsesCommandNameWithSpacesAndParentheses() throws IOException {
+        writeProcess(77, "Binder (main) 2", 900, "com.example.binder\0");
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 16, 0);
+        assertEquals("com.example.binder", resolver.resolve(77));
+        assertEquals("com.example.binder", resolver.resolve(77));
+        assertEquals(1, resolver.getHits());
+    }
+
+    @Test
+    public void ignoresProcessWithoutCommandLine() throws IOException {
+        writeProcess(78, "kworker/0:1", 10, "");
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 16, 0);
+        assertNull(resolver.resolve(78));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        for (int pid = 1; pid <= 3; pid++) {
+            writeProcess(pid, "app_process", pid, "process" + pid + "\0");
+        }
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 2, 60000);
+        resolver.resolve(1);
+        resolver.resolve(2);
+        resolver.resolve(1);
+        resolver.resolve(3);
+
+        // 2 was evicted, 1 was used more recently.
+        resolver.resolve(1);
+        assertEquals(2, resolver.getHits());
+        resolver.resolve(2);
+        assertEquals(4, resolver.getMisses());
+    }
+
+    @Test
+    public void enricherAddsProcessName() throws IOException {
+        LogCatProcessEnricher enricher = new LogCatProcessEnricher(
+            new LogCatProcessResolver(root, 16, 0)
+        );
+        final List<LogCatMessage> emitted = new ArrayList<>();
+        LogCatStage.Output output = new LogCatStage.Output() {
+            @Override
+            public void emit(LogCatMessage message) {
+                emitted.add(message);
+            }
+        };
+
+        LogCatMessage live = TestLogs.message(0, Log.INFO, LIVE_PID, "Tag", "alive");
+        LogCatMessage dead = TestLogs.message(1, Log.INFO, DEAD_PID, "Tag", "gone");
+        enricher.process(live, output);
+        enricher.process(dead, output);
+
+        assertEquals(2, emitted.size());
+        assertEquals("com.example.app:worker", emitted.get(0).getProcessName());
+        TestLogs.assertSameMessage(live, emitted.get(0));
+        assertSame(dead, emitted.get(1));
+        assertNull(emitted.get(1).getProcessName());
+    }
+
+    private void writeProcess(int pid, String command, long startTime, String cmdline)
+        throws IOException {
+        FakeProc.writeProcess(root, pid, command, startTime, cmdline);
+    }
+
+    private void deleteProcess(int pid) {
+        FakeProc.deleteProcess(root, pid);
+    }
+}
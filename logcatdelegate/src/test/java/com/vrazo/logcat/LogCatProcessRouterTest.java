@@ -0,0 +1,163 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatProcessRouter}, on its own and behind a {@link LogCatProcessEnricher} in
+ * the pipeline of a delegate.
+ */
+public class LogCatProcessRouterTest {
+    private static final int APP_PID = 1000;
+    private static final int WORKER_PID = 1001;
+    private static final int OTHER_PID = 2000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<LogCatMessage> emitted = new ArrayList<>();
+    private final LogCatStage.Output output = new LogCatStage.Output() {
+        @Override
+        public void emit(LogCatMessage message) {
+            emitted.add(message);
+        }
+    };
+    private final Listener app = new Listener();
+    private final Listener other = new Listener();
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.newFolder("proc");
+        FakeProc.writeProcess(root, APP_PID, "app_process", 100, "com.example.app\0");
+        FakeProc.writeProcess(root, WORKER_PID, "app_process", 200, "com.example.app:worker\0");
+        FakeProc.writeProcess(root, OTHER_PID, "app_process", 300, "com.example.other\0");
+    }
+
+    @Test
+    public void routesByPackageIncludingSecondaryProcesses() {
+        LogCatProcessRouter router = new LogCatProcessRouter();
+        router.addRoute("com.example.app", app);
+        router.addRoute("com.example.other", other);
+
+        router.process(message("com.example.app", "main"), output);
+        router.process(message("com.example.app:worker", "worker"), output);
+        router.process(message("com.example.other", "other"), output);
+
+        assertBodies(app.messages, "main", "worker");
+        assertBodies(other.messages, "other");
+        assertTrue(emitted.isEmpty());
+    }
+
+    @Test
+    public void passesOnUnroutedMessages() {
+        LogCatProcessRouter router = new LogCatProcessRouter();
+        router.addRoute("com.example.app", app);
+
+        router.process(message("com.example.application", "prefix"), output);
+        router.process(message(null, "unresolved"), output);
+        router.process(message("system_server", "system"), output);
+
+        assertTrue(app.messages.isEmpty());
+        assertBodies(emitted, "prefix", "unresolved", "system");
+    }
+
+    @Test
+    public void replacesAndRemovesRoutes() {
+        LogCatProcessRouter router = new LogCatProcessRouter();
+        router.addRoute("com.example.app", app);
+        router.process(message("com.example.app", "first"), output);
+
+        router.addRoute("com.example.app", other);
+        router.process(message("com.example.app", "second"), output);
+
+        router.removeRoute("com.example.app");
+        router.process(message("com.example.app", "third"), output);
+
+        assertBodies(app.messages, "first");
+        assertBodies(other.messages, "second");
+        assertBodies(emitted, "third");
+    }
+
+    @Test
+    public void routesThroughEnricherInDelegatePipeline() {
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 16, 60000);
+        LogCatProcessRouter router = new LogCatProcessRouter();
+        router.addRoute("com.example.app", app);
+
+        CollectingDelegate delegate = new CollectingDelegate();
+        delegate.addStage(new LogCatProcessEnricher(resolver));
+        delegate.addStage(router);
+
+        for (int i = 0; i < 10; i++) {
+            delegate.dispatch(TestLogs.message(i, Log.INFO, APP_PID, "Tag", "app " + i));
+            delegate.dispatch(TestLogs.message(i, Log.INFO, WORKER_PID, "Tag", "worker " + i));
+            delegate.dispatch(TestLogs.message(i, Log.INFO, OTHER_PID, "Tag", "other " + i));
+        }
+
+        assertEquals(20, app.messages.size());
+        assertEquals("com.example.app:worker", app.messages.get(1).getProcessName());
+        List<LogCatMessage> delivered = delegate.getMessages();
+        assertEquals(10, delivered.size());
+        for (LogCatMessage message : delivered) {
+            assertEquals("com.example.other", message.getProcessName());
+        }
+
+        // Each pid is read from the proc directory once, then served from the cache.
+        assertEquals(3, resolver.getMisses());
+        assertEquals(27, resolver.getHits());
+    }
+
+    @Test
+    public void enricherRevalidatesReusedPid() throws IOException {
+        LogCatProcessResolver resolver = new LogCatProcessResolver(root, 16, 0);
+        LogCatProcessEnricher enricher = new LogCatProcessEnricher(resolver);
+        assertSame(resolver, enricher.getResolver());
+
+        enricher.process(TestLogs.message(0, Log.INFO, OTHER_PID, "Tag", "before"), output);
+        FakeProc.deleteProcess(root, OTHER_PID);
+        FakeProc.writeProcess(root, OTHER_PID, "app_process", 400, "com.example.reused\0");
+        enricher.process(TestLogs.message(1, Log.INFO, OTHER_PID, "Tag", "after"), output);
+
+        assertEquals("com.example.other", emitted.get(0).getProcessName());
+        assertEquals("com.example.reused", emitted.get(1).getProcessName());
+    }
+
+    private static LogCatMessage message(String processName, String body) {
+        LogCatMessage message = TestLogs.message(0, Log.INFO, APP_PID, "Tag", body);
+        return processName == null ? message : message.withProcessName(processName);
+    }
+
+    private static void assertBodies(List<LogCatMessage> messages, String... bodies) {
+        assertEquals(bodies.length, messages.size());
+        for (int i = 0; i < bodies.length; i++) {
+            assertEquals(bodies[i], messages.get(i).getMessage());
+        }
+    }
+
+    /**
+     * A listener that keeps the messages routed to it.
+     */
+    private static final class Listener implements LogCatMessageListener {
+        final List<LogCatMessage> messages = new ArrayList<>();
+
+        @Override
+        public void onNewMessage(@NonNull LogCatMessage message) {
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the demand, overflow and terminal signals of {@link LogCatPublisherDelegate}.
+ */
+public class LogCatPublisherDelegateTest {
+    @Test
+    public void deliversOnlyRequestedMessages() {
+        LogCatPublisherDelegate publisher = new LogCatPublisherDelegate(100);
+        TestSubscriber<LogCatMessage> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        publish(publisher, 0, 10);
+        assertTrue(subscriber.items.isEmpty());
+
+        subscriber.request(3);
+        assertBodies(subscriber.items, 0, 3);
+
+        subscriber.request(20);
+        assertBodies(subscriber.items, 0, 10);
+
+        // Outstanding demand is served directly.
+        publish(publisher, 10, 5);
+        assertBodies(subscriber.items, 0, 15);
+    }
+
+    @Test
+    public void dropsOldestWhenBufferIsFull() {
+        LogCatPublisherDelegate publisher = new LogCatPublisherDelegate(4);
+        TestSubscriber<LogCatMessage> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        publish(publisher, 0, 10);
+        subscriber.request(10);
+
+        assertBodies(subscriber.items, 6, 4);
+        assertEquals(6, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void dropsNewestWhenBufferIsFull() {
+        LogCatPublisherDelegate publisher = new LogCatPublisherDelegate(
+            4, LogCatPublisherDelegate.OverflowStrategy.DropNewest
+        );
+        TestSubscriber<LogCatMessage> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        publish(publisher, 0, 10);
+        subscriber.request(10);
+
+        assertBodies(subscriber.items, 0, 4);
+        assertEquals(6, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void slowSubscriberDoesNotHoldBackOthers() {
+        LogCatPublisherDelegate publisher = new LogCatPublisherDelegate(100);
+        TestSubscriber<LogCatMessage> fast = new TestSubscriber<>();
+        TestSubscriber<LogCatMessage> slow = new TestSubscriber<>();
+        publisher.subscribe(fast);
+        publisher.subscribe(slow);
+        fast.request(Long.MAX_VALUE);
+        slow.request(2);
+
+        publish(publisher, 0, 50);
+
+        assertBodies(fast.items, 0, 50);
+        assertBodies(slow.items, 0, 2);
+    }
+
+    @Test
+    public void completesAfterBufferedMessages() {
+        LogCatPublisherDelegate publisher = new LogCatPublisherDelegate(100);
+        TestSubscriber<LogCatMessage> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        publish(publisher, 0, 5);
+
+        publisher.onStopped(null);
+        assertFalse(subscriber.completed);
+
+        subscriber.request(4);
+        assertFalse(subscriber.completed);
+        subscriber.request(1);
+        assertBodies(subscriber.items, 0, 5);
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+
+        // Messages of a later registration only reach new subscribers.
+        publish(publisher, 5, 1);
+        assertEquals(5, subscriber.items.size());
+    }
+
+    @Test
+    public void signalsErrorWhenLogCatFails() {
+        LogCatPublisherDelegate publisher = new LogCatPublisherDelegate(100);
+        TestSubscriber<LogCatMessage> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.request(1);
+        publish(publisher, 0, 1);
+
+        LogCatDelegate.InitializationException error =
+            new LogCatDelegate.InitializationException("invalid exit code for logcat invocation");
+        publisher.onStopped(error);
+
+        assertBodies(subscriber.items, 0, 1);
+        assertSame(error, subscriber.error);
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void rejectsNonPositiveRequest() {
+        LogCatPublisherDelegate publisher = new LogCatPublisherDelegate(100);
+        TestSubscriber<LogCatMessage> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+        publish(publisher, 0, 1);
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertTrue(subscriber.items.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void rejectsNonPositiveRequestAfterOnNextReturns() throws Exception {
+        final CountDownLatch inOnNext = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final LogCatPublisherDelegate publisher = new LogCatPublisherDelegate(100);
+        final TestSubscriber<LogCatMessage> subscriber = new TestSubscriber<LogCatMessage>() {
+            @Override
+            public void onNext(@NonNull LogCatMessage item) {
+                inOnNext.countDown();
+                try {
+                    assertTrue(release.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                super.onNext(item);
+            }
+        };
+        publisher.subscribe(subscriber);
+        subscriber.request(1);
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                publish(publisher, 0, 1);
+            }
+        });
+        reader.start();
+        assertTrue(inOnNext.await(5, TimeUnit.SECONDS));
+
+        // The reader thread is inside onNext, so the error must wait for it to return.
+        subscriber.subscription.request(-1);
+        synchronized (subscriber) {
+            assertNull(subscriber.error);
+        }
+        release.countDown();
+        reader.join();
+
+        assertBodies(subscriber.items, 0, 1);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void cancelStopsDelivery() {
+        LogCatPublisherDelegate publisher = new LogCatPublisherDelegate(100);
+        TestSubscriber<LogCatMessage> subscriber = new TestSubscriber<>();
+        publisher.subscribe(subscriber);
+        subscriber.request(2);
+        publish(publisher, 0, 1);
+
+        subscriber.subscription.cancel();
+        publish(publisher, 1, 5);
+        publisher.onStopped(null);
+
+        assertBodies(subscriber.items, 0, 1);
+        assertFalse(subscriber.completed);
+    }
+
+    private static void publish(LogCatPublisherDelegate publisher, int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            publisher.onNewMessage(TestLogs.message(i, Log.INFO, 100, "Tag", "message " + i));
+        }
+    }
+
+    private static void assertBodies(List<LogCatMessage> messages, int first, int count) {
+        assertEquals(count, messages.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("message " + (first + i), messages.get(i).getMessage());
+        }
+    }
+}
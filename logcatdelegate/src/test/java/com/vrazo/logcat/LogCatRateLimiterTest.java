@@ -0,0 +1,144 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatRateLimiter}.
+ */
+public class LogCatRateLimiterTest {
+    private final List<LogCatMessage> emitted = new ArrayList<>();
+    private final LogCatStage.Output output = new LogCatStage.Output() {
+        @Override
+        public void emit(LogCatMessage message) {
+            emitted.add(message);
+        }
+    };
+
+    @Test
+    public void passesBurstThenDrops() {
+        LogCatRateLimiter limiter = new LogCatRateLimiter(1, 5);
+        for (int i = 0; i < 20; i++) {
+            limiter.process(message(0, "Storm", i), output);
+        }
+
+        assertEquals(5, emitted.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("message " + i, emitted.get(i).getMessage());
+        }
+        assertEquals(15, limiter.getDroppedCount());
+    }
+
+    @Test
+    public void refillsAtConfiguredRate() {
+        LogCatRateLimiter limiter = new LogCatRateLimiter(10, 2);
+        limiter.process(message(0, "Storm", 0), output);
+        limiter.process(message(0, "Storm", 1), output);
+        limiter.process(message(0, "Storm", 2), output);
+        assertEquals(2, emitted.size());
+
+        // One token every 100 milliseconds, and a fraction of a token is not enough.
+        limiter.process(message(99, "Storm", 3), output);
+        assertEquals(2, emitted.size());
+        limiter.process(message(100, "Storm", 4), output);
+        assertEquals(3, emitted.size());
+        limiter.process(message(150, "Storm", 5), output);
+        assertEquals(3, emitted.size());
+        limiter.process(message(200, "Storm", 6), output);
+        assertEquals(4, emitted.size());
+        assertEquals("message 6", emitted.get(3).getMessage());
+        assertEquals(3, limiter.getDroppedCount());
+    }
+
+    @Test
+    public void sustainsConfiguredRate() {
+        LogCatRateLimiter limiter = new LogCatRateLimiter(50, 10);
+        // 1000 messages a second for ten seconds.
+        for (int i = 0; i < 10000; i++) {
+            limiter.process(message(i, "Storm", i), output);
+        }
+
+        // The burst plus 50 messages for each of the ten seconds.
+        assertEquals(10 + 500, emitted.size(), 1);
+        assertEquals(10000 - emitted.size(), limiter.getDroppedCount());
+    }
+
+    @Test
+    public void refillDoesNotExceedBurst() {
+        LogCatRateLimiter limiter = new LogCatRateLimiter(100, 3);
+        limiter.process(message(0, "Storm", 0), output);
+        for (int i = 1; i <= 10; i++) {
+            limiter.process(message(60000, "Storm", i), output);
+        }
+
+        assertEquals(1 + 3, emitted.size());
+        assertEquals(7, limiter.getDroppedCount());
+    }
+
+    @Test
+    public void limitsEachTagSeparately() {
+        LogCatRateLimiter limiter = new LogCatRateLimiter(1, 2);
+        for (int i = 0; i < 10; i++) {
+            limiter.process(message(0, "Storm", i), output);
+        }
+        limiter.process(message(0, "Quiet", 0), output);
+        limiter.process(message(0, "Quiet", 1), output);
+
+        assertEquals(4, emitted.size());
+        assertEquals("Quiet", emitted.get(2).getTag());
+        assertEquals("Quiet", emitted.get(3).getTag());
+        assertEquals(8, limiter.getDroppedCount());
+    }
+
+    @Test
+    public void earlierTimestampsDoNotRefill() {
+        LogCatRateLimiter limiter = new LogCatRateLimiter(1000, 1);
+        limiter.process(message(1000, "Storm", 0), output);
+        limiter.process(message(0, "Storm", 1), output);
+        limiter.process(message(500, "Storm", 2), output);
+
+        assertEquals(1, emitted.size());
+        assertEquals(2, limiter.getDroppedCount());
+    }
+
+    @Test
+    public void forgetsLeastRecentlySeenTag() {
+        LogCatRateLimiter limiter = new LogCatRateLimiter(1, 1, 2);
+        limiter.process(message(0, "A", 0), output);
+        limiter.process(message(0, "B", 0), output);
+        limiter.process(message(0, "A", 1), output);
+        // C evicts B, the least recently seen, so B starts over with a full burst. That in turn
+        // evicts A, whose next message is no longer limited either.
+        limiter.process(message(0, "C", 0), output);
+        limiter.process(message(0, "B", 1), output);
+        limiter.process(message(0, "A", 2), output);
+        limiter.process(message(0, "B", 2), output);
+
+        assertEquals(5, emitted.size());
+        assertEquals("message 1", emitted.get(3).getMessage());
+        assertEquals("B", emitted.get(3).getTag());
+        assertEquals("message 2", emitted.get(4).getMessage());
+        assertEquals("A", emitted.get(4).getTag());
+        assertEquals(2, limiter.getDroppedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroRate() {
+        new LogCatRateLimiter(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroBurst() {
+        new LogCatRateLimiter(1, 0);
+    }
+
+    private static LogCatMessage message(long loggedAt, String tag, int index) {
+        return TestLogs.message(loggedAt, Log.INFO, 100, tag, "message " + index);
+    }
+}
@@ -0,0 +1,156 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatSampler}, with a clock that is advanced by the test.
+ */
+public class LogCatSamplerTest {
+    private long now;
+
+    private final LogCatSampler sampler = new LogCatSampler() {
+        @Override
+        long nanoTime() {
+            return now;
+        }
+    };
+
+    @Test
+    public void neverDropsProtectedPriorities() {
+        for (int priority = Log.VERBOSE; priority <= Log.ASSERT; priority++) {
+            sampler.setKeepRatio(new LogCatPriority(priority), 0);
+        }
+        sampler.setTargetMessagesPerSecond(1);
+
+        for (int i = 0; i < 1000; i++) {
+            now += 1000000;
+            assertTrue(sampler.isKept(message(Log.WARN, "Tag", i)));
+            assertTrue(sampler.isKept(message(Log.ERROR, "Tag", i)));
+            assertTrue(sampler.isKept(message(Log.ASSERT, "Tag", i)));
+            assertFalse(sampler.isKept(message(Log.INFO, "Tag", i)));
+        }
+
+        sampler.setProtectedPriority(new LogCatPriority(Log.ERROR));
+        assertFalse(sampler.isKept(message(Log.WARN, "Tag", 0)));
+        assertTrue(sampler.isKept(message(Log.ERROR, "Tag", 0)));
+    }
+
+    @Test
+    public void keepsRatioOfMessages() {
+        sampler.setKeepRatio(new LogCatPriority(Log.DEBUG), 0.25);
+        int kept = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (sampler.isKept(message(Log.DEBUG, "Tag", i))) {
+                kept++;
+            }
+        }
+        assertEquals(25000, kept, 1000);
+    }
+
+    @Test
+    public void decidesConsistentlyByTag() {
+        sampler.setKeepRatio(new LogCatPriority(Log.DEBUG), 0.5);
+        sampler.setKey(LogCatSampler.Key.Tag);
+        assertConsistent(false);
+    }
+
+    @Test
+    public void decidesConsistentlyByPid() {
+        sampler.setKeepRatio(new LogCatPriority(Log.DEBUG), 0.5);
+        sampler.setKey(LogCatSampler.Key.Pid);
+        assertConsistent(true);
+    }
+
+    @Test
+    public void keepsStaticRatioWhenUnderTarget() {
+        // The keep ratio alone brings 20000 messages a second down to 2000, under the target.
+        sampler.setKeepRatio(new LogCatPriority(Log.VERBOSE), 0.1);
+        sampler.setTargetMessagesPerSecond(5000);
+
+        int[] kept = run(20000, 10);
+        for (int second = 1; second < kept.length; second++) {
+            assertEquals("second " + second, 2000, kept[second], 200);
+        }
+        assertEquals(1D, sampler.getAdaptiveScale(), 0D);
+    }
+
+    @Test
+    public void convergesOnTarget() {
+        // The keep ratio alone keeps 10000 messages a second, twice the target.
+        sampler.setKeepRatio(new LogCatPriority(Log.VERBOSE), 0.1);
+        sampler.setTargetMessagesPerSecond(5000);
+
+        int[] kept = run(100000, 10);
+        for (int second = 2; second < kept.length; second++) {
+            assertEquals("second " + second, 5000, kept[second], 500);
+        }
+        assertEquals(0.5, sampler.getAdaptiveScale(), 0.05);
+    }
+
+    @Test
+    public void relaxesWhenInputSlowsDown() {
+        sampler.setKeepRatio(new LogCatPriority(Log.VERBOSE), 0.1);
+        sampler.setTargetMessagesPerSecond(5000);
+        run(100000, 5);
+        assertTrue(sampler.getAdaptiveScale() < 0.6);
+
+        int[] kept = run(20000, 10);
+        assertEquals(2000, kept[kept.length - 1], 200);
+        assertEquals(1D, sampler.getAdaptiveScale(), 0.01);
+    }
+
+    /**
+     * Samples messages spread evenly over a number of seconds.
+     *
+     * @return the number of messages kept in each second
+     */
+    private int[] run(int perSecond, int seconds) {
+        int[] kept = new int[seconds];
+        long step = 1000000000L / perSecond;
+        for (int second = 0; second < seconds; second++) {
+            for (int i = 0; i < perSecond; i++) {
+                now += step;
+                if (sampler.isKept(message(Log.VERBOSE, "Tag", i))) {
+                    kept[second]++;
+                }
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Asserts that every message of a tag, or of a process, gets the same decision, and that
+     * about half of them are kept.
+     */
+    private void assertConsistent(boolean byPid) {
+        Map<Integer, Boolean> decisions = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            int key = i % 200;
+            LogCatMessage message = byPid
+                ? TestLogs.message(i, Log.DEBUG, 1000 + key, "Tag" + i, "body")
+                : TestLogs.message(i, Log.DEBUG, 1000 + i, "Tag" + key, "body");
+            boolean kept = sampler.isKept(message);
+            Boolean previous = decisions.put(key, kept);
+            assertTrue("key " + key, previous == null || previous == kept);
+        }
+
+        int kept = 0;
+        for (boolean decision : decisions.values()) {
+            if (decision) {
+                kept++;
+            }
+        }
+        assertEquals(100, kept, 25);
+    }
+
+    private static LogCatMessage message(int priority, String tag, int index) {
+        return TestLogs.message(index, priority, 100, tag, "message " + index);
+    }
+}
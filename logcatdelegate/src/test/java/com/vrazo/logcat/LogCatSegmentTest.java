@@ -0,0 +1,271 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatSegmentWriter} and {@link LogCatSegmentReader}, and a benchmark of
+ * seeking by time against the size of the segment.
+ */
+public class LogCatSegmentTest {
+    private static final long START = 1700000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsTimeWindow() throws IOException {
+        List<LogCatMessage> messages = generate(20000, 1);
+        File segment = write(messages, 4096);
+
+        LogCatSegmentReader reader = new LogCatSegmentReader(segment);
+        try {
+            assertTrue(reader.getBlocks().size() > 10);
+            assertMatches(messages, reader.read(START + 5000, START + 5999), START + 5000,
+                START + 5999, null, Integer.MIN_VALUE);
+            assertMatches(messages, reader.read(Long.MIN_VALUE, Long.MAX_VALUE), Long.MIN_VALUE,
+                Long.MAX_VALUE, null, Integer.MIN_VALUE);
+            assertTrue(reader.read(START - 1000, START - 1).isEmpty());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void readsTagAndPriority() throws IOException {
+        List<LogCatMessage> messages = generate(20000, 2);
+        File segment = write(messages, 4096);
+
+        LogCatSegmentReader reader = new LogCatSegmentReader(segment);
+        try {
+            assertMatches(messages,
+                reader.read(START, START + 10000, "AndroidRuntime", null),
+                START, START + 10000, "AndroidRuntime", Integer.MIN_VALUE);
+            assertMatches(messages,
+                reader.read(START, START + 20000, null, new LogCatPriority(Log.ERROR)),
+                START, START + 20000, null, Log.ERROR);
+            assertTrue(reader.read(START, START + 20000, "NoSuchTag", null).isEmpty());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void indexSkipsBlocks() throws IOException {
+        List<LogCatMessage> messages = generate(20000, 3);
+        File segment = write(messages, 4096);
+
+        LogCatSegmentReader reader = new LogCatSegmentReader(segment);
+        try {
+            int candidates = 0;
+            for (LogCatSegmentBlock block : reader.getBlocks()) {
+                if (block.mayContain(START + 5000, START + 5099, null, Integer.MIN_VALUE)) {
+                    candidates++;
+                }
+            }
+            // A 100 message window spans at most a few blocks of roughly 90 messages.
+            assertTrue("blocks: " + candidates, candidates >= 1 && candidates <= 3);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnclosedSegment() throws IOException {
+        File segment = folder.newFile();
+        LogCatSegmentWriter writer = new LogCatSegmentWriter(segment);
+        for (LogCatMessage message : generate(1000, 4)) {
+            writer.append(message);
+        }
+        new LogCatSegmentReader(segment).close();
+    }
+
+    @Test
+    public void rejectsCorruptFooter() throws IOException {
+        File segment = write(generate(1000, 5), 4096);
+        long length = segment.length();
+        long indexOffset = readLong(segment, length - 16);
+
+        // The index offset and block count are checked before the index is read or allocated.
+        long[][] footers = {
+            {-1, 1}, {3, 1}, {length, 1}, {indexOffset, -1}, {indexOffset, Integer.MAX_VALUE}
+        };
+        for (long[] footer : footers) {
+            RandomAccessFile file = new RandomAccessFile(segment, "rw");
+            try {
+                file.seek(length - 16);
+                file.writeLong(footer[0]);
+                file.writeInt((int) footer[1]);
+            } finally {
+                file.close();
+            }
+            assertRejected(segment);
+        }
+    }
+
+    @Test
+    public void rejectsBlockOutsideSegmentData() throws IOException {
+        File segment = write(generate(1000, 6), 4096);
+        long indexOffset = readLong(segment, segment.length() - 16);
+
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.seek(indexOffset + 8);
+            file.writeInt(Integer.MAX_VALUE);
+        } finally {
+            file.close();
+        }
+        assertRejected(segment);
+    }
+
+    @Test
+    public void bloomFilterScalesWithTagsPerBlock() throws IOException {
+        // Every block holds about 200 distinct tags, far more than a fixed 256 bit filter can
+        // tell apart.
+        List<LogCatMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            messages.add(TestLogs.message(START + i, Log.INFO, 100, "Tag" + (i % 5000), "m"));
+        }
+        File segment = write(messages, 8192);
+
+        LogCatSegmentReader reader = new LogCatSegmentReader(segment);
+        try {
+            int candidates = 0;
+            int queries = 0;
+            for (LogCatSegmentBlock block : reader.getBlocks()) {
+                assertTrue(block.mayContainTag("Tag" + (block.getMinLoggedAt() - START) % 5000));
+                for (int i = 0; i < 100; i++) {
+                    queries++;
+                    if (block.mayContainTag("Absent" + i)) {
+                        candidates++;
+                    }
+                }
+            }
+            assertTrue("false positives " + candidates + " of " + queries,
+                candidates < queries * 0.05);
+            assertMatches(messages, reader.read(START, START + 20000, "Tag42", null),
+                START, START + 20000, "Tag42", Integer.MIN_VALUE);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Measures the time to read a one second window from segments of increasing size, against
+     * decompressing the whole segment. The time of an indexed read should stay roughly constant.
+     */
+    @Test
+    public void benchmarkSeekLatency() throws IOException {
+        TestLogs.assumeBenchmarks();
+        for (int size : new int[]{10000, 100000, 400000}) {
+            List<LogCatMessage> messages = generate(size, size);
+            File segment = write(messages, 32 * 1024);
+            long from = START + size / 2;
+            long to = from + 999;
+
+            LogCatSegmentReader reader = new LogCatSegmentReader(segment);
+            try {
+                List<LogCatMessage> window = null;
+                long indexed = Long.MAX_VALUE;
+                for (int i = 0; i < 20; i++) {
+                    long start = System.nanoTime();
+                    window = reader.read(from, to);
+                    indexed = Math.min(indexed, System.nanoTime() - start);
+                }
+
+                long start = System.nanoTime();
+                List<LogCatMessage> all = reader.read(Long.MIN_VALUE, Long.MAX_VALUE);
+                long scan = System.nanoTime() - start;
+
+                assertEquals(1000, window.size());
+                assertEquals(size, all.size());
+                TestLogs.report("segment seek", String.format(
+                    "%d messages, %d blocks, %d KiB: window %.2f ms, full scan %.2f ms",
+                    size, reader.getBlocks().size(), segment.length() / 1024,
+                    indexed / 1e6, scan / 1e6
+                ));
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Generates messages one millisecond apart.
+     */
+    private static List<LogCatMessage> generate(int count, long seed) {
+        Random random = new Random(seed);
+        List<LogCatMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String tag = TestLogs.TAGS[random.nextInt(TestLogs.TAGS.length)];
+            messages.add(TestLogs.message(
+                START + i, Log.VERBOSE + random.nextInt(6), 100 + random.nextInt(10), tag,
+                "message " + i + " " + Long.toHexString(random.nextLong())
+            ));
+        }
+        return messages;
+    }
+
+    private File write(List<LogCatMessage> messages, int blockSize) throws IOException {
+        File segment = folder.newFile();
+        LogCatSegmentWriter writer = new LogCatSegmentWriter(segment);
+        writer.setBlockSize(blockSize);
+        for (LogCatMessage message : messages) {
+            writer.append(message);
+        }
+        writer.close();
+        return segment;
+    }
+
+    private static long readLong(File file, long position) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.seek(position);
+            return input.readLong();
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void assertRejected(File segment) {
+        try {
+            new LogCatSegmentReader(segment).close();
+            fail("corrupt segment was read");
+        } catch (IOException expected) {
+            /* The segment is rejected */
+        }
+    }
+
+    /**
+     * Asserts that the messages read are exactly those matching the query, in order.
+     */
+    private static void assertMatches(List<LogCatMessage> messages, List<LogCatMessage> actual,
+                                      long from, long to, String tag, int priority) {
+        List<LogCatMessage> expected = new ArrayList<>();
+        for (LogCatMessage message : messages) {
+            long loggedAt = message.getLoggedAt().getTime();
+            if (loggedAt >= from && loggedAt <= to &&
+                message.getPriority().getNumeric() >= priority &&
+                (tag == null || tag.equals(message.getTag()))) {
+                expected.add(message);
+            }
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            TestLogs.assertSameMessage(expected.get(i), actual.get(i));
+        }
+    }
+}
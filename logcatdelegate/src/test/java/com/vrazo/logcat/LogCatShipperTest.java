@@ -0,0 +1,341 @@
+package com.vrazo.logcat;
+
+import android.util.Log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LogCatShipper} closing batches on its limits, and retrying and overflowing to
+ * disk when the transport fails, with a {@link LogCatLoopbackCollector} standing in for the
+ * collector.
+ */
+public class LogCatShipperTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 30000)
+    public void shipsBatchOnMaxDelay() throws Exception {
+        LogCatLoopbackCollector collector = new LogCatLoopbackCollector();
+        LogCatShipper shipper = new LogCatShipper(collector);
+        shipper.setBatchLimits(1000, 1024 * 1024, 200);
+        // Let the senders wait for a batch before its first message arrives.
+        Thread.sleep(200);
+
+        List<LogCatMessage> messages = messages(3);
+        for (LogCatMessage message : messages) {
+            shipper.onNewMessage(message);
+        }
+        // Neither limit on the size of a batch is reached, and the batch is never flushed.
+        awaitShipped(shipper, messages.size());
+
+        assertEquals(1, shipper.getBatches());
+        assertSameMessages(messages, collector.getMessages());
+        shipper.close();
+    }
+
+    @Test(timeout = 30000)
+    public void shipsBatchOnMaxBytes() throws Exception {
+        for (LogCatShipper.Format format : LogCatShipper.Format.values()) {
+            LogCatLoopbackCollector collector = new LogCatLoopbackCollector();
+            final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+            LogCatShipper shipper = new LogCatShipper(recording(collector, sizes), 1);
+            shipper.setFormat(format);
+            shipper.setBatchLimits(100000, 1024, 60000);
+
+            List<LogCatMessage> messages = messages(60);
+            for (LogCatMessage message : messages) {
+                shipper.onNewMessage(message);
+            }
+            // The batches are closed on their size, without waiting for the delay or a flush.
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (sizes.size() < 2) {
+                assertTrue(format + ": " + sizes, System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            shipper.close();
+
+            // Every message is the same size, so every batch closed on its size holds as many.
+            int size = sizes.get(0);
+            assertTrue(format + ": " + sizes, size > 1 && size < messages.size());
+            for (int i = 0; i < sizes.size() - 1; i++) {
+                assertEquals(format + ": " + sizes, size, (int) sizes.get(i));
+            }
+            assertTrue(format + ": " + sizes, sizes.get(sizes.size() - 1) <= size);
+            assertEquals(messages.size(), shipper.getShipped());
+            assertSameMessages(messages, collector.getMessages());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void retriesThenOverflowsUntilTransportRecovers() throws Exception {
+        File directory = new File(folder.getRoot(), "overflow");
+        LogCatLoopbackCollector collector = new LogCatLoopbackCollector();
+        collector.setFailureRate(1);
+        LogCatShipper shipper = new LogCatShipper(collector, 1);
+        shipper.setRetry(3, 10, 100);
+        shipper.setOverflowDirectory(directory, 1024 * 1024);
+
+        List<LogCatMessage> messages = messages(5);
+        for (LogCatMessage message : messages) {
+            shipper.onNewMessage(message);
+        }
+        shipper.flush();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (shipper.getOverflowed() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertTrue(shipper.getRetries() >= 2);
+        assertTrue(collector.getFailures() >= 3);
+        assertEquals(1, shipper.getPendingBatches());
+        assertEquals(1, list(directory).length);
+        assertEquals(0, shipper.getShipped());
+        assertEquals(0, shipper.getDropped());
+
+        // The batch is sent from the overflow directory once the transport is available again.
+        collector.setFailureRate(0);
+        awaitShipped(shipper, messages.size());
+        assertEquals(0, shipper.getPendingBatches());
+        assertEquals(0, list(directory).length);
+        assertSameMessages(messages, collector.getMessages());
+        shipper.close();
+    }
+
+    @Test(timeout = 30000)
+    public void sendsOverflowLeftByPreviousShipper() throws Exception {
+        File directory = new File(folder.getRoot(), "overflow");
+        LogCatLoopbackCollector collector = new LogCatLoopbackCollector();
+        collector.setFailureRate(1);
+        LogCatShipper shipper = new LogCatShipper(collector, 1);
+        shipper.setRetry(1, 10, 60000);
+        shipper.setOverflowDirectory(directory, 1024 * 1024);
+
+        List<LogCatMessage> messages = messages(5);
+        for (LogCatMessage message : messages) {
+            shipper.onNewMessage(message);
+        }
+        shipper.close();
+        assertEquals(1, shipper.getOverflowed());
+        assertEquals(1, list(directory).length);
+
+        collector.setFailureRate(0);
+        LogCatShipper next = new LogCatShipper(collector, 1);
+        next.setOverflowDirectory(directory, 1024 * 1024);
+        awaitShipped(next, messages.size());
+        assertEquals(0, list(directory).length);
+        assertSameMessages(messages, collector.getMessages());
+        next.close();
+    }
+
+    @Test(timeout = 30000)
+    public void dropsFailedBatchWithoutOverflowDirectory() throws Exception {
+        LogCatLoopbackCollector collector = new LogCatLoopbackCollector();
+        collector.setFailureRate(1);
+        LogCatShipper shipper = new LogCatShipper(collector, 1);
+        shipper.setRetry(2, 10, 100);
+
+        for (LogCatMessage message : messages(5)) {
+            shipper.onNewMessage(message);
+        }
+        shipper.flush();
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (shipper.getDropped() < 5) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(5, shipper.getDropped());
+        assertEquals(0, shipper.getOverflowed());
+        assertEquals(0, shipper.getShipped());
+        shipper.close();
+    }
+
+    @Test(timeout = 30000)
+    public void dropsOverflowBatchTheCollectorRejects() throws Exception {
+        File directory = new File(folder.getRoot(), "overflow");
+        List<LogCatMessage> poisoned = tagged(messages(3), "Poison");
+        List<LogCatMessage> messages = messages(4);
+        overflow(directory, poisoned, messages);
+
+        // The oldest batch is rejected every time it is sent, the next one is accepted.
+        LogCatLoopbackCollector collector = new LogCatLoopbackCollector();
+        collector.setRejectedTag("Poison");
+        LogCatShipper shipper = new LogCatShipper(collector, 1);
+        shipper.setRetry(5, 10, 100);
+        shipper.setOverflowDirectory(directory, 1024 * 1024);
+        awaitShipped(shipper, messages.size());
+        awaitPendingBatches(shipper, 0);
+
+        assertEquals(1, collector.getRejected());
+        assertEquals(0, shipper.getRetries());
+        assertEquals(poisoned.size(), shipper.getDropped());
+        assertEquals(0, list(directory).length);
+        assertSameMessages(messages, collector.getMessages());
+
+        // A rejected batch in memory is neither retried nor written to the overflow directory.
+        for (LogCatMessage message : tagged(messages(2), "Poison")) {
+            shipper.onNewMessage(message);
+        }
+        shipper.close();
+        assertEquals(2, collector.getRejected());
+        assertEquals(0, shipper.getRetries());
+        assertEquals(0, shipper.getOverflowed());
+        assertEquals(poisoned.size() + 2, shipper.getDropped());
+        assertEquals(0, list(directory).length);
+    }
+
+    @Test(timeout = 30000)
+    public void dropsOverflowBatchOnceAttemptsAreUsedUp() throws Exception {
+        File directory = new File(folder.getRoot(), "overflow");
+        overflow(directory, messages(5));
+
+        LogCatLoopbackCollector collector = new LogCatLoopbackCollector();
+        collector.setFailureRate(1);
+        LogCatShipper shipper = new LogCatShipper(collector, 1);
+        shipper.setRetry(2, 1, 10);
+        shipper.setMaxOverflowAttempts(5);
+        shipper.setOverflowDirectory(directory, 1024 * 1024);
+        awaitPendingBatches(shipper, 0);
+
+        // Two attempts each time the transport is available, the last time only one is left.
+        assertEquals(5, collector.getFailures());
+        assertEquals(5, shipper.getDropped());
+        assertEquals(0, list(directory).length);
+        shipper.close();
+    }
+
+    @Test
+    public void dropsOldestBatchWhenTooManyAreWaiting() throws Exception {
+        LogCatLoopbackCollector collector = new LogCatLoopbackCollector();
+        collector.setLatency(500);
+        LogCatShipper shipper = new LogCatShipper(collector, 1);
+        shipper.setBatchLimits(1, 1024 * 1024, 60000);
+        shipper.setMaxQueuedBatches(2);
+
+        for (LogCatMessage message : messages(10)) {
+            shipper.onNewMessage(message);
+        }
+        // At most one batch is being sent and two are waiting, so at least seven were dropped.
+        assertTrue(shipper.getDropped() >= 7);
+        assertTrue(shipper.getPendingBatches() <= 2);
+        shipper.close();
+        assertEquals(10, shipper.getShipped() + shipper.getDropped());
+    }
+
+    /**
+     * Wraps a transport, recording the number of messages of each batch it accepts.
+     */
+    private static LogCatShipper.Transport recording(final LogCatShipper.Transport transport,
+                                                     final List<Integer> sizes) {
+        return new LogCatShipper.Transport() {
+            @Override
+            public void send(LogCatShipper.Batch batch) throws IOException {
+                transport.send(batch);
+                sizes.add(batch.getMessageCount());
+            }
+        };
+    }
+
+    /**
+     * Creates messages of the same size with distinct bodies.
+     */
+    private static List<LogCatMessage> messages(int count) {
+        List<LogCatMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(TestLogs.message(
+                1700000000000L + i, Log.INFO, 1234, "Tag", String.format("message %04d", i)
+            ));
+        }
+        return messages;
+    }
+
+    /**
+     * Copies messages with another tag.
+     */
+    private static List<LogCatMessage> tagged(List<LogCatMessage> messages, String tag) {
+        List<LogCatMessage> tagged = new ArrayList<>(messages.size());
+        for (LogCatMessage message : messages) {
+            tagged.add(TestLogs.message(message.getLoggedAt().getTime(),
+                message.getPriority().getNumeric(), message.getPid(), tag, message.getMessage()));
+        }
+        return tagged;
+    }
+
+    /**
+     * Leaves each list of messages in the overflow directory as a batch, oldest first, the way a
+     * shipper that could not reach its collector does.
+     */
+    @SafeVarargs
+    private static void overflow(File directory, List<LogCatMessage>... batches)
+        throws IOException {
+        LogCatLoopbackCollector collector = new LogCatLoopbackCollector();
+        collector.setFailureRate(1);
+        LogCatShipper shipper = new LogCatShipper(collector, 1);
+        shipper.setRetry(1, 10, 60000);
+        shipper.setOverflowDirectory(directory, 1024 * 1024);
+        for (List<LogCatMessage> batch : batches) {
+            for (LogCatMessage message : batch) {
+                shipper.onNewMessage(message);
+            }
+            shipper.flush();
+        }
+        shipper.close();
+        assertEquals(batches.length, list(directory).length);
+    }
+
+    /**
+     * Lists the files in the overflow directory.
+     */
+    private static File[] list(File directory) {
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        return files;
+    }
+
+    private static void assertSameMessages(List<LogCatMessage> expected,
+                                           List<LogCatMessage> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            TestLogs.assertSameMessage(expected.get(i), actual.get(i));
+        }
+    }
+
+    /**
+     * Waits until a number of batches are waiting to be sent.
+     */
+    private static void awaitPendingBatches(LogCatShipper shipper, int count)
+        throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (shipper.getPendingBatches() != count) {
+            assertTrue("pending " + shipper.getPendingBatches() + " batches",
+                System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Waits until the shipper has shipped a number of messages.
+     */
+    private static void awaitShipped(LogCatShipper shipper, int count)
+        throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (shipper.getShipped() < count) {
+            assertTrue("shipped " + shipper.getShipped() + " of " + count,
+                System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
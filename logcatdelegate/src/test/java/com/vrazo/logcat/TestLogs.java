@@ -0,0 +1,117 @@
+package com.vrazo.logcat;
+
+import org.junit.Assume;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Canned Log Cat output shared by the unit tests and benchmarks.
+ */
+final class TestLogs {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Tags in the order of how often they are logged, the first being the most frequent.
+     */
+    static final String[] TAGS = {
+        "ActivityManager", "chatty", "WindowManager", "InputDispatcher", "PackageManager",
+        "ConnectivityService", "Zygote", "AndroidRuntime", "OkHttp", "MyApp", "GnssLocation",
+        "SurfaceFlinger", "audio_hw_primary", "BluetoothAdapter", "System.err", "wpa_supplicant"
+    };
+
+    private static final char[] PRIORITIES = {'V', 'D', 'I', 'W', 'E', 'F'};
+
+    private TestLogs() {}
+
+    /**
+     * Generates lines in the threadtime format, logged one millisecond apart from the start of
+     * the current year, with a skewed distribution of tags and priorities.
+     *
+     * @param count the number of lines
+     * @param seed  the seed of the random distribution
+     * @return the lines
+     */
+    static List<String> threadtime(int count, long seed) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(calendar.get(Calendar.YEAR), Calendar.JANUARY, 1, 0, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long start = calendar.getTimeInMillis();
+
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int rank = (int) (-Math.log(random.nextDouble()) * 3);
+            String tag = TAGS[Math.min(TAGS.length - 1, rank)];
+            char priority = PRIORITIES[Math.min(5, (int) (-Math.log(random.nextDouble()) * 1.5))];
+            int pid = 100 + random.nextInt(40);
+            lines.add(String.format(
+                Locale.US, "%s %5d %5d %c %s: message %d with some payload %x",
+                format.format(new Date(start + i)), pid, pid + random.nextInt(20), priority, tag,
+                i, random.nextLong()
+            ));
+        }
+        return lines;
+    }
+
+    /**
+     * Joins lines into the output of Log Cat.
+     *
+     * @param lines the lines
+     * @return the output, each line terminated by a new line
+     */
+    static byte[] join(List<String> lines) {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Creates a message.
+     */
+    static LogCatMessage message(long loggedAt, int priority, int pid, String tag, String body) {
+        return LogCatMessage.create(
+            new Date(loggedAt), new LogCatPriority(priority), pid, pid + 1, tag, body
+        );
+    }
+
+    /**
+     * Asserts that two messages have the same timestamp, priority, ids, tag and body.
+     */
+    static void assertSameMessage(LogCatMessage expected, LogCatMessage actual) {
+        assertEquals(expected.getLoggedAt(), actual.getLoggedAt());
+        assertEquals(expected.getPriority().getNumeric(), actual.getPriority().getNumeric());
+        assertEquals(expected.getPid(), actual.getPid());
+        assertEquals(expected.getTid(), actual.getTid());
+        assertEquals(expected.getTag(), actual.getTag());
+        assertEquals(expected.getMessage(), actual.getMessage());
+    }
+
+    /**
+     * Skips the calling benchmark or stress test unless the {@code logcat.benchmarks} system
+     * property is true, so that they do not slow down every build. Run them with
+     * {@code ./gradlew test -Pbenchmarks}.
+     */
+    static void assumeBenchmarks() {
+        Assume.assumeTrue("set logcat.benchmarks to run", Boolean.getBoolean("logcat.benchmarks"));
+    }
+
+    /**
+     * Prints the result of a benchmark. Only benchmarks skipped by {@link #assumeBenchmarks()}
+     * print.
+     */
+    static void report(String benchmark, String result) {
+        System.out.println("[benchmark] " + benchmark + ": " + result);
+    }
+}
@@ -0,0 +1,71 @@
+package com.vrazo.logcat;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * A subscriber that records every signal it receives and fails on any signal that breaks the
+ * demand it has requested.
+ *
+ * @param <T> the type of item received
+ */
+class TestSubscriber<T> implements LogCatSubscriber<T> {
+    final List<T> items = new ArrayList<>();
+    LogCatSubscription subscription;
+    Throwable error;
+    boolean completed;
+
+    private long requested;
+
+    /**
+     * Requests more items through the subscription.
+     */
+    void request(long n) {
+        assertNotNull("not subscribed", subscription);
+        synchronized (this) {
+            requested += n;
+        }
+        subscription.request(n);
+    }
+
+    @Override
+    public void onSubscribe(@NonNull LogCatSubscription subscription) {
+        if (this.subscription != null) {
+            fail("subscribed twice");
+        }
+        this.subscription = subscription;
+    }
+
+    @Override
+    public synchronized void onNext(@NonNull T item) {
+        if (completed || error != null) {
+            fail("item after terminal signal: " + item);
+        }
+        if (requested == 0) {
+            fail("item without demand: " + item);
+        }
+        requested--;
+        items.add(item);
+    }
+
+    @Override
+    public synchronized void onError(@NonNull Throwable error) {
+        if (completed || this.error != null) {
+            fail("second terminal signal");
+        }
+        this.error = error;
+    }
+
+    @Override
+    public synchronized void onComplete() {
+        if (completed || error != null) {
+            fail("second terminal signal");
+        }
+        completed = true;
+    }
+}